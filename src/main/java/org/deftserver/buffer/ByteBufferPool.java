@@ -0,0 +1,210 @@
+package org.deftserver.buffer;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A pool of direct ByteBuffers in power of two size classes (512 bytes to 64K). Reading a socket into a direct
+ * buffer saves the copy through the JDK's temporary direct buffer that a heap buffer costs, pooling them avoids
+ * the (expensive) allocation of direct memory per connection.
+ *
+ * A pool is an arena owned by a single thread (every {@link org.deftserver.ioloop.IOLoop} has one), hence it is
+ * not thread safe and acquire/release never lock. Buffers must be released to the pool they were acquired from.
+ *
+ * Leak detection (enabled with -Ddeft.buffer.leakDetection=true or {@link #setLeakDetection(boolean)}) records the
+ * allocation site of every buffer acquired and reports buffers that are garbage collected without being released.
+ * It's meant for debugging, i.e. it's slow.
+ */
+public class ByteBufferPool {
+
+	private final static Logger logger = LoggerFactory.getLogger(ByteBufferPool.class);
+
+	private static final int MIN_SIZE_SHIFT = 9;	// 512 bytes
+	private static final int MAX_SIZE_SHIFT = 16;	// 64K
+
+	private static final int DEFAULT_MAX_CACHED_PER_CLASS = 256;
+
+	private static volatile boolean leakDetection = Boolean.getBoolean("deft.buffer.leakDetection");
+
+	/** Unreleased buffers (when leak detection is enabled), by identity hash code */
+	private static final Map<Integer, LeakTracker> trackers = new HashMap<Integer, LeakTracker>();
+	private static final ReferenceQueue<ByteBuffer> collected = new ReferenceQueue<ByteBuffer>();
+
+	/** Released buffers per size class */
+	private final ArrayDeque<ByteBuffer>[] free;
+	private final int maxCachedPerClass;
+
+	/**
+	 * Remembers where a buffer was acquired. Enqueued (in collected) when the buffer is garbage collected.
+	 */
+	private static class LeakTracker extends WeakReference<ByteBuffer> {
+
+		final int hash;
+		final Throwable site;
+
+		/** The next tracker with the same identity hash code */
+		LeakTracker next;
+
+		LeakTracker(ByteBuffer buffer, int hash) {
+			super(buffer, collected);
+			this.hash = hash;
+			this.site = new Throwable("Allocation site of a " + buffer.capacity() + " byte buffer");
+		}
+
+	}
+
+	public ByteBufferPool() {
+		this(DEFAULT_MAX_CACHED_PER_CLASS);
+	}
+
+	/**
+	 * @param maxCachedPerClass Max number of released buffers kept per size class, surplus buffers are left to the
+	 * garbage collector.
+	 */
+	@SuppressWarnings("unchecked")
+	public ByteBufferPool(int maxCachedPerClass) {
+		this.maxCachedPerClass = maxCachedPerClass;
+		free = (ArrayDeque<ByteBuffer>[]) new ArrayDeque<?>[MAX_SIZE_SHIFT - MIN_SIZE_SHIFT + 1];
+		for (int i = 0; i < free.length; i++) {
+			free[i] = new ArrayDeque<ByteBuffer>();
+		}
+	}
+
+	public static void setLeakDetection(boolean enabled) {
+		leakDetection = enabled;
+	}
+
+	/**
+	 * @return The index of the smallest size class that fits capacity, or -1 if capacity exceeds the largest class.
+	 */
+	static int sizeClass(int capacity) {
+		if (capacity <= 1 << MIN_SIZE_SHIFT) {
+			return 0;
+		} else if (capacity > 1 << MAX_SIZE_SHIFT) {
+			return -1;
+		}
+		return 32 - Integer.numberOfLeadingZeros(capacity - 1) - MIN_SIZE_SHIFT;
+	}
+
+	/**
+	 * @return A direct buffer with position 0 and limit capacity. Its actual capacity is rounded up to the size class.
+	 * Buffers larger than the largest size class are allocated (and released) without pooling.
+	 */
+	public ByteBuffer acquire(int capacity) {
+		int sizeClass = sizeClass(capacity);
+		ByteBuffer buffer = null;
+		if (sizeClass >= 0) {
+			buffer = free[sizeClass].pollLast();
+			if (buffer == null) {
+				buffer = ByteBuffer.allocateDirect(1 << (sizeClass + MIN_SIZE_SHIFT));
+			}
+		} else {
+			buffer = ByteBuffer.allocateDirect(capacity);
+		}
+		if (leakDetection) {
+			reportLeaks();
+			track(buffer);
+		}
+		buffer.limit(capacity);
+		return buffer;
+	}
+
+	/**
+	 * Gives back a buffer acquired from this pool. The buffer must not be used afterwards.
+	 */
+	public void release(ByteBuffer buffer) {
+		if (leakDetection && !untrack(buffer)) {
+			logger.warn("Released a buffer that is not acquired (or already released)", new Throwable());
+			return;
+		}
+		int sizeClass = sizeClass(buffer.capacity());
+		if (!buffer.isDirect() || sizeClass < 0 || buffer.capacity() != 1 << (sizeClass + MIN_SIZE_SHIFT)) {
+			return;	// not pooled
+		}
+		if (free[sizeClass].size() < maxCachedPerClass) {
+			buffer.clear();
+			free[sizeClass].addLast(buffer);
+		}
+	}
+
+	/**
+	 * @return The number of buffers acquired but neither released nor garbage collected (by all pools), 0 unless leak
+	 * detection is enabled.
+	 */
+	public static int getUnreleasedCount() {
+		synchronized (trackers) {
+			int count = 0;
+			for (LeakTracker tracker : trackers.values()) {
+				for (; tracker != null; tracker = tracker.next) {
+					count++;
+				}
+			}
+			return count;
+		}
+	}
+
+	/**
+	 * Logs the allocation site of every buffer garbage collected without being released.
+	 */
+	public static void reportLeaks() {
+		LeakTracker tracker;
+		while ((tracker = (LeakTracker) collected.poll()) != null) {
+			if (remove(tracker.hash, tracker)) {
+				logger.error("LEAK: a pooled ByteBuffer was garbage collected without being released", tracker.site);
+			}
+		}
+	}
+
+	private static void track(ByteBuffer buffer) {
+		int hash = System.identityHashCode(buffer);
+		LeakTracker tracker = new LeakTracker(buffer, hash);
+		synchronized (trackers) {
+			tracker.next = trackers.put(hash, tracker);
+		}
+	}
+
+	private static boolean untrack(ByteBuffer buffer) {
+		int hash = System.identityHashCode(buffer);
+		synchronized (trackers) {
+			for (LeakTracker tracker = trackers.get(hash); tracker != null; tracker = tracker.next) {
+				if (tracker.get() == buffer) {
+					remove(hash, tracker);
+					return true;
+				}
+			}
+			return false;
+		}
+	}
+
+	/**
+	 * @return true if the tracker was registered
+	 */
+	private static boolean remove(int hash, LeakTracker tracker) {
+		synchronized (trackers) {
+			LeakTracker first = trackers.get(hash);
+			if (first == tracker) {
+				if (tracker.next != null) {
+					trackers.put(hash, tracker.next);
+				} else {
+					trackers.remove(hash);
+				}
+				return true;
+			}
+			for (LeakTracker t = first; t != null; t = t.next) {
+				if (t.next == tracker) {
+					t.next = tracker.next;
+					return true;
+				}
+			}
+			return false;
+		}
+	}
+
+}
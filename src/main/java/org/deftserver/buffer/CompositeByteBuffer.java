@@ -0,0 +1,226 @@
+package org.deftserver.buffer;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An append only sequence of bytes stored in a list of fixed size segments, i.e. appending never copies the bytes
+ * written so far (as opposed to e.g. a growing String or byte array). Characters are encoded (UTF-8) straight into
+ * the segments.
+ *
+ * The segments are either heap buffers or, if the buffer is created with a {@link ByteBufferPool}, direct buffers
+ * acquired from the pool. Pooled segments are released by {@link #clear()}, or by the owner of the segments handed
+ * over by {@link #drain()}.
+ *
+ * Not thread safe, a pooled buffer must only be used from the thread owning its pool.
+ */
+public class CompositeByteBuffer {
+
+	private static final int DEFAULT_SEGMENT_SIZE = 4096;
+
+	private final int segmentSize;
+
+	/** The pool segments are acquired from, null for heap segments */
+	private final ByteBufferPool pool;
+
+	/** Full segments (flipped, i.e. ready to be read) */
+	private final List<ByteBuffer> segments = new ArrayList<ByteBuffer>(4);
+
+	/** The segment currently appended to (not flipped), null if nothing is appended since the last clear */
+	private ByteBuffer current;
+
+	private int size = 0;
+
+	public CompositeByteBuffer() {
+		this(DEFAULT_SEGMENT_SIZE);
+	}
+
+	public CompositeByteBuffer(int segmentSize) {
+		this(segmentSize, null);
+	}
+
+	/**
+	 * @param pool The pool segments are acquired from, or null for heap segments
+	 */
+	public CompositeByteBuffer(int segmentSize, ByteBufferPool pool) {
+		this.segmentSize = segmentSize;
+		this.pool = pool;
+	}
+
+	/**
+	 * @return The pool segments are acquired from, or null if the segments are heap buffers
+	 */
+	public ByteBufferPool getPool() {
+		return pool;
+	}
+
+	/**
+	 * @return The total number of bytes appended since the last {@link #clear()}
+	 */
+	public int size() {
+		return size;
+	}
+
+	public CompositeByteBuffer append(byte[] bytes) {
+		return append(bytes, 0, bytes.length);
+	}
+
+	public CompositeByteBuffer append(byte[] bytes, int offset, int length) {
+		size += length;
+		while (length > 0) {
+			ByteBuffer segment = writableSegment();
+			int n = Math.min(length, segment.remaining());
+			segment.put(bytes, offset, n);
+			offset += n;
+			length -= n;
+		}
+		return this;
+	}
+
+	/**
+	 * Appends the remaining bytes of the given buffer (its position is advanced to its limit).
+	 */
+	public CompositeByteBuffer append(ByteBuffer buffer) {
+		size += buffer.remaining();
+		while (buffer.hasRemaining()) {
+			ByteBuffer segment = writableSegment();
+			if (buffer.remaining() <= segment.remaining()) {
+				segment.put(buffer);
+			} else {
+				int limit = buffer.limit();
+				buffer.limit(buffer.position() + segment.remaining());
+				segment.put(buffer);
+				buffer.limit(limit);
+			}
+		}
+		return this;
+	}
+
+	/**
+	 * Appends the UTF-8 encoding of the given characters.
+	 */
+	public CompositeByteBuffer append(CharSequence chars) {
+		ByteBuffer segment = writableSegment();
+		final int length = chars.length();
+		int start = segment.position();
+		for (int i = 0; i < length; i++) {
+			char c = chars.charAt(i);
+			if (segment.remaining() < 4) {	// room for the longest encoding of a code point
+				size += segment.position() - start;
+				segment = writableSegment(4);
+				start = segment.position();
+			}
+			if (c < 0x80) {
+				segment.put((byte) c);
+			} else if (c < 0x800) {
+				segment.put((byte) (0xc0 | c >> 6));
+				segment.put((byte) (0x80 | c & 0x3f));
+			} else if (Character.isHighSurrogate(c) && i + 1 < length 
+					&& Character.isLowSurrogate(chars.charAt(i + 1))) {
+				int codePoint = Character.toCodePoint(c, chars.charAt(++i));
+				segment.put((byte) (0xf0 | codePoint >> 18));
+				segment.put((byte) (0x80 | codePoint >> 12 & 0x3f));
+				segment.put((byte) (0x80 | codePoint >> 6 & 0x3f));
+				segment.put((byte) (0x80 | codePoint & 0x3f));
+			} else if (c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE) {
+				segment.put((byte) '?');	// unpaired surrogate (as String.getBytes)
+			} else {
+				segment.put((byte) (0xe0 | c >> 12));
+				segment.put((byte) (0x80 | c >> 6 & 0x3f));
+				segment.put((byte) (0x80 | c & 0x3f));
+			}
+		}
+		size += segment.position() - start;
+		return this;
+	}
+
+	private ByteBuffer writableSegment() {
+		return writableSegment(1);
+	}
+
+	/**
+	 * @return A segment with room for at least minRemaining bytes
+	 */
+	private ByteBuffer writableSegment(int minRemaining) {
+		if (current != null && current.remaining() >= minRemaining) {
+			return current;
+		}
+		if (current != null) {
+			current.flip();
+			segments.add(current);
+		}
+		current = pool != null ? pool.acquire(segmentSize) : ByteBuffer.allocate(segmentSize);
+		return current;
+	}
+
+	/**
+	 * @return Read only views of the bytes appended (the views are not affected by subsequent appends)
+	 */
+	public ByteBuffer[] getBuffers() {
+		int n = segments.size() + (current != null && current.position() > 0 ? 1 : 0);
+		ByteBuffer[] buffers = new ByteBuffer[n];
+		for (int i = 0; i < segments.size(); i++) {
+			buffers[i] = segments.get(i).asReadOnlyBuffer();
+		}
+		if (n > segments.size()) {
+			ByteBuffer last = current.duplicate();
+			last.flip();
+			buffers[n - 1] = last.asReadOnlyBuffer();
+		}
+		return buffers;
+	}
+
+	/**
+	 * @return A copy of the bytes appended
+	 */
+	public byte[] toByteArray() {
+		byte[] bytes = new byte[size];
+		int offset = 0;
+		for (ByteBuffer buffer : getBuffers()) {
+			int n = buffer.remaining();
+			buffer.get(bytes, offset, n);
+			offset += n;
+		}
+		return bytes;
+	}
+
+	/**
+	 * Hands over the bytes appended as the segments themselves (flipped, i.e. ready to be read) and clears this
+	 * buffer. The caller owns the segments returned, i.e. if they are pooled it releases them once they are read.
+	 */
+	public ByteBuffer[] drain() {
+		if (current != null) {
+			if (current.position() > 0) {
+				current.flip();
+				segments.add(current);
+			} else if (pool != null) {
+				pool.release(current);
+			}
+		}
+		ByteBuffer[] buffers = segments.toArray(new ByteBuffer[segments.size()]);
+		segments.clear();
+		current = null;
+		size = 0;
+		return buffers;
+	}
+
+	/**
+	 * Discards all bytes appended. Buffers previously returned by {@link #getBuffers()} stay valid, unless the
+	 * segments are pooled (they are released).
+	 */
+	public void clear() {
+		if (pool != null) {
+			for (ByteBuffer segment : segments) {
+				pool.release(segment);
+			}
+			if (current != null) {
+				pool.release(current);
+			}
+		}
+		segments.clear();
+		current = null;
+		size = 0;
+	}
+
+}
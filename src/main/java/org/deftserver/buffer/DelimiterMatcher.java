@@ -0,0 +1,132 @@
+package org.deftserver.buffer;
+
+/**
+ * Finds a delimiter in a byte array. Short delimiters (e.g. "\r\n") are found by scanning for their first byte a word
+ * (8 bytes) at a time (SWAR), longer ones (e.g. multipart boundaries) with Boyer-Moore-Horspool, which skips up to
+ * the delimiter's length per comparison.
+ */
+abstract class DelimiterMatcher {
+
+	/** Delimiters up to this length are searched with SWAR */
+	private static final int MAX_SWAR_LENGTH = 4;
+
+	protected final byte[] delimiter;
+
+	protected DelimiterMatcher(byte[] delimiter) {
+		this.delimiter = delimiter;
+	}
+
+	static DelimiterMatcher forDelimiter(byte[] delimiter) {
+		if (delimiter.length == 0) {
+			throw new IllegalArgumentException("Empty delimiter");
+		}
+		return delimiter.length <= MAX_SWAR_LENGTH ? new SwarMatcher(delimiter) : new HorspoolMatcher(delimiter);
+	}
+
+	/**
+	 * @return The index of the first occurrence of the delimiter in b[from, end), or -1 if there is none. In the
+	 * latter case a subsequent search (after more bytes are appended) may resume at max(from, end - length + 1).
+	 */
+	abstract int indexOf(byte[] b, int from, int end);
+
+	/**
+	 * @return true if the delimiter occurs at b[index] (the delimiter must fit)
+	 */
+	protected final boolean matchesAt(byte[] b, int index) {
+		for (int i = 1; i < delimiter.length; i++) {
+			if (b[index + i] != delimiter[i]) {
+				return false;
+			}
+		}
+		return b[index] == delimiter[0];
+	}
+
+	static class SwarMatcher extends DelimiterMatcher {
+
+		private static final long ONES = 0x0101010101010101L;
+		private static final long HIGHS = 0x8080808080808080L;
+
+		/** The first byte of the delimiter in every byte of a word */
+		private final long pattern;
+
+		SwarMatcher(byte[] delimiter) {
+			super(delimiter);
+			pattern = ONES * (delimiter[0] & 0xff);
+		}
+
+		@Override
+		int indexOf(byte[] b, int from, int end) {
+			final int last = end - delimiter.length;	// last index the delimiter may start at
+			int i = from;
+			while (i + 8 <= end) {
+				long x = word(b, i) ^ pattern;
+				long found = (x - ONES) & ~x & HIGHS;	// high bit set in the (lowest) byte equal to the first byte
+				if (found == 0) {
+					i += 8;
+					continue;
+				}
+				int candidate = i + (Long.numberOfTrailingZeros(found) >>> 3);
+				if (candidate > last) {
+					return -1;
+				} else if (matchesAt(b, candidate)) {
+					return candidate;
+				}
+				i = candidate + 1;
+			}
+			for (; i <= last; i++) {
+				if (b[i] == delimiter[0] && matchesAt(b, i)) {
+					return i;
+				}
+			}
+			return -1;
+		}
+
+		/**
+		 * @return b[i, i + 8) as a little endian word, i.e. b[i] is the lowest byte.
+		 */
+		private static long word(byte[] b, int i) {
+			return (b[i] & 0xffL)
+					| (b[i + 1] & 0xffL) << 8
+					| (b[i + 2] & 0xffL) << 16
+					| (b[i + 3] & 0xffL) << 24
+					| (b[i + 4] & 0xffL) << 32
+					| (b[i + 5] & 0xffL) << 40
+					| (b[i + 6] & 0xffL) << 48
+					| (b[i + 7] & 0xffL) << 56;
+		}
+
+	}
+
+	static class HorspoolMatcher extends DelimiterMatcher {
+
+		/** Shift per value of the byte aligned with the last byte of the delimiter */
+		private final int[] skip = new int[256];
+
+		HorspoolMatcher(byte[] delimiter) {
+			super(delimiter);
+			final int length = delimiter.length;
+			for (int i = 0; i < skip.length; i++) {
+				skip[i] = length;
+			}
+			for (int i = 0; i < length - 1; i++) {
+				skip[delimiter[i] & 0xff] = length - 1 - i;
+			}
+		}
+
+		@Override
+		int indexOf(byte[] b, int from, int end) {
+			final int length = delimiter.length;
+			final byte lastByte = delimiter[length - 1];
+			for (int i = from; i <= end - length; ) {
+				byte c = b[i + length - 1];
+				if (c == lastByte && matchesAt(b, i)) {
+					return i;
+				}
+				i += skip[c & 0xff];
+			}
+			return -1;
+		}
+
+	}
+
+}
@@ -16,6 +16,7 @@ public class DynamicByteBufferTokenizer implements Iterator<ByteBuffer> {
 	private final byte[] EMPTY_DELIMITER = {};
 	private byte[] value;
 	private byte[] delimiter = EMPTY_DELIMITER;
+	private DelimiterMatcher matcher;
 	
 	private int delimiterLenght;
 	private int searchPos = 0;
@@ -37,6 +38,7 @@ public class DynamicByteBufferTokenizer implements Iterator<ByteBuffer> {
 		if (!this.delimiter.equals(delimiter)) {
 			this.delimiter = delimiter;
 			this.delimiterLenght = delimiter.length;
+			this.matcher = delimiter.length > 0 ? DelimiterMatcher.forDelimiter(delimiter) : null;
 			this.searchPos = 0;
 			this.hasNext = false;
 		}
@@ -69,26 +71,15 @@ public class DynamicByteBufferTokenizer implements Iterator<ByteBuffer> {
 	}
 	
 	private int search() {
-		int end = count - delimiterLenght;
-		int match = 0;
-		while (searchPos <= end && (match = match()) != delimiterLenght) {
-			searchPos++;
-		}
-		if (match == delimiterLenght) {
+		int index = matcher.indexOf(value, searchPos, count);
+		if (index >= 0) {
 			// match found
-			return searchPos;
+			searchPos = index;
 		} else {
-			return -1;
-		}
-	}
-	
-	private int match() {
-		int matchLength = 0;
-		while (matchLength < delimiterLenght &&
-				delimiter[matchLength] == value[searchPos + matchLength]) {
-			matchLength++;
+			// resume where the delimiter could start once more bytes are appended
+			searchPos = Math.max(searchPos, count - delimiterLenght + 1);
 		}
-		return matchLength;
+		return index;
 	}
 	
 	private void compact(int num) {
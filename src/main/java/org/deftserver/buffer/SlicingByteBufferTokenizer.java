@@ -0,0 +1,187 @@
+package org.deftserver.buffer;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * A tokenizer that hands out tokens as read-only slices over its storage, i.e. without copying them (as opposed to
+ * {@link DynamicByteBufferTokenizer}).
+ *
+ * The unconsumed bytes are a window [start, end) of the storage array. Consuming a token only advances start, the
+ * window is moved to the front of the array (or the array grown) only when an append does not fit behind end.
+ * Hence a token (slice) is valid until the next {@link #append(ByteBuffer)}.
+ *
+ * Not thread safe.
+ */
+public class SlicingByteBufferTokenizer implements Iterator<ByteBuffer> {
+
+	private static final byte[] EMPTY_DELIMITER = {};
+
+	private byte[] value;
+	private int start = 0;
+	private int end = 0;
+
+	private byte[] delimiter = EMPTY_DELIMITER;
+	private DelimiterMatcher matcher;
+
+	/** Position in value where the search for the delimiter resumes, i.e. no delimiter starts in [start, searchPos) */
+	private int searchPos = 0;
+
+	/** End (exclusive, delimiter included) of the next token if it's found, otherwise -1 */
+	private int tokenEnd = -1;
+
+	public SlicingByteBufferTokenizer(int capacity, byte[] delimiter) {
+		this(capacity);
+		setDelimiter(delimiter);
+	}
+
+	public SlicingByteBufferTokenizer(int capacity) {
+		value = new byte[capacity];
+	}
+
+	public void setDelimiter(byte[] delimiter) {
+		if (!Arrays.equals(this.delimiter, delimiter)) {
+			this.delimiter = delimiter;
+			this.matcher = delimiter.length > 0 ? DelimiterMatcher.forDelimiter(delimiter) : null;
+			this.searchPos = start;
+			this.tokenEnd = -1;
+		}
+	}
+
+	/**
+	 * Appends the remaining bytes of the given (flipped) buffer. Invalidates the tokens returned so far.
+	 */
+	public SlicingByteBufferTokenizer append(ByteBuffer buffer) {
+		int length = buffer.remaining();
+		ensureWritable(length);
+		buffer.get(value, end, length);
+		end += length;
+		return this;
+	}
+
+	/**
+	 * Makes room for length bytes behind end, by moving the unconsumed bytes to the front of the array if that is
+	 * enough, otherwise by growing the array.
+	 */
+	private void ensureWritable(int length) {
+		if (value.length - end >= length) {
+			return;
+		}
+		int size = end - start;
+		if (size + length <= value.length) {
+			System.arraycopy(value, start, value, 0, size);
+		} else {
+			int newCapacity = Math.max(value.length * 2, size + length);
+			if (newCapacity < 0) {
+				newCapacity = Integer.MAX_VALUE;
+			}
+			byte[] newValue = new byte[newCapacity];
+			System.arraycopy(value, start, newValue, 0, size);
+			value = newValue;
+		}
+		searchPos -= start;
+		if (tokenEnd >= 0) {
+			tokenEnd -= start;
+		}
+		start = 0;
+		end = size;
+	}
+
+	/**
+	 * @return The number of bytes appended but not yet consumed.
+	 */
+	public int size() {
+		return end - start;
+	}
+
+	/**
+	 * @return The byte at the given index (relative to the first unconsumed byte) without consuming it
+	 */
+	public byte get(int index) {
+		if (index < 0 || index >= size()) {
+			throw new IndexOutOfBoundsException("Index: " + index + " size: " + size());
+		}
+		return value[start + index];
+	}
+
+	/**
+	 * Consumes the next num bytes.
+	 *
+	 * @return A read-only slice, valid until the next append.
+	 */
+	public ByteBuffer slice(int num) {
+		if (num > size()) {
+			throw new BufferUnderflowException();
+		}
+		ByteBuffer result = slice(start, start + num);
+		start += num;
+		if (searchPos < start) {
+			searchPos = start;
+		}
+		tokenEnd = -1;
+		consumed();
+		return result;
+	}
+
+	private ByteBuffer slice(int from, int to) {
+		return ByteBuffer.wrap(value, from, to - from).slice().asReadOnlyBuffer();
+	}
+
+	/**
+	 * Restarts at the front of the array when everything is consumed (so no bytes are moved by the next append).
+	 */
+	private void consumed() {
+		if (start == end) {
+			start = end = searchPos = 0;
+		}
+	}
+
+	private int search() {
+		int index = matcher.indexOf(value, searchPos, end);
+		if (index >= 0) {
+			searchPos = index;
+		} else {
+			searchPos = Math.max(searchPos, end - delimiter.length + 1);
+		}
+		return index;
+	}
+
+	private void checkDelimiter() {
+		if (delimiter.length == 0) {
+			throw new NoSuchElementException();
+		}
+	}
+
+	@Override
+	public boolean hasNext() {
+		checkDelimiter();
+		if (tokenEnd < 0 && search() >= 0) {
+			tokenEnd = searchPos + delimiter.length;
+		}
+		return tokenEnd >= 0;
+	}
+
+	/**
+	 * @return The next token (delimiter included) as a read-only slice, valid until the next append.
+	 */
+	@Override
+	public ByteBuffer next() {
+		if (!hasNext()) {
+			throw new NoSuchElementException();
+		}
+		ByteBuffer result = slice(start, tokenEnd);
+		start = searchPos = tokenEnd;
+		tokenEnd = -1;
+		consumed();
+		return result;
+	}
+
+	@Override
+	public void remove() {
+		throw new UnsupportedOperationException();
+	}
+
+}
@@ -1,11 +1,16 @@
 package org.deftserver.example;
 
+import org.deftserver.ioloop.IOLoop;
 import org.deftserver.web.AsyncCallback;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
  * Dummy class representing a call to an async DB-lib used in development
+ * 
+ * The callback is invoked on the {@link IOLoop} that issued the call (not on the thread doing the "I/O"), which makes
+ * it safe to access the connection (e.g. HttpResponse.finish) from the callback. If the call is issued without a loop
+ * (e.g. on a connection thread of the blocking engine) the callback is invoked on the thread doing the "I/O".
  *
  */
 public class AsyncDbApi {
@@ -15,6 +20,7 @@ public class AsyncDbApi {
 	
 	public void getNameFromId(final String id, final AsyncCallback<String> callback) {
 		logger.debug("Getting name from database...");
+		final IOLoop ioLoop = IOLoop.current();
 		
 		Runnable runnable = new Runnable( ) {
 			
@@ -23,14 +29,26 @@ public class AsyncDbApi {
 				logger.debug("sleeping for " + DELAY +" seconds");
 				try {
 					Thread.sleep(DELAY);
-					String result = "Jim" + id;
-					callback.onSuccess(result);
-				} catch (InterruptedException e) {
-					callback.onFailure(e);
+					final String result = "Jim" + id;
+					invoke(ioLoop, new Runnable() {
+						@Override public void run() { callback.onSuccess(result); }
+					});
+				} catch (final InterruptedException e) {
+					invoke(ioLoop, new Runnable() {
+						@Override public void run() { callback.onFailure(e); }
+					});
 				}
 			}
 		};
 		Thread t = new Thread(runnable);
 		t.start();
 	}
+	
+	private static void invoke(IOLoop ioLoop, Runnable callback) {
+		if (ioLoop != null) {
+			ioLoop.addCallback(callback);
+		} else {
+			callback.run();
+		}
+	}
 }
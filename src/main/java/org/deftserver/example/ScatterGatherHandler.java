@@ -0,0 +1,35 @@
+package org.deftserver.example;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+
+import org.deftserver.ioloop.IOLoop;
+import org.deftserver.web.CompletionStages;
+import org.deftserver.web.handler.AsyncRequestHandler;
+import org.deftserver.web.protocol.HttpRequest;
+import org.deftserver.web.protocol.HttpResponse;
+
+/**
+ * Looks up two names in parallel (cmp. {@link AsyncDbHandler}, which looks up one with a hand written callback) and
+ * responds when both are retrieved, or with a 500 if that takes more than a second.
+ */
+public class ScatterGatherHandler extends AsyncRequestHandler {
+
+	private final AsyncDbApi db = new AsyncDbApi();
+
+	@Override
+	public CompletionStage<?> getAsync(HttpRequest request, final HttpResponse response) {
+		List<CompletableFuture<String>> names = Arrays.asList(getName("123"), getName("456"));
+		return CompletionStages.withTimeout(CompletionStages.all(names), 1000, IOLoop.current())
+				.thenAccept(result -> response.write("Names: " + result));
+	}
+
+	private CompletableFuture<String> getName(String id) {
+		CompletableFuture<String> name = new CompletableFuture<String>();
+		db.getNameFromId(id, CompletionStages.callback(name));
+		return name;
+	}
+
+}
@@ -1,5 +0,0 @@
-package org.deftserver.example.echo;
-
-public interface LineHandler {
-	public void handleLine(LineRequest request);
-}
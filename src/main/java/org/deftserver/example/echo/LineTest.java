@@ -1,27 +1,48 @@
 package org.deftserver.example.echo;
 
 import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.List;
 
-import org.deftserver.ioloop.IOLoop;
+import org.deftserver.ioloop.IOLoopGroup;
+import org.deftserver.net.DelimiterFrameDecoder;
+import org.deftserver.net.FrameConnection;
+import org.deftserver.net.FrameHandler;
+import org.deftserver.net.FrameServer;
+import org.deftserver.net.TextLineEncoder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-public class LineTest implements LineHandler {
+import com.google.common.base.Charsets;
+
+/**
+ * A line based echo server: every "\r\n" terminated line received is answered with a line of its own. 
+ */
+public class LineTest extends FrameHandler<ByteBuffer, CharSequence> {
 	
 	private final static Logger logger = LoggerFactory.getLogger(LineTest.class);
 	private final static int port = 9999;
+	private final static int MAX_LINE_LENGTH = 8192;
 	
 	public static void main(String[] args) {
-		LineServer server = new LineServer(new LineTest());
+		IOLoopGroup group = new IOLoopGroup();	// one loop per core
+		FrameServer<ByteBuffer, CharSequence> server = new FrameServer<ByteBuffer, CharSequence>(
+				new DelimiterFrameDecoder("\r\n".getBytes(Charsets.US_ASCII), MAX_LINE_LENGTH), 
+				new TextLineEncoder("\n"), 
+				new LineTest(), 
+				group);
 		server.listen(new InetSocketAddress(port));
 		logger.info("Listening on port {}", port);
-		IOLoop.getInstance().start();
+		group.start();
 	}
 	
-	
 	@Override
-	public void handleLine(LineRequest request) {
-		logger.info(">{}#", request.getLine());
-		request.getConnection().write("< Deft LineServer: " + request.getLine() + "\n");
+	public void handleFrames(FrameConnection<ByteBuffer, CharSequence> connection, List<ByteBuffer> lines) {
+		for (ByteBuffer frame : lines) {
+			String line = Charsets.UTF_8.decode(frame).toString();
+			logger.info(">{}#", line);
+			connection.write("< Deft LineServer: " + line);
+		}
 	}
+	
 }
@@ -0,0 +1,137 @@
+package org.deftserver.ioloop;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A hashed timing wheel (Varghese & Lauck). Each bucket of the wheel covers one tick and holds a doubly linked list 
+ * of {@link Timeout}s, which gives O(1) insertion and cancellation. Timeouts further away than one revolution keep 
+ * track of the number of remaining rounds.
+ * 
+ * Not thread safe, a timer is owned (and only accessed) by the thread running its {@link IOLoop}. 
+ */
+class HashedWheelTimer {
+	
+	private final static Logger logger = LoggerFactory.getLogger(HashedWheelTimer.class);
+
+	private final Timeout[] wheel;
+	private final int mask;
+	private final long tickDuration;
+	private final long startTime;
+	
+	/** The next tick to expire */
+	private long tick = 0;
+	private int size = 0;
+	
+	/**
+	 * @param tickDuration Resolution of the timer (in ms)
+	 * @param ticksPerWheel Number of buckets (rounded up to the nearest power of two) 
+	 * @param startTime Start of the first tick (in ms)
+	 */
+	HashedWheelTimer(long tickDuration, int ticksPerWheel, long startTime) {
+		int length = 1;
+		while (length < ticksPerWheel) {
+			length <<= 1;
+		}
+		this.wheel = new Timeout[length];
+		this.mask = length - 1;
+		this.tickDuration = tickDuration;
+		this.startTime = startTime;
+	}
+	
+	int size() {
+		return size;
+	}
+	
+	void add(Timeout timeout) {
+		long calculated = Math.max((timeout.getDeadline() - startTime) / tickDuration, tick);
+		int index = (int) (calculated & mask);
+		timeout.remainingRounds = (calculated - tick) / wheel.length;
+		timeout.bucket = index;
+		timeout.prev = null;
+		timeout.next = wheel[index];
+		if (wheel[index] != null) {
+			wheel[index].prev = timeout;
+		}
+		wheel[index] = timeout;
+		size++;
+	}
+	
+	void remove(Timeout timeout) {
+		if (timeout.bucket < 0) {
+			return;	// not scheduled (or already expired)
+		}
+		if (timeout.prev == null) {
+			wheel[timeout.bucket] = timeout.next;
+		} else {
+			timeout.prev.next = timeout.next;
+		}
+		if (timeout.next != null) {
+			timeout.next.prev = timeout.prev;
+		}
+		timeout.bucket = -1;
+		timeout.prev = timeout.next = null;
+		size--;
+	}
+	
+	/**
+	 * Executes the callbacks of all timeouts whose tick has passed.
+	 */
+	void expire(long now) {
+		List<Timeout> expired = null;
+		while (size > 0 && startTime + (tick + 1) * tickDuration <= now) {
+			Timeout timeout = wheel[(int) (tick & mask)];
+			while (timeout != null) {
+				Timeout next = timeout.next;
+				if (timeout.remainingRounds <= 0) {
+					remove(timeout);
+					if (expired == null) {
+						expired = new ArrayList<Timeout>();
+					}
+					expired.add(timeout);
+				} else {
+					timeout.remainingRounds--;
+				}
+				timeout = next;
+			}
+			tick++;
+		}
+		if (size == 0) {
+			// nothing (left) scheduled, fast forward
+			tick = Math.max(tick, (now - startTime) / tickDuration);
+		}
+		if (expired != null) {
+			for (Timeout timeout : expired) {
+				if (!timeout.isCancelled()) {
+					run(timeout);
+				}
+			}
+		}
+	}
+	
+	private void run(Timeout timeout) {
+		try {
+			timeout.getCallback().run();
+		} catch (Exception e) {
+			logger.error("Exception thrown from timeout callback: {}", e);
+		}
+	}
+	
+	/**
+	 * @return Number of ms until the next non empty tick ends (at least 1), or -1 if no timeouts are scheduled.
+	 */
+	long nextTimeout(long now) {
+		if (size == 0) {
+			return -1;
+		}
+		long t = tick;
+		while (wheel[(int) (t & mask)] == null) {
+			t++;
+		}
+		return Math.max(1, startTime + (t + 1) * tickDuration - now);
+	}
+	
+}
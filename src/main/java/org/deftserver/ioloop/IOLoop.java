@@ -6,63 +6,247 @@ import java.nio.channels.SelectableChannel;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.util.Iterator;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import org.deftserver.buffer.ByteBufferPool;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-// TODO: Add support for timeout
-// TODO: Add support for arbitrary callbacks/next tick style
-// TODO: Investigate nio pipes vs. wakeup
-public class IOLoop {
-	
+/**
+ * A single threaded reactor. Each IOLoop owns one {@link Selector} and is driven by the thread that invokes
+ * {@link #start()}. Several loops can be combined into an {@link IOLoopGroup} to make use of multiple cores, in
+ * which case every channel is owned by exactly one loop for its whole lifetime.
+ */
+public class IOLoop implements Executor {
+
 	private final static Logger logger = LoggerFactory.getLogger(IOLoop.class);
-	private final static IOLoop instance = new IOLoop();
+	private final static IOLoop instance = new IOLoop("I/O-LOOP");
+
+	/** Resolution of scheduled timeouts (in ms) */
+	private final static long TIMER_TICK_DURATION = 100;
+	private final static int TIMER_TICKS_PER_WHEEL = 512;
+	
+	/** Max number of callbacks executed per iteration, remaining callbacks are deferred to the next iteration */
+	private final static int MAX_CALLBACKS_PER_ITERATION = 1024;
+	
+	/** The loop run by the current thread (if any) */
+	private final static ThreadLocal<IOLoop> current = new ThreadLocal<IOLoop>();
+	
 	private Selector selector;
+
+	private final String name;
+
+	/** The thread running this loop, null until {@link #start()} is invoked. */
+	private volatile Thread thread;
+
+	/** The group this loop belongs to, null for stand alone loops (e.g. the default instance). */
+	private IOLoopGroup group;
+
+	/** Approximate number of channels owned by this loop. Used for least-loaded balancing. */
+	private final AtomicInteger load = new AtomicInteger();
+
+	private final MpscQueue<Runnable> callbacks = new MpscQueue<Runnable>();
 	
+	/** 
+	 * True while the loop thread is (about to be) blocked in select. Producers of callbacks only wake up the 
+	 * selector if they manage to flip this flag, hence several callbacks added in a burst cost a single wakeup.
+	 */
+	private final AtomicBoolean selecting = new AtomicBoolean(false);
+
+	/** Direct buffers for socket I/O on this loop (an arena of its own, hence no locking) */
+	private final ByteBufferPool bufferPool = new ByteBufferPool();
+
+	private final HashedWheelTimer timer = 
+		new HashedWheelTimer(TIMER_TICK_DURATION, TIMER_TICKS_PER_WHEEL, System.currentTimeMillis());
 
-	private IOLoop() {
+	IOLoop(String name) {
+		this.name = name;
 		try {
 			selector = Selector.open();
 		} catch (IOException e) {
 			logger.error("Error opening selector: {}", e);
 		}
 	}
-	
+
+	/**
+	 * @return The default (stand alone) IOLoop.
+	 */
 	public static IOLoop getInstance() {
 		return instance;
 	}
+	
+	/**
+	 * @return The loop run by the calling thread, or null if the calling thread is not an I/O loop thread.
+	 */
+	public static IOLoop current() {
+		return current.get();
+	}
+
+	void setGroup(IOLoopGroup group) {
+		this.group = group;
+	}
 
+	/**
+	 * Runs this loop in the calling thread. This method never returns. If this loop is part of an
+	 * {@link IOLoopGroup} the other loops of the group are started (in threads of their own) as well.
+	 */
 	public void start() {
-		Thread.currentThread().setName("I/O-LOOP");
-		Thread.currentThread().setPriority(Thread.MAX_PRIORITY);
+		thread = Thread.currentThread();
+		current.set(this);
+		thread.setName(name);
+		thread.setPriority(Thread.MAX_PRIORITY);
+		if (group != null) {
+			group.startSiblings(this);
+		}
 
 		while (true) {
 			try {
-				int numSelected = selector.select();
+				int numSelected;
+				long selectTimeout = timer.nextTimeout(System.currentTimeMillis());
+				selecting.set(true);
+				// callbacks must be checked after the flag is raised, otherwise a wakeup could be lost  
+				if (!callbacks.isEmpty()) {
+					numSelected = selector.selectNow();
+				} else if (selectTimeout < 0) {
+					numSelected = selector.select();
+				} else {
+					numSelected = selector.select(selectTimeout);
+				}
+				selecting.set(false);
 				logger.debug("Selected: {}", numSelected);
-				
+
 				Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
 				while (keys.hasNext()) {
 					SelectionKey key = keys.next();
-					EventHandler handler = (EventHandler) key.attachment();
-					handler.handleEvents(key);
 					keys.remove();
+					if (key.isValid()) {
+						EventHandler handler = (EventHandler) key.attachment();
+						handler.handleEvents(key);
+					}
 				}
+				timer.expire(System.currentTimeMillis());
+				runCallbacks();
+				load.set(selector.keys().size());
 			} catch (IOException e) {
 				logger.error("Exception received in IOLoop: {}", e);
 			}
 		}
 	}
 
-	public void addHandler(SelectableChannel channel, EventHandler handler, int ops) {
+	/**
+	 * Schedules the given callback to be executed by this loop's thread ("next tick"). Safe to invoke from any 
+	 * thread, this is how work (e.g. channel registrations or the completion of an asynchronous operation) is handed 
+	 * over to a loop owned by another thread. Callbacks are executed in the order they were added.
+	 * 
+	 * The selector is only woken up if the loop is blocked, i.e. a burst of callbacks costs at most one wakeup.  
+	 */
+	public void addCallback(Runnable callback) {
+		callbacks.offer(callback);
+		if (!isInLoopThread() && selecting.compareAndSet(true, false)) {
+			selector.wakeup();
+		}
+	}
+
+	/**
+	 * Same as {@link #addCallback(Runnable)}, i.e. an IOLoop can be used as the executor of continuations that should 
+	 * run on the loop (e.g. CompletionStage.thenApplyAsync(fn, ioLoop)).
+	 */
+	@Override
+	public void execute(Runnable command) {
+		addCallback(command);
+	}
+
+	/**
+	 * Schedules the given callback to be executed by this loop's thread when the deadline has passed. The callback 
+	 * will be invoked at most {@value #TIMER_TICK_DURATION} ms after the deadline (given a responsive loop). 
+	 * Insertion and cancellation are O(1) operations. Safe to invoke from any thread.
+	 * 
+	 * @param deadline Time (in ms, cmp. {@link System#currentTimeMillis()}) when the callback is due
+	 * @return A handle that can be used to cancel the timeout
+	 */
+	public Timeout addTimeout(long deadline, Runnable callback) {
+		final Timeout timeout = new Timeout(this, deadline, callback);
+		if (isInLoopThread()) {
+			timer.add(timeout);
+		} else {
+			addCallback(new Runnable() {
+				@Override
+				public void run() {
+					if (!timeout.isCancelled()) {
+						timer.add(timeout);
+					}
+				}
+			});
+		}
+		return timeout;
+	}
+	
+	/**
+	 * Cancels a timeout previously scheduled with {@link #addTimeout(long, Runnable)}. Safe to invoke from any thread.
+	 */
+	public void cancelTimeout(final Timeout timeout) {
+		timeout.markCancelled();
+		if (isInLoopThread()) {
+			timer.remove(timeout);
+		} else {
+			addCallback(new Runnable() {
+				@Override
+				public void run() {
+					timer.remove(timeout);
+				}
+			});
+		}
+	}
+
+	private void runCallbacks() {
+		Runnable callback;
+		for (int i = 0; i < MAX_CALLBACKS_PER_ITERATION && (callback = callbacks.poll()) != null; i++) {
+			try {
+				callback.run();
+			} catch (Exception e) {
+				logger.error("Exception thrown from callback: {}", e);
+			}
+		}
+	}
+
+	/**
+	 * @return true if the calling thread is the thread running this loop (or if this loop is not yet started).
+	 */
+	public boolean isInLoopThread() {
+		Thread t = thread;
+		return t == null || t == Thread.currentThread();
+	}
+
+	/**
+	 * @return The buffer pool of this loop. Must only be used from the thread running this loop.
+	 */
+	public ByteBufferPool getBufferPool() {
+		return bufferPool;
+	}
+
+	int getLoad() {
+		return load.get();
+	}
+
+	void incrementLoad() {
+		load.incrementAndGet();
+	}
+
+	/**
+	 * @return The key of the channel's registration, or null if the channel is closed.
+	 */
+	public SelectionKey addHandler(SelectableChannel channel, EventHandler handler, int ops) {
 		logger.info("Adding handler for {}", channel);
 		try {
-			channel.register(selector, ops, handler);
+			return channel.register(selector, ops, handler);
 		} catch (ClosedChannelException e) {
 			logger.error("Could not register selector: {}", e);
+			return null;
 		}
 	}
-	
+
 	public void updateHandler(SelectableChannel channel, int ops) {
 		logger.info("Updateing handler for {} with ops {}", channel, ops);
 		channel.keyFor(selector).interestOps(ops);
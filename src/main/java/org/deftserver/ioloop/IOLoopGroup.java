@@ -0,0 +1,102 @@
+package org.deftserver.ioloop;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A fixed number of independent {@link IOLoop}s, each with its own selector and thread. Servers accept connections
+ * on one of the loops and hand every accepted channel over to the loop returned by {@link #next()}.
+ */
+public class IOLoopGroup {
+
+	private final static Logger logger = LoggerFactory.getLogger(IOLoopGroup.class);
+
+	public enum Balancing {
+		/** Channels are assigned to the loops in turn */
+		ROUND_ROBIN,
+		/** Channels are assigned to the loop currently owning the fewest channels */
+		LEAST_LOADED
+	}
+
+	private final IOLoop[] loops;
+	private final Balancing balancing;
+	private final AtomicInteger nextIndex = new AtomicInteger();
+	private final AtomicBoolean started = new AtomicBoolean(false);
+
+	/**
+	 * Creates a group with one loop per available processor.
+	 */
+	public IOLoopGroup() {
+		this(Runtime.getRuntime().availableProcessors());
+	}
+
+	public IOLoopGroup(int size) {
+		this(size, Balancing.ROUND_ROBIN);
+	}
+
+	public IOLoopGroup(int size, Balancing balancing) {
+		if (size < 1) {
+			throw new IllegalArgumentException("An IOLoopGroup needs at least one IOLoop");
+		}
+		this.balancing = balancing;
+		loops = new IOLoop[size];
+		for (int i = 0; i < size; i++) {
+			loops[i] = new IOLoop("I/O-LOOP-" + i);
+			loops[i].setGroup(this);
+		}
+	}
+
+	public int size() {
+		return loops.length;
+	}
+
+	public IOLoop getIOLoop(int index) {
+		return loops[index];
+	}
+
+	/**
+	 * @return The loop that should own the next accepted channel.
+	 */
+	public IOLoop next() {
+		IOLoop loop;
+		if (balancing == Balancing.LEAST_LOADED) {
+			loop = loops[0];
+			for (int i = 1; i < loops.length; i++) {
+				if (loops[i].getLoad() < loop.getLoad()) {
+					loop = loops[i];
+				}
+			}
+		} else {
+			loop = loops[(nextIndex.getAndIncrement() & Integer.MAX_VALUE) % loops.length];
+		}
+		loop.incrementLoad();
+		return loop;
+	}
+
+	/**
+	 * Starts every loop of this group. The first loop is run by the calling thread, hence this method never returns.
+	 */
+	public void start() {
+		loops[0].start();
+	}
+
+	/**
+	 * Invoked by the first loop of this group that is started. Starts all other loops in threads of their own.
+	 */
+	void startSiblings(IOLoop caller) {
+		if (!started.compareAndSet(false, true)) {
+			return;
+		}
+		for (final IOLoop loop : loops) {
+			if (loop != caller) {
+				new Thread(new Runnable() {
+					@Override public void run() { loop.start(); }
+				}).start();
+			}
+		}
+		logger.info("Started IOLoopGroup with {} loops", loops.length);
+	}
+}
@@ -2,10 +2,12 @@ package org.deftserver.ioloop;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.SocketChannel;
 
-import org.deftserver.buffer.DynamicByteBufferTokenizer;
+import org.deftserver.buffer.ByteBufferPool;
+import org.deftserver.buffer.SlicingByteBufferTokenizer;
 import org.deftserver.web.AsyncCallback;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -18,21 +20,43 @@ public class IOStream implements EventHandler {
 	
 	private final static Logger logger = LoggerFactory.getLogger(IOStream.class);
 	
-	private IOLoop ioloop;
+	private final IOLoop ioloop;
 	private SocketChannel channel;
 
-	private ByteBuffer readBuffer;
-	private ByteBuffer writeBuffer;
+	private final WriteQueue writeQueue = new WriteQueue();
 	private final int chunkSize = 1500;
 	
-	private DynamicByteBufferTokenizer data;
+	/** Reads of at least this many bytes are read straight into a direct buffer sized to the read */
+	private static final int DIRECT_READ_THRESHOLD = 64 * 1024;
+	
+	/** 
+	 * Bytes read but not yet consumed, null if there are none. (Read buffers are borrowed from the loop's pool per 
+	 * read, i.e. an idle stream holds no buffers.)
+	 */
+	private SlicingByteBufferTokenizer data;
+	private byte[] delimiter;
 	private boolean readingUntil = false;
 	private int readingBytes = 0;
 	
-	private AsyncCallback<byte[]> callback;
+	private AsyncCallback<ByteBuffer> callback;
+	private AsyncCallback<ByteBuffer> bytesCallback;
+	private AsyncCallback<SlicingByteBufferTokenizer> availableCallback;
+	
+	/** The destination of a large {@link #readBytes(int, AsyncCallback)} in progress, otherwise null */
+	private ByteBuffer directBuffer;
 	private int ioOps;
 	
-	public IOStream(SocketChannel channel) {
+	/** Reading is suspended when the pending output exceeds the high watermark, resumed below the low watermark */
+	private int highWatermark = 64 * 1024;
+	private int lowWatermark = 32 * 1024;
+	private boolean writable = true;
+	private WritabilityListener writabilityListener;
+	
+	/**
+	 * @param channel The (accepted) channel to wrap
+	 * @param ioloop The loop that will own the channel. Must be invoked from the thread running that loop.
+	 */
+	public IOStream(SocketChannel channel, IOLoop ioloop) {
 		this.channel = channel;
 		try {
 			this.channel.configureBlocking(false);
@@ -40,55 +64,160 @@ public class IOStream implements EventHandler {
 			// TODO Auto-generated catch block
 			e.printStackTrace();
 		}
-		this.ioloop = IOLoop.getInstance();
-		this.readBuffer = ByteBuffer.allocate(chunkSize);
-		this.data = new DynamicByteBufferTokenizer(chunkSize);
+		this.ioloop = ioloop;
 		this.ioOps = SelectionKey.OP_READ;
 		this.ioloop.addHandler(this.channel, this, SelectionKey.OP_READ);
 	}
 
-	// TODO: Should this return byte[] or ByteBuffer. cmp. write()
-	public void readUntil(byte[] delimiter, AsyncCallback<byte[]> callback) throws IOException {
-		this.data.setDelimiter(delimiter);
-		if (this.data.hasNext()) {
-			callback.onSuccess(this.data.next().array());
-			return;
+	/**
+	 * Sets the bounds of the pending (not yet flushed) output. When the pending output exceeds the high watermark 
+	 * the stream becomes unwritable and stops reading from the channel, when it drops below the low watermark 
+	 * the stream becomes writable again and reading is resumed. (Writes are never rejected, producers are expected
+	 * to hold back while the stream is not writable.)
+	 */
+	public void setWriteWatermarks(int lowWatermark, int highWatermark) {
+		if (lowWatermark < 0 || lowWatermark > highWatermark) {
+			throw new IllegalArgumentException("Invalid watermarks: low: " + lowWatermark + " high: " + highWatermark);
+		}
+		this.lowWatermark = lowWatermark;
+		this.highWatermark = highWatermark;
+	}
+	
+	/**
+	 * @param listener Notified whenever the pending output crosses a watermark, see {@link #isWritable()}.
+	 */
+	public void setWritabilityListener(WritabilityListener listener) {
+		this.writabilityListener = listener;
+	}
+	
+	/**
+	 * @return false if the pending output has exceeded the high watermark (and not yet dropped below the low 
+	 * watermark)
+	 */
+	public boolean isWritable() {
+		return writable;
+	}
+	
+	/**
+	 * @return The number of bytes written to this stream that are not yet flushed to the channel
+	 */
+	public long getPendingBytes() {
+		return writeQueue.getPendingBytes();
+	}
+	
+	/**
+	 * Reads until (and including) the given delimiter.
+	 * 
+	 * @param callback Receives the bytes as a read-only slice over the stream's input buffer (i.e. they are not 
+	 * copied), valid until the next read from the channel. A callback that hands the bytes on to a later (async) 
+	 * operation must copy them.
+	 */
+	public void readUntil(byte[] delimiter, AsyncCallback<ByteBuffer> callback) throws IOException {
+		this.delimiter = delimiter;
+		if (data != null) {
+			data.setDelimiter(delimiter);
+			if (data.hasNext()) {
+				callback.onSuccess(consume(data.next()));
+				return;
+			}
 		}
 		checkClosed();
 		this.readingUntil = true;
 		this.callback = callback;
-		addOps(SelectionKey.OP_READ);
+		updateOps();
 	}
 
-	// TODO: Implement byte mode.
-	// TODO: Maybe switch to direct buffers when reading large files
-	//		 i.e. image uploads
-	public void readBytes(int numBytes, AsyncCallback<String> callback) {
-		
+	/**
+	 * Reads exactly numBytes bytes. 
+	 * 
+	 * Reads of at least {@value #DIRECT_READ_THRESHOLD} bytes are read from the channel straight into a direct buffer 
+	 * of the requested size (i.e. the payload is neither copied into nor accumulated in the heap) that is owned by
+	 * the callback. Smaller reads are served as read-only slices over the stream's input buffer, valid until the 
+	 * next read from the channel (see {@link #readUntil(byte[], AsyncCallback)}).
+	 * 
+	 * @param callback Receives the bytes as a buffer ready to be read (flipped)
+	 */
+	public void readBytes(int numBytes, AsyncCallback<ByteBuffer> callback) throws IOException {
+		if (numBytes < 0) {
+			throw new IllegalArgumentException("Negative number of bytes: " + numBytes);
+		}
+		if (buffered() >= numBytes) {
+			callback.onSuccess(numBytes == 0 ? ByteBuffer.allocate(0) : consume(numBytes));
+			return;
+		}
+		checkClosed();
+		if (numBytes >= DIRECT_READ_THRESHOLD) {
+			directBuffer = ByteBuffer.allocateDirect(numBytes);
+			if (buffered() > 0) {
+				directBuffer.put(consume(buffered()));
+			}
+		}
+		this.readingBytes = numBytes;
+		this.bytesCallback = callback;
+		updateOps();
 	}
 	
 	/**
-	 * Asynchronously writes data the channel of this IOStream
+	 * Hands over the stream's input buffer as soon as more bytes are read from the channel (e.g. to decode as many 
+	 * frames as there are available). The callback consumes what it can, bytes left in the buffer are kept (and 
+	 * handed over again with the bytes of the next read). 
 	 * 
-	 * Changes in data before callback has been invoked might
-	 * be reflected in the data written
+	 * @param callback Receives the input buffer, which must not be used after the callback returns
+	 */
+	public void readAvailable(AsyncCallback<SlicingByteBufferTokenizer> callback) throws IOException {
+		checkClosed();
+		this.availableCallback = callback;
+		updateOps();
+	}
+	
+	/**
+	 * Asynchronously writes data the channel of this IOStream
 	 * 
-	 * TODO: Add callback/readyness notification
+	 * Changes in data before it has been written might be reflected in the data written
 	 * 
 	 * @param data
 	 */
 	public void write(ByteBuffer data) {
-		// TODO: Need callback?
-		// TODO: Need to check if socket closed?
-		// TODO: Buffer written data?
-		writeBuffer = data;
-		addOps(SelectionKey.OP_WRITE);
+		write(data, null);
+	}
+	
+	/**
+	 * Asynchronously writes data to the channel of this IOStream. Data is queued behind earlier writes that are not
+	 * yet flushed, the queue is drained with gathering writes when the channel is writable.
+	 * 
+	 * @param data Must not be modified until the callback is invoked
+	 * @param callback Invoked (on the I/O loop thread) when data (and everything written before it) is flushed to 
+	 * the channel or fails if the stream is closed before that. May be null.
+	 */
+	public void write(ByteBuffer data, AsyncCallback<Void> callback) {
+		write(new ByteBuffer[] {data}, callback);
+	}
+	
+	/**
+	 * Asynchronously writes the given buffers (in order) to the channel of this IOStream, see 
+	 * {@link #write(ByteBuffer, AsyncCallback)}.
+	 */
+	public void write(ByteBuffer[] data, AsyncCallback<Void> callback) {
+		if (isClosed()) {
+			if (callback != null) {
+				callback.onFailure(new ClosedChannelException());
+			}
+			return;
+		}
+		writeQueue.add(data);
+		if (callback != null) {
+			writeQueue.addCallback(callback);
+		}
+		if (writable && writeQueue.getPendingBytes() > highWatermark) {
+			setWritable(false);
+		}
+		updateOps();
 	}
 	
 	@Override
 	public void handleEvents(SelectionKey key) {
-		// Handle read
-		if (key.isReadable()) {
+		// Handle read (unless suspended by a write made during this iteration)
+		if (key.isReadable() && writable) {
 			handleRead();
 		}
 		// Check if open, read might have detected EOF
@@ -98,98 +227,174 @@ public class IOStream implements EventHandler {
 		// Handle write
 		if (key.isWritable()) {
 			handleWrite();
+			if (isClosed()) {
+				return;
+			}
 		}
-
-		// Check if still reading
-		// This is sorta weird
-		// TODO: Investigate how to detect HUP etc. on idle connection.
-		int ops = SelectionKey.OP_READ;
-		if (isReading()) {
-			ops |= SelectionKey.OP_READ;
-		}
-		
-		// Check if there's more to write
-		if (isWriting()) {
-			ops |= SelectionKey.OP_WRITE;
-		}
-		// TODO: Check if ioOps changed
-		if (ops != ioOps) {
-			ioOps = ops;
-			ioloop.updateHandler(channel, ioOps);
-		}
+		updateOps();
 	}
 
 	private void handleRead() {
 		// TODO: Investigate if it's a problem that data will be read even though nobody wants it
 		//       Will it ever happen. i.e. neither read_x is invoked but stream is open.
 		try {
-			readBuffer.clear();
-			int bytesRead = channel.read(readBuffer);
-			if (bytesRead <= 0) {
-				logger.debug("Read subzero length: {}", bytesRead);
-				close();
+			if (directBuffer != null) {
+				readDirect();
 				return;
 			}
-			
-			readBuffer.flip();
-			data.append(readBuffer);
+			ByteBufferPool pool = ioloop.getBufferPool();
+			ByteBuffer readBuffer = pool.acquire(chunkSize);
+			try {
+				int bytesRead = channel.read(readBuffer);
+				if (bytesRead < 0) {
+					logger.debug("Read subzero length: {}", bytesRead);
+					close();
+					return;
+				} else if (bytesRead == 0) {
+					return;
+				}
+				readBuffer.flip();
+				if (data == null) {
+					data = new SlicingByteBufferTokenizer(readBuffer.remaining());
+				}
+				data.append(readBuffer);
+			} finally {
+				pool.release(readBuffer);
+			}
 			
 			if (isReadingUntil()) {
 				searchForDelimiter();
-			} else if (isReadingBytes()) {
-				;
+			} else if (isReadingBytes() && data.size() >= readingBytes) {
+				ByteBuffer result = consume(readingBytes);
+				consumeBytesCallback().onSuccess(result);
+			} else if (availableCallback != null) {
+				SlicingByteBufferTokenizer input = data;
+				AsyncCallback<SlicingByteBufferTokenizer> cb = availableCallback;
+				availableCallback = null;
+				cb.onSuccess(input);
+				if (data == input && input.size() == 0) {
+					data = null;
+				}
 			}
 		} catch (IOException e) {
 			logger.debug("Error on channel {}: {}", channel, e);
 		}
 	}
+	
+	/**
+	 * Reads no more than the remaining bytes of the pending readBytes, hence nothing is left over in the stream.
+	 */
+	private void readDirect() throws IOException {
+		if (channel.read(directBuffer) < 0) {
+			logger.debug("EOF while reading {} bytes", readingBytes);
+			close();
+			return;
+		}
+		if (!directBuffer.hasRemaining()) {
+			ByteBuffer result = directBuffer;
+			directBuffer = null;
+			result.flip();
+			consumeBytesCallback().onSuccess(result);
+		}
+	}
 
 	public void handleWrite() {
-		// TODO: Handle not being able to write entire buffer.
 		try {
-			int bytesWritten = channel.write(writeBuffer);
-			if (bytesWritten <= 0) {
-				logger.debug("Wrote subzero length: {}", bytesWritten);
-				close();
-			} else {
-				//writeBuffer.position(writeBuffer.position() + bytesWritten);
-			}
+			writeQueue.writeTo(channel);
 		} catch (IOException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
+			logger.debug("Error writing to channel {}: {}", channel, e);
+			close();
+			return;
+		}
+		if (!writable && writeQueue.getPendingBytes() < lowWatermark) {
+			setWritable(true);
+		}
+	}
+	
+	private void setWritable(boolean writable) {
+		logger.debug("Channel {} writable: {}", channel, writable);
+		this.writable = writable;
+		if (writabilityListener != null) {
+			writabilityListener.writabilityChanged(this, writable);
 		}
 	}
 	
-	private void addOps(int ops) {
-		logger.debug("Adding ops: old: {} new: {}", ioOps, ops);
-		logger.debug("(ioOps & ops): {}", (ioOps & ops));
-		if ((ioOps & ops) == 0) {
-			logger.debug("Adding ops: {}", ops);
-			ioOps |= ops;
+	/**
+	 * Registers interest in reads unless reading is suspended (too much pending output) and in writes if there is 
+	 * pending output.
+	 */
+	private void updateOps() {
+		if (isClosed()) {
+			return;
+		}
+		// TODO: Investigate how to detect HUP etc. on idle connection.
+		int ops = writable ? SelectionKey.OP_READ : 0;
+		if (isWriting()) {
+			ops |= SelectionKey.OP_WRITE;
+		}
+		if (ops != ioOps) {
+			ioOps = ops;
 			ioloop.updateHandler(channel, ioOps);
 		}
 	}
 	
 	private void searchForDelimiter() {
+		data.setDelimiter(delimiter);
 		if (data.hasNext()) {
-			consumeCallback().onSuccess(data.next().array());
+			ByteBuffer result = consume(data.next());
+			consumeCallback().onSuccess(result);
+		}
+	}
+	
+	/**
+	 * @return true if this stream holds bytes read but not yet consumed (a tokenizer) or a buffer for a large read in 
+	 * progress, false while idle
+	 */
+	boolean holdsReadBuffers() {
+		return data != null || directBuffer != null;
+	}
+	
+	private int buffered() {
+		return data != null ? data.size() : 0;
+	}
+	
+	/**
+	 * Drops the tokenizer if it has no bytes left (the token stays valid, it's not overwritten by a later read).
+	 */
+	private ByteBuffer consume(ByteBuffer token) {
+		if (data.size() == 0) {
+			data = null;
 		}
+		return token;
 	}
 	
-	private AsyncCallback<byte[]> consumeCallback() {
-		AsyncCallback<byte[]> cb = callback;
+	/**
+	 * @return The next numBytes (at least one) bytes read. Drops the tokenizer if it has no bytes left.
+	 */
+	private ByteBuffer consume(int numBytes) {
+		ByteBuffer result = data.slice(numBytes);
+		if (data.size() == 0) {
+			data = null;
+		}
+		return result;
+	}
+	
+	private AsyncCallback<ByteBuffer> consumeCallback() {
+		AsyncCallback<ByteBuffer> cb = callback;
 		callback = null;
 		readingUntil = false;
-		readingBytes = 0;
 		return cb;
 	}
 	
-	private boolean isReading() {
-		return isReadingUntil();
+	private AsyncCallback<ByteBuffer> consumeBytesCallback() {
+		AsyncCallback<ByteBuffer> cb = bytesCallback;
+		bytesCallback = null;
+		readingBytes = 0;
+		return cb;
 	}
 	
 	private boolean isWriting() {
-		return writeBuffer != null ? writeBuffer.remaining() > 0 : false;
+		return !writeQueue.isEmpty();
 	}
 	
 	private boolean isReadingUntil() {
@@ -201,14 +406,33 @@ public class IOStream implements EventHandler {
 	}
 	
 	public void close() {
+		if (isClosed()) {
+			return;
+		}
 		logger.debug("Closing channel: {}", channel);
 		ioloop.removeHandler(channel);
+		writeQueue.clear();
+		data = null;
 		try {
 			channel.close();
 		} catch (IOException e) {
 			// TODO Auto-generated catch block
 			e.printStackTrace();
 		}
+		failPendingReads();
+	}
+	
+	/**
+	 * Fails the pending read (if any), e.g. to notify the reader that the peer closed the connection.
+	 */
+	private void failPendingReads() {
+		AsyncCallback<?> pending = callback != null ? consumeCallback() 
+				: bytesCallback != null ? consumeBytesCallback() : availableCallback;
+		availableCallback = null;
+		directBuffer = null;
+		if (pending != null) {
+			pending.onFailure(new ClosedChannelException());
+		}
 	}
 	
 	public boolean isClosed() {
@@ -0,0 +1,57 @@
+package org.deftserver.ioloop;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * An unbounded, lock-free, multiple producer single consumer queue (D. Vyukov's node based MPSC queue). 
+ * 
+ * {@link #offer(Object)} may be invoked from any thread and is wait-free (a single atomic swap). {@link #poll()} 
+ * and {@link #isEmpty()} must only be invoked by the consumer, i.e. the thread running the owning {@link IOLoop}. 
+ */
+class MpscQueue<E> {
+
+	private static class Node<E> {
+		E value;
+		volatile Node<E> next;
+		
+		Node(E value) {
+			this.value = value;
+		}
+	}
+	
+	/** The most recently offered node, swapped by producers */
+	private final AtomicReference<Node<E>> tail;
+	
+	/** Stub node preceding the next element to poll, only touched by the consumer */
+	private Node<E> head;
+	
+	MpscQueue() {
+		Node<E> stub = new Node<E>(null);
+		head = stub;
+		tail = new AtomicReference<Node<E>>(stub);
+	}
+	
+	void offer(E value) {
+		Node<E> node = new Node<E>(value);
+		Node<E> prev = tail.getAndSet(node);
+		// Between the swap and this link the element is invisible to the consumer, the producer will however always 
+		// complete the link before it decides whether the consumer must be woken up.
+		prev.next = node;
+	}
+	
+	E poll() {
+		Node<E> next = head.next;
+		if (next == null) {
+			return null;
+		}
+		E value = next.value;
+		next.value = null;	// next becomes the new stub
+		head = next;
+		return value;
+	}
+	
+	boolean isEmpty() {
+		return head.next == null;
+	}
+	
+}
@@ -0,0 +1,51 @@
+package org.deftserver.ioloop;
+
+/**
+ * A handle to a callback scheduled with {@link IOLoop#addTimeout(long, Runnable)}.
+ */
+public class Timeout {
+
+	private final IOLoop ioLoop;
+	private final long deadline;
+	private final Runnable callback;
+	private volatile boolean cancelled = false;
+
+	// bookkeeping of the HashedWheelTimer, only touched by the owning loop's thread
+	int bucket = -1;
+	long remainingRounds;
+	Timeout prev;
+	Timeout next;
+	
+	Timeout(IOLoop ioLoop, long deadline, Runnable callback) {
+		this.ioLoop = ioLoop;
+		this.deadline = deadline;
+		this.callback = callback;
+	}
+	
+	/**
+	 * @return The time (in ms, cmp. {@link System#currentTimeMillis()}) when the callback is (was) due.
+	 */
+	public long getDeadline() {
+		return deadline;
+	}
+	
+	Runnable getCallback() {
+		return callback;
+	}
+	
+	/**
+	 * Prevents the callback from being executed (if it hasn't been executed already).
+	 */
+	public void cancel() {
+		ioLoop.cancelTimeout(this);
+	}
+	
+	void markCancelled() {
+		cancelled = true;
+	}
+	
+	public boolean isCancelled() {
+		return cancelled;
+	}
+	
+}
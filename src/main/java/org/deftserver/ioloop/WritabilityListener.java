@@ -0,0 +1,16 @@
+package org.deftserver.ioloop;
+
+/**
+ * Notified when the pending output of an {@link IOStream} crosses one of its write watermarks.
+ */
+public interface WritabilityListener {
+	
+	/**
+	 * Invoked on the I/O loop thread of the stream.
+	 * 
+	 * @param writable false when the pending output has exceeded the high watermark (reading is suspended), true
+	 * when it has dropped below the low watermark again (reading is resumed).
+	 */
+	public void writabilityChanged(IOStream stream, boolean writable);
+	
+}
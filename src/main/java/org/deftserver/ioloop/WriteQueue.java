@@ -0,0 +1,209 @@
+package org.deftserver.ioloop;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.GatheringByteChannel;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+import org.deftserver.buffer.ByteBufferPool;
+import org.deftserver.web.AsyncCallback;
+
+import com.google.common.io.Closeables;
+
+/**
+ * Output waiting to be written to a non-blocking channel. The owner enqueues output and invokes
+ * {@link #writeTo(GatheringByteChannel)} whenever the channel is writable (i.e. right away and then on OP_WRITE readiness)
+ * until the queue is drained. Consecutive buffers are written with a single gathering write and file regions are
+ * transferred with {@link FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)}. A callback
+ * added with {@link #addCallback(AsyncCallback)} is invoked once everything enqueued before it is written, pooled 
+ * buffers handed to {@link #release(ByteBufferPool, ByteBuffer...)} are given back to their pool at that point.
+ *
+ * Not thread safe, a queue is owned by the I/O loop thread of its channel.
+ */
+public class WriteQueue {
+
+	/** Max number of buffers passed to a single gathering write */
+	private static final int MAX_GATHER = 64;
+
+	/** ByteBuffers, FileRegions, AsyncCallbacks (completion markers) and Releases */
+	private final Deque<Object> entries = new ArrayDeque<Object>();
+
+	private final ByteBuffer[] gather = new ByteBuffer[MAX_GATHER];
+
+	/** Number of bytes not yet written */
+	private long pendingBytes = 0;
+
+	/**
+	 * A part of a file, transferred to the channel without being copied into the heap.
+	 */
+	private static class FileRegion {
+
+		final FileChannel file;
+		long position;
+		final long end;
+
+		FileRegion(FileChannel file, long position, long count) {
+			this.file = file;
+			this.position = position;
+			this.end = position + count;
+		}
+
+	}
+
+	/**
+	 * Pooled buffers given back to their pool when everything enqueued before them is written (or discarded).
+	 */
+	private static class Release {
+
+		final ByteBufferPool pool;
+		final ByteBuffer[] buffers;
+
+		Release(ByteBufferPool pool, ByteBuffer[] buffers) {
+			this.pool = pool;
+			this.buffers = buffers;
+		}
+
+		void run() {
+			for (ByteBuffer buffer : buffers) {
+				pool.release(buffer);
+			}
+		}
+
+	}
+
+	/**
+	 * Appends the remaining bytes of the given buffers. The buffers must not be modified until written.
+	 */
+	public void add(ByteBuffer... buffers) {
+		for (ByteBuffer buffer : buffers) {
+			if (buffer.hasRemaining()) {
+				entries.addLast(buffer);
+				pendingBytes += buffer.remaining();
+			}
+		}
+	}
+
+	/**
+	 * Appends count bytes of the given file, starting at position. The file is closed when transferred (or when
+	 * the queue is cleared).
+	 */
+	public void add(FileChannel file, long position, long count) {
+		entries.addLast(new FileRegion(file, position, count));
+		pendingBytes += count;
+	}
+
+	/**
+	 * Appends a completion marker. The callback succeeds when all output enqueued before it is written, it fails
+	 * if the queue is cleared before that.
+	 */
+	public void addCallback(AsyncCallback<Void> callback) {
+		entries.addLast(callback);
+	}
+
+	/**
+	 * Gives the given buffers (acquired from the given pool and enqueued before) back to the pool once all output
+	 * enqueued so far is written or the queue is cleared, right away if the queue is empty.
+	 */
+	public void release(ByteBufferPool pool, ByteBuffer... buffers) {
+		Release release = new Release(pool, buffers);
+		if (entries.isEmpty()) {
+			release.run();
+		} else {
+			entries.addLast(release);
+		}
+	}
+
+	public boolean isEmpty() {
+		return entries.isEmpty();
+	}
+
+	/**
+	 * @return The number of bytes not yet written
+	 */
+	public long getPendingBytes() {
+		return pendingBytes;
+	}
+
+	/**
+	 * Writes as much as the channel accepts without blocking.
+	 *
+	 * @return true if the queue is drained, false if the channel's send buffer is full (wait for OP_WRITE).
+	 * @throws EOFException If a file enqueued is truncated before its region is transferred (the region is discarded, 
+	 * i.e. the output is incomplete and the channel should be closed)
+	 */
+	@SuppressWarnings("unchecked")
+	public boolean writeTo(GatheringByteChannel channel) throws IOException {
+		while (!entries.isEmpty()) {
+			Object first = entries.peekFirst();
+			if (first instanceof FileRegion) {
+				FileRegion region = (FileRegion) first;
+				long written = region.file.transferTo(region.position, region.end - region.position, channel);
+				if (written == 0 && region.position >= region.file.size()) {
+					// the file was truncated after being enqueued, the region can never be completed
+					entries.removeFirst();
+					pendingBytes -= region.end - region.position;
+					Closeables.closeQuietly(region.file);
+					throw new EOFException("File truncated, " + (region.end - region.position) + " bytes missing");
+				}
+				region.position += written;
+				pendingBytes -= written;
+				if (region.position < region.end) {
+					return false;
+				}
+				entries.removeFirst();
+				Closeables.closeQuietly(region.file);
+			} else if (first instanceof AsyncCallback) {
+				entries.removeFirst();
+				((AsyncCallback<Void>) first).onSuccess(null);
+			} else if (first instanceof Release) {
+				entries.removeFirst();
+				((Release) first).run();
+			} else {
+				int n = 0;
+				for (Object entry : entries) {
+					if (!(entry instanceof ByteBuffer) || n == MAX_GATHER) {
+						break;
+					}
+					gather[n++] = (ByteBuffer) entry;
+				}
+				pendingBytes -= channel.write(gather, 0, n);
+				boolean drained = !gather[n - 1].hasRemaining();
+				for (int i = 0; i < n; i++) {
+					if (!gather[i].hasRemaining()) {
+						entries.removeFirst();
+					}
+					gather[i] = null;
+				}
+				if (!drained) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Discards all output not yet written (e.g. because the channel is closed). Pending callbacks fail with a
+	 * {@link ClosedChannelException}, pooled buffers are released.
+	 */
+	@SuppressWarnings("unchecked")
+	public void clear() {
+		Object[] discarded = entries.toArray();
+		entries.clear();
+		pendingBytes = 0;
+		for (Object entry : discarded) {
+			if (entry instanceof FileRegion) {
+				Closeables.closeQuietly(((FileRegion) entry).file);
+			} else if (entry instanceof AsyncCallback) {
+				((AsyncCallback<Void>) entry).onFailure(new ClosedChannelException());
+			} else if (entry instanceof Release) {
+				((Release) entry).run();
+			}
+		}
+	}
+
+}
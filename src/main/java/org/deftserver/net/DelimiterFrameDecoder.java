@@ -0,0 +1,44 @@
+package org.deftserver.net;
+
+import java.nio.ByteBuffer;
+
+import org.deftserver.buffer.SlicingByteBufferTokenizer;
+
+/**
+ * Decodes frames terminated by a delimiter (e.g. "\r\n" for line based protocols). The frames are read-only slices 
+ * of the input without the delimiter.
+ */
+public class DelimiterFrameDecoder implements FrameDecoder<ByteBuffer> {
+
+	private final byte[] delimiter;
+	private final int maxFrameLength;
+	
+	/**
+	 * @param maxFrameLength Max length of a frame (delimiter excluded)
+	 */
+	public DelimiterFrameDecoder(byte[] delimiter, int maxFrameLength) {
+		if (delimiter.length == 0) {
+			throw new IllegalArgumentException("Empty delimiter");
+		}
+		this.delimiter = delimiter;
+		this.maxFrameLength = maxFrameLength;
+	}
+	
+	@Override
+	public ByteBuffer decode(SlicingByteBufferTokenizer input) {
+		input.setDelimiter(delimiter);
+		if (!input.hasNext()) {
+			if (input.size() > maxFrameLength + delimiter.length) {
+				throw new FrameException("Frame exceeds " + maxFrameLength + " bytes");
+			}
+			return null;
+		}
+		ByteBuffer frame = input.next();
+		frame.limit(frame.limit() - delimiter.length);
+		if (frame.remaining() > maxFrameLength) {
+			throw new FrameException("Frame exceeds " + maxFrameLength + " bytes");
+		}
+		return frame;
+	}
+	
+}
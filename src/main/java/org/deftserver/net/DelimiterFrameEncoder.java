@@ -0,0 +1,23 @@
+package org.deftserver.net;
+
+import java.nio.ByteBuffer;
+
+import org.deftserver.buffer.CompositeByteBuffer;
+
+/**
+ * Encodes a frame as its bytes followed by a delimiter (the counterpart of {@link DelimiterFrameDecoder}).
+ */
+public class DelimiterFrameEncoder implements FrameEncoder<ByteBuffer> {
+
+	private final byte[] delimiter;
+	
+	public DelimiterFrameEncoder(byte[] delimiter) {
+		this.delimiter = delimiter;
+	}
+	
+	@Override
+	public void encode(ByteBuffer frame, CompositeByteBuffer out) {
+		out.append(frame.duplicate()).append(delimiter);
+	}
+	
+}
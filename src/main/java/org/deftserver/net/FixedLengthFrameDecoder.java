@@ -0,0 +1,26 @@
+package org.deftserver.net;
+
+import java.nio.ByteBuffer;
+
+import org.deftserver.buffer.SlicingByteBufferTokenizer;
+
+/**
+ * Decodes frames of a fixed length, as read-only slices of the input.
+ */
+public class FixedLengthFrameDecoder implements FrameDecoder<ByteBuffer> {
+
+	private final int frameLength;
+	
+	public FixedLengthFrameDecoder(int frameLength) {
+		if (frameLength <= 0) {
+			throw new IllegalArgumentException("Invalid frame length: " + frameLength);
+		}
+		this.frameLength = frameLength;
+	}
+	
+	@Override
+	public ByteBuffer decode(SlicingByteBufferTokenizer input) {
+		return input.size() < frameLength ? null : input.slice(frameLength);
+	}
+	
+}
@@ -0,0 +1,132 @@
+package org.deftserver.net;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.deftserver.buffer.CompositeByteBuffer;
+import org.deftserver.buffer.SlicingByteBufferTokenizer;
+import org.deftserver.ioloop.IOStream;
+import org.deftserver.web.AsyncCallback;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A connection of a {@link FrameServer}. Decodes the bytes of every read into frames, hands them to the handler in 
+ * a single batch and flushes the messages written meanwhile with a single (gathering) write.
+ * 
+ * Not thread safe, must only be used from the I/O loop thread owning the connection.
+ */
+public class FrameConnection<I, O> implements AsyncCallback<SlicingByteBufferTokenizer> {
+
+	private final static Logger logger = LoggerFactory.getLogger(FrameConnection.class);
+	
+	private final IOStream stream;
+	private final FrameDecoder<I> decoder;
+	private final FrameEncoder<O> encoder;
+	private final FrameHandler<I, O> handler;
+	
+	/** Messages encoded but not yet handed to the stream */
+	private final CompositeByteBuffer output = new CompositeByteBuffer();
+	private final List<I> batch = new ArrayList<I>();
+	
+	/** true while the handler handles a batch, i.e. writes are flushed when it returns */
+	private boolean handling = false;
+	private boolean closed = false;
+	
+	FrameConnection(IOStream stream, FrameDecoder<I> decoder, FrameEncoder<O> encoder, FrameHandler<I, O> handler) {
+		this.stream = stream;
+		this.decoder = decoder;
+		this.encoder = encoder;
+		this.handler = handler;
+	}
+	
+	/**
+	 * Notifies the handler and starts reading.
+	 */
+	void open() {
+		handler.onConnect(this);
+		read();
+	}
+	
+	/**
+	 * Encodes the given message. The message is written when the current batch is handled or, if invoked outside
+	 * {@link FrameHandler#handleFrames(FrameConnection, List)}, right away.
+	 */
+	public void write(O message) {
+		encoder.encode(message, output);
+		if (!handling) {
+			flush();
+		}
+	}
+	
+	/**
+	 * Writes the messages encoded so far.
+	 */
+	public void flush() {
+		if (output.size() > 0) {
+			stream.write(output.getBuffers(), null);
+			output.clear();
+		}
+	}
+	
+	/**
+	 * @return false while the connection's pending output exceeds its high watermark (reading is suspended until 
+	 * the peer catches up), see {@link IOStream#setWriteWatermarks(int, int)}.
+	 */
+	public boolean isWritable() {
+		return stream.isWritable();
+	}
+	
+	public IOStream getStream() {
+		return stream;
+	}
+	
+	public void close() {
+		if (!closed) {
+			closed = true;
+			stream.close();
+			handler.onClose(this);
+		}
+	}
+	
+	private void read() {
+		try {
+			stream.readAvailable(this);
+		} catch (IOException e) {
+			close();
+		}
+	}
+	
+	@Override
+	public void onSuccess(SlicingByteBufferTokenizer input) {
+		handling = true;
+		try {
+			I frame;
+			while ((frame = decoder.decode(input)) != null) {
+				batch.add(frame);
+			}
+			if (!batch.isEmpty()) {
+				handler.handleFrames(this, batch);
+			}
+		} catch (FrameException e) {
+			logger.debug("Closing connection with malformed input: {}", e.getMessage());
+			close();
+		} finally {
+			batch.clear();
+			handling = false;
+		}
+		if (stream.isClosed()) {
+			close();
+			return;
+		}
+		flush();
+		read();
+	}
+	
+	@Override
+	public void onFailure(Throwable caught) {
+		close();
+	}
+	
+}
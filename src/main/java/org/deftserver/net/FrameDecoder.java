@@ -0,0 +1,19 @@
+package org.deftserver.net;
+
+import org.deftserver.buffer.SlicingByteBufferTokenizer;
+
+/**
+ * Cuts the bytes read from a connection into frames (messages).
+ * 
+ * A decoder keeps no per connection state (partially received frames are kept by the connection's input buffer), 
+ * hence one decoder may be shared by all connections of a {@link FrameServer}.
+ */
+public interface FrameDecoder<T> {
+
+	/**
+	 * @return The next frame, consumed from the input, or null if the input does not (yet) hold a complete frame. 
+	 * @throws FrameException If the input is malformed (the connection is closed). 
+	 */
+	T decode(SlicingByteBufferTokenizer input);
+	
+}
@@ -0,0 +1,15 @@
+package org.deftserver.net;
+
+import org.deftserver.buffer.CompositeByteBuffer;
+
+/**
+ * Encodes messages written to a connection. Like a {@link FrameDecoder}, an encoder keeps no per connection state.
+ */
+public interface FrameEncoder<T> {
+
+	/**
+	 * Appends the encoding of the given message to out.
+	 */
+	void encode(T message, CompositeByteBuffer out);
+	
+}
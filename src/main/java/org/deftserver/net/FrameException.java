@@ -0,0 +1,14 @@
+package org.deftserver.net;
+
+/**
+ * Thrown by a {@link FrameDecoder} when the input is malformed or a frame exceeds its size limit.
+ */
+public class FrameException extends RuntimeException {
+
+	private static final long serialVersionUID = 1L;
+
+	public FrameException(String message) {
+		super(message);
+	}
+	
+}
@@ -0,0 +1,34 @@
+package org.deftserver.net;
+
+import java.util.List;
+
+/**
+ * Handles the frames received by the connections of a {@link FrameServer}. Invoked on the I/O loop thread of the 
+ * connection, i.e. a handler must not block.
+ * 
+ * @param <I> The type of the frames decoded
+ * @param <O> The type of the messages written
+ */
+public abstract class FrameHandler<I, O> {
+
+	/**
+	 * Invoked when a connection is accepted. The default implementation does nothing.
+	 */
+	public void onConnect(FrameConnection<I, O> connection) {
+	}
+	
+	/**
+	 * Invoked with all frames decoded from a single read, in order. Messages written by this method are flushed
+	 * to the connection (with a single write) when it returns.
+	 * 
+	 * @param frames Valid only during the invocation (frames are typically slices of the connection's input buffer)
+	 */
+	public abstract void handleFrames(FrameConnection<I, O> connection, List<I> frames);
+	
+	/**
+	 * Invoked when the connection is closed (by either side). The default implementation does nothing.
+	 */
+	public void onClose(FrameConnection<I, O> connection) {
+	}
+	
+}
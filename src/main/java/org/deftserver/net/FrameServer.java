@@ -0,0 +1,113 @@
+package org.deftserver.net;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+import org.deftserver.ioloop.EventHandler;
+import org.deftserver.ioloop.IOLoop;
+import org.deftserver.ioloop.IOLoopGroup;
+import org.deftserver.ioloop.IOStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.io.Closeables;
+
+/**
+ * A TCP server for frame (message) based protocols. The bytes read from a connection are cut into frames by a 
+ * {@link FrameDecoder}, handed to a {@link FrameHandler} and the messages written by the handler are encoded by a 
+ * {@link FrameEncoder}. E.g. a line based protocol:
+ * 
+ * <pre>
+ * new FrameServer&lt;ByteBuffer, CharSequence&gt;(new DelimiterFrameDecoder(CRLF, 8192), new TextLineEncoder(), handler)
+ * </pre>
+ * 
+ * @param <I> The type of the frames decoded
+ * @param <O> The type of the messages written
+ */
+public class FrameServer<I, O> implements EventHandler {
+	
+	private final static Logger logger = LoggerFactory.getLogger(FrameServer.class);
+	
+	private final FrameDecoder<I> decoder;
+	private final FrameEncoder<O> encoder;
+	private final FrameHandler<I, O> handler;
+	
+	private ServerSocketChannel channel;
+	private final IOLoop ioLoop;
+	private final IOLoopGroup ioLoopGroup;
+	
+	public FrameServer(FrameDecoder<I> decoder, FrameEncoder<O> encoder, FrameHandler<I, O> handler) {
+		this(decoder, encoder, handler, null);
+	}
+	
+	/**
+	 * Creates a FrameServer that accepts connections on the first loop of the given group and distributes the
+	 * accepted connections over all loops of the group (or on the default IOLoop if the group is null).
+	 */
+	public FrameServer(FrameDecoder<I> decoder, FrameEncoder<O> encoder, FrameHandler<I, O> handler, 
+			IOLoopGroup ioLoopGroup) {
+		this.decoder = decoder;
+		this.encoder = encoder;
+		this.handler = handler;
+		this.ioLoopGroup = ioLoopGroup;
+		this.ioLoop = ioLoopGroup != null ? ioLoopGroup.getIOLoop(0) : IOLoop.getInstance();
+	}
+	
+	public void listen(InetSocketAddress endpoint) {
+		bind(endpoint);
+		start();
+	}
+
+	/**
+	 * @throws RuntimeException If the socket can not be bound (e.g. the port is in use), wraps the IOException
+	 */
+	public void bind(InetSocketAddress endpoint) {
+		ServerSocketChannel serverChannel = null;
+		try {
+			serverChannel = ServerSocketChannel.open();
+			serverChannel.configureBlocking(false);
+			serverChannel.socket().bind(endpoint);
+		} catch (IOException e) {
+			logger.error("Could not bind socket: {}", e);
+			Closeables.closeQuietly(serverChannel);
+			throw new RuntimeException("Could not bind socket on " + endpoint, e);
+		}
+		channel = serverChannel;
+	}
+	
+	public void start() {
+		ioLoop.addHandler(channel, this, SelectionKey.OP_ACCEPT);
+	}
+	
+	/**
+	 * @return The loop accepting connections
+	 */
+	public IOLoop getIOLoop() {
+		return ioLoop;
+	}
+
+	@Override
+	public void handleEvents(SelectionKey key) {
+		try {
+			final SocketChannel socketChannel = ((ServerSocketChannel) key.channel()).accept();
+			if (socketChannel == null) {
+				return;
+			}
+			socketChannel.configureBlocking(false);
+			final IOLoop owner = ioLoopGroup != null ? ioLoopGroup.next() : ioLoop;
+			owner.addCallback(new Runnable() {
+				@Override
+				public void run() {
+					IOStream stream = new IOStream(socketChannel, owner);
+					new FrameConnection<I, O>(stream, decoder, encoder, handler).open();
+				}
+			});
+		} catch (IOException e) {
+			logger.error("Could not accept connection: {}", e);
+		}
+	}
+	
+}
@@ -0,0 +1,47 @@
+package org.deftserver.net;
+
+import java.nio.ByteBuffer;
+
+import org.deftserver.buffer.SlicingByteBufferTokenizer;
+
+/**
+ * Decodes frames prefixed with their length, an unsigned big endian integer of 1, 2 or 4 bytes. The frames are 
+ * read-only slices of the input without the length field.
+ */
+public class LengthFieldFrameDecoder implements FrameDecoder<ByteBuffer> {
+
+	private final int fieldLength;
+	private final int maxFrameLength;
+	
+	/**
+	 * @param fieldLength The size of the length field: 1, 2 or 4 (bytes)
+	 * @param maxFrameLength Max length of a frame (length field excluded)
+	 */
+	public LengthFieldFrameDecoder(int fieldLength, int maxFrameLength) {
+		if (fieldLength != 1 && fieldLength != 2 && fieldLength != 4) {
+			throw new IllegalArgumentException("Unsupported length field size: " + fieldLength);
+		}
+		this.fieldLength = fieldLength;
+		this.maxFrameLength = maxFrameLength;
+	}
+	
+	@Override
+	public ByteBuffer decode(SlicingByteBufferTokenizer input) {
+		if (input.size() < fieldLength) {
+			return null;
+		}
+		long length = 0;
+		for (int i = 0; i < fieldLength; i++) {
+			length = length << 8 | (input.get(i) & 0xff);
+		}
+		if (length > maxFrameLength) {
+			throw new FrameException("Frame length " + length + " exceeds " + maxFrameLength + " bytes");
+		}
+		if (input.size() < fieldLength + length) {
+			return null;
+		}
+		input.slice(fieldLength);
+		return input.slice((int) length);
+	}
+	
+}
@@ -0,0 +1,39 @@
+package org.deftserver.net;
+
+import java.nio.ByteBuffer;
+
+import org.deftserver.buffer.CompositeByteBuffer;
+
+/**
+ * Encodes a frame as its length (an unsigned big endian integer of 1, 2 or 4 bytes) followed by its bytes (the 
+ * counterpart of {@link LengthFieldFrameDecoder}).
+ */
+public class LengthFieldFrameEncoder implements FrameEncoder<ByteBuffer> {
+
+	private final int fieldLength;
+	
+	/**
+	 * @param fieldLength The size of the length field: 1, 2 or 4 (bytes)
+	 */
+	public LengthFieldFrameEncoder(int fieldLength) {
+		if (fieldLength != 1 && fieldLength != 2 && fieldLength != 4) {
+			throw new IllegalArgumentException("Unsupported length field size: " + fieldLength);
+		}
+		this.fieldLength = fieldLength;
+	}
+	
+	@Override
+	public void encode(ByteBuffer frame, CompositeByteBuffer out) {
+		int length = frame.remaining();
+		if (fieldLength < 4 && length >= 1 << (8 * fieldLength)) {
+			throw new IllegalArgumentException("Frame of " + length + " bytes exceeds the length field");
+		}
+		byte[] field = new byte[fieldLength];
+		for (int i = fieldLength - 1; i >= 0; i--) {
+			field[i] = (byte) length;
+			length >>>= 8;
+		}
+		out.append(field).append(frame.duplicate());
+	}
+	
+}
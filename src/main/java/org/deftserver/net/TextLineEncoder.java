@@ -0,0 +1,25 @@
+package org.deftserver.net;
+
+import org.deftserver.buffer.CompositeByteBuffer;
+
+/**
+ * Encodes a line of text as its UTF-8 bytes followed by a line terminator.
+ */
+public class TextLineEncoder implements FrameEncoder<CharSequence> {
+
+	private final String terminator;
+	
+	public TextLineEncoder() {
+		this("\r\n");
+	}
+	
+	public TextLineEncoder(String terminator) {
+		this.terminator = terminator;
+	}
+	
+	@Override
+	public void encode(CharSequence line, CompositeByteBuffer out) {
+		out.append(line).append(terminator);
+	}
+	
+}
@@ -9,18 +9,22 @@ import java.util.TimeZone;
 public class DateUtil {
 
 	private final static Locale LOCALE = Locale.US;
-	private final static TimeZone GMT_ZONE;
+	private final static TimeZone GMT_ZONE = TimeZone.getTimeZone("GMT");
 	private final static String RFC_1123_PATTERN = "EEE, dd MMM yyyy HH:mm:ss zzz";
-	private final static DateFormat RFC_1123_FORMAT;
 	
-	static {
-		RFC_1123_FORMAT = new SimpleDateFormat(RFC_1123_PATTERN, LOCALE);
-		GMT_ZONE = TimeZone.getTimeZone("GMT");
-		RFC_1123_FORMAT.setTimeZone(GMT_ZONE);
-	}
-		
+	/** SimpleDateFormat is not thread safe, keep one instance per (I/O loop) thread */
+	private final static ThreadLocal<DateFormat> RFC_1123_FORMAT = new ThreadLocal<DateFormat>() {
+		@Override
+		protected DateFormat initialValue() {
+			DateFormat format = new SimpleDateFormat(RFC_1123_PATTERN, LOCALE);
+			format.setTimeZone(GMT_ZONE);
+			return format;
+		}
+	};
+	
+	
 	public static String getCurrentAsString() {
-		return RFC_1123_FORMAT.format(new Date());
+		return RFC_1123_FORMAT.get().format(new Date());
 	}
 	
 }
\ No newline at end of file
@@ -2,6 +2,7 @@ package org.deftserver.util;
 
 import java.io.File;
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 
@@ -14,22 +15,27 @@ public class HttpUtil {
 
 	private static final Logger logger = LoggerFactory.getLogger(HttpUtil.class);
 
-	private static final MessageDigest md;
-	static {
-		try {	/* Creating a MessageDigest instance is expensive. Do it only once.*/
-			md = MessageDigest.getInstance("MD5");
-		} catch (NoSuchAlgorithmException e) {
-			throw new RuntimeException("MD5 cryptographic algorithm is not available.", e);
+	/* Creating a MessageDigest instance is expensive. Do it only once per (I/O loop) thread. */
+	private static final ThreadLocal<MessageDigest> md = new ThreadLocal<MessageDigest>() {
+		@Override
+		protected MessageDigest initialValue() {
+			try {
+				return MessageDigest.getInstance("MD5");
+			} catch (NoSuchAlgorithmException e) {
+				throw new RuntimeException("MD5 cryptographic algorithm is not available.", e);
+			}
 		}
-	}
+	};
 	
 	private static final String _200_OK 		 			= "HTTP/1.1 200 OK\r\n"; 
 	private static final String _304_NOT_MODIFIED 		 	= "HTTP/1.1 304 Not Modified\r\n"; 
 	private static final String _400_BAD_REQUEST			= "HTTP/1.1 400 Bad Request\r\n"; 
 	private static final String _403_FORBIDDEN 			 	= "HTTP/1.1 403 Forbidden\r\n"; 
 	private static final String _404_NOT_FOUND 	 			= "HTTP/1.1 404 Not Found\r\n"; 
+	private static final String _413_REQUEST_ENTITY_TOO_LARGE	= "HTTP/1.1 413 Request Entity Too Large\r\n"; 
 	private static final String _500_INTERNAL_SERVER_ERROR	= "HTTP/1.1 500 Internal Server Error\r\n"; 
 	private static final String _501_NOT_IMPLEMENTED		= "HTTP/1.1 501 Not Implemented\r\n"; 
+	private static final String _503_SERVICE_UNAVAILABLE	= "HTTP/1.1 503 Service Unavailable\r\n"; 
 
 	// e.g. HTTP/1.0 200 OK or HTTP/1.0 404 Not Found (HTTP version + response status code + reason phrase)
 	public static String createInitialLine(int statusCode) {
@@ -45,10 +51,14 @@ public class HttpUtil {
 			return _403_FORBIDDEN;
 		case 404:
 			return _404_NOT_FOUND;
+		case 413:
+			return _413_REQUEST_ENTITY_TOO_LARGE;
 		case 500:
 			return _500_INTERNAL_SERVER_ERROR;
 		case 501:
 			return _501_NOT_IMPLEMENTED;
+		case 503:
+			return _503_SERVICE_UNAVAILABLE;
 		default:
 			logger.error("Uknonwn Http status code: " + statusCode);
 			throw new IllegalArgumentException("Unknow Http status code: " + statusCode);
@@ -68,12 +78,26 @@ public class HttpUtil {
 
 
 	public static String getEtag(byte[] bytes) {
-		byte[] digest = md.digest(bytes);
+		byte[] digest = md.get().digest(bytes);
 		BigInteger number = new BigInteger(1, digest);
 		return '0' + number.toString(16);	// prepend a '0' to get a proper MD5 hash 
 	}
 
 
+	/**
+	 * @return The etag of the concatenation of the remaining bytes of the given buffers (the buffers are not 
+	 * consumed)
+	 */
+	public static String getEtag(ByteBuffer... buffers) {
+		MessageDigest digest = md.get();
+		for (ByteBuffer buffer : buffers) {
+			digest.update(buffer.duplicate());
+		}
+		BigInteger number = new BigInteger(1, digest.digest());
+		return '0' + number.toString(16);	// prepend a '0' to get a proper MD5 hash 
+	}
+
+
 	public static String getEtag(File file) {
 		//	TODO RS 101011 Implement if etag response header should be present while static file serving.
 		return "";
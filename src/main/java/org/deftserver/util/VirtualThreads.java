@@ -0,0 +1,79 @@
+package org.deftserver.util;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Access to virtual threads (Java 21+) through reflection, so Deft still builds and runs on older JVMs.
+ */
+public class VirtualThreads {
+
+	private static final Logger logger = LoggerFactory.getLogger(VirtualThreads.class);
+
+	/** A factory of virtual threads, null if the JVM does not support them */
+	private static final ThreadFactory factory = createFactory();
+
+	private static final Method newThreadPerTaskExecutor = findNewThreadPerTaskExecutor();
+
+	private VirtualThreads() {
+	}
+
+	/**
+	 * Thread.ofVirtual().name("deft-virtual-", 0).factory()
+	 */
+	private static ThreadFactory createFactory() {
+		try {
+			Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+			Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+			builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, "deft-virtual-", 0L);
+			return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+		} catch (Exception e) {
+			logger.debug("Virtual threads not supported: {}", e.toString());
+			return null;
+		}
+	}
+
+	private static Method findNewThreadPerTaskExecutor() {
+		try {
+			return Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+		} catch (NoSuchMethodException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * @return true if the JVM supports virtual threads
+	 */
+	public static boolean isSupported() {
+		return factory != null && newThreadPerTaskExecutor != null;
+	}
+
+	/**
+	 * @return A factory of virtual threads (named "deft-virtual-n"), or null if the JVM does not support them.
+	 */
+	public static ThreadFactory getFactory() {
+		return factory;
+	}
+
+	/**
+	 * @return An executor that runs every task on a new virtual thread (named "deft-virtual-n"), or null if the JVM 
+	 * does not support virtual threads.
+	 */
+	public static ExecutorService newThreadPerTaskExecutor() {
+		if (!isSupported()) {
+			return null;
+		}
+		try {
+			return (ExecutorService) newThreadPerTaskExecutor.invoke(null, factory);
+		} catch (Exception e) {
+			logger.warn("Could not create a virtual thread executor: {}", e.toString());
+			return null;
+		}
+	}
+
+}
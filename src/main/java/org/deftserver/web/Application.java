@@ -1,115 +1,133 @@
 package org.deftserver.web;
 
 import java.util.Map;
-import java.util.regex.Pattern;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.deftserver.util.HttpUtil;
+import org.deftserver.util.VirtualThreads;
 import org.deftserver.web.handler.BadRequestRequestHandler;
 import org.deftserver.web.handler.NotFoundRequestHandler;
 import org.deftserver.web.handler.RequestHandler;
 import org.deftserver.web.handler.StaticContentHandler;
 import org.deftserver.web.protocol.HttpRequest;
-
-import com.google.common.collect.ImmutableMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 public class Application {
 	
+	private final static Logger logger = LoggerFactory.getLogger(Application.class);
+	
 	/**
 	 * Default size of the read buffer that the I/O loop allocates per each read
 	 */
 	private int readBufferSize = 1500;	// in bytes
-
+	
 	/**
-	 * "Normal/Absolute" (non group capturing) RequestHandlers
-	 * e.g. "/", "/persons"
+	 * Max size of a request body that is aggregated in memory (i.e. not streamed, cmp. {@link StreamingBody})
 	 */
-	private final ImmutableMap<String, RequestHandler> absoluteHandlers;
+	private int maxRequestBodySize = 1024 * 1024;	// in bytes
 
 	/**
-	 * Group capturing RequestHandlers
-	 * e.g. "/persons/([0-9]+)", "/persons/(\\d{1,3})"  
+	 * Routes request paths to RequestHandlers, e.g. "/", "/persons/{id:digits}", "/persons/([0-9]+)"
+	 * (see {@link Router} for the syntax)
+	 */
+	private final Router router = new Router();
+	
+	/**
+	 * Resolved routes (including static content and not found) of recently requested paths. The size is configurable
+	 * with -Ddeft.routeCacheSize (0 disables the cache).
+	 */
+	private final RouteCache routeCache = new RouteCache(Integer.getInteger("deft.routeCacheSize", 1024));
+	
+	private static final String[] NO_VALUES = {};
+	
+	private static final Router.Match NOT_FOUND = new Router.Match(NotFoundRequestHandler.getInstance(), NO_VALUES, NO_VALUES);
+	
+	private static final Router.Match STATIC_CONTENT = new Router.Match(StaticContentHandler.getInstance(), NO_VALUES, NO_VALUES);
+	
+	/**
+	 * Number of threads, and max number of queued requests, of the pool {@link Blocking} methods are invoked on
 	 */
-	private final ImmutableMap<String, RequestHandler> capturingHandlers;
+	private int blockingThreads = 16;
+	private int blockingQueueSize = 256;
 	
 	/**
-	 * A mapping between group capturing RequestHandlers and their corresponding pattern ( e.g. "([0-9]+)" )
+	 * If true every handler method (but {@link Asynchronous} ones) is invoked on a virtual thread, at most 
+	 * maxVirtualThreads concurrently 
 	 */
-	private final ImmutableMap<RequestHandler, Pattern> patterns;
+	private boolean virtualThreads = false;
+	private int maxVirtualThreads = 10000;
+	
+	/** Created on first use */
+	private LimitingExecutor blockingExecutor;
 	
 	/**
 	 * The directory where static content (files) will be served from.
 	 */
 	private String staticContentDir;
 
+	/**
+	 * @throws java.util.regex.PatternSyntaxException If a path contains a malformed regular expression
+	 * @throws IllegalArgumentException If a path is malformed (e.g. a parameter does not span a complete segment) 
+	 */
 	public Application(Map<String, RequestHandler> handlers) {
-		ImmutableMap.Builder<String, RequestHandler> builder = new ImmutableMap.Builder<String, RequestHandler>();
-		ImmutableMap.Builder<String, RequestHandler> capturingBuilder = new ImmutableMap.Builder<String, RequestHandler>();
-		ImmutableMap.Builder<RequestHandler, Pattern> patternsBuilder = new ImmutableMap.Builder<RequestHandler, Pattern>();
-
-		for (String path : handlers.keySet()) {
-			int index = path.lastIndexOf("/");
-			String group = path.substring(index+1, path.length());
-			if (containsCapturingGroup(group)) {
-				// path ends with capturing group, e.g path == "/person/([0-9]+)"
-				capturingBuilder.put(path.substring(0, index+1), handlers.get(path));
-				patternsBuilder.put(handlers.get(path), Pattern.compile(group));
-			} else {
-				// "normal" path, e.g. path == "/"
-				builder.put(path, handlers.get(path));
-			}
+		for (Map.Entry<String, RequestHandler> entry : handlers.entrySet()) {
+			router.add(entry.getKey(), entry.getValue());
 		}
-		absoluteHandlers = builder.build();
-		capturingHandlers = capturingBuilder.build();
-		patterns = patternsBuilder.build();
 	}
-
+	
 	/**
-	 * 
-	 * @param path Requested path
-	 * @return Returns the {@link RequestHandler} associated with the given path. If no mapping exists a 
-	 * {@link NotFoundRequestHandler} is returned.
-	 */
-	private RequestHandler getHandler(String path) {
-		RequestHandler rh = absoluteHandlers.get(path);
-		if (rh == null) {
-			// path could contain capturing groups which we could have a handler associated with.
-			rh = getCapturingHandler(path);
-			if (rh == null) {
-				// path could be prefixed with the 'static content directory'
-				rh = getStaticContentHandler(path);
-			}
-		} 
-		return rh != null ? rh : NotFoundRequestHandler.getInstance();	// TODO RS store in a final field for improved performance?
+	 * Registers the MXBeans of this application (i.e. the route cache statistics), unless already registered. 
+	 * Invoked when a {@link HttpServer} starts listening.
+	 */
+	void registerMXBeans() {
+		routeCache.register();
 	}
 	
+	/**
+	 * Unregisters the MXBeans of this application, i.e. the platform MBeanServer no longer references it. Invoke when 
+	 * the application is no longer served (e.g. when an embedding container undeploys it). 
+	 */
+	public void close() {
+		routeCache.unregister();
+	}
+
+	/**
+	 * @return Returns the {@link RequestHandler} associated with the requested path (without its query string) and
+	 * sets the path parameters captured on the request. If no mapping exists a {@link NotFoundRequestHandler} is 
+	 * returned.
+	 */
 	public RequestHandler getHandler(HttpRequest request) {
 		if (!HttpUtil.verifyRequest(request)) {
 			return BadRequestRequestHandler.getInstance(); 
-		} else {
-			return getHandler(request.getRequestedPath());
 		}
+		String path = request.getPath();
+		Router.Match match = routeCache.get(path);
+		if (match == null) {
+			match = resolve(path);
+			routeCache.put(path, match);
+		}
+		if (match.values.length > 0) {
+			request.setPathParameters(match.names, match.values);
+		}
+		return match.handler;
 	}
 	
-	private boolean containsCapturingGroup(String group) {
-		boolean containsGroup =  group.matches("^\\(.*\\)$");
-		Pattern.compile(group);	// throws PatternSyntaxException if group is malformed regular expression
-		return containsGroup;
-	}
-	
-	private RequestHandler getCapturingHandler(String path) {
-		int index = path.lastIndexOf("/");
-		if (index != -1) {
-			String init = path.substring(0, index+1);	// path without its last segment
-			String group = path.substring(index+1, path.length()); 
-			RequestHandler handler = capturingHandlers.get(init);
-			if (handler != null) {
-				Pattern regex = patterns.get(handler);
-				if (regex.matcher(group).matches()) {
-					return handler;
-				}
-			}
+	private Router.Match resolve(String path) {
+		Router.Match match = router.match(path, path.length());
+		if (match != null) {
+			return match;
 		}
-		return null;
+		// path could be prefixed with the 'static content directory'
+		return getStaticContentHandler(path) != null ? STATIC_CONTENT : NOT_FOUND;
 	}
 	
 	private RequestHandler getStaticContentHandler(String path) {
@@ -143,8 +161,178 @@ public class Application {
 		return readBufferSize;
 	}
 	
+	/**
+	 * Sets the max size of a request body that is aggregated in memory before the request is dispatched. Requests 
+	 * with larger bodies are rejected with a 413 (Request Entity Too Large). Does not apply to request handler 
+	 * methods annotated with {@link StreamingBody}.
+	 */
+	public void setMaxRequestBodySize(int maxRequestBodySize) {
+		this.maxRequestBodySize = maxRequestBodySize;
+	}
+	
+	/**
+	 * @return Max size of a request body that is aggregated in memory.
+	 */
+	public int getMaxRequestBodySize() {
+		return maxRequestBodySize;
+	}
+	
+	/**
+	 * Sets the size of the worker pool that methods annotated with {@link Blocking} are invoked on. Requests arriving
+	 * when all threads are busy and queueSize requests are already waiting are rejected with a 503 (Service 
+	 * Unavailable). Has no effect once the pool is created (i.e. after the first blocking request).
+	 */
+	public void setBlockingPool(int threads, int queueSize) {
+		if (threads < 1 || queueSize < 0) {
+			throw new IllegalArgumentException("threads: " + threads + " queueSize: " + queueSize);
+		}
+		this.blockingThreads = threads;
+		this.blockingQueueSize = queueSize;
+	}
+	
+	/**
+	 * @return The number of threads of the pool {@link Blocking} methods are invoked on (also the max number of 
+	 * connections a {@link HttpServer.Engine#BLOCKING} server serves if the JVM does not support virtual threads)
+	 */
+	public int getBlockingThreads() {
+		return blockingThreads;
+	}
+	
+	/**
+	 * Enables (or disables) the virtual thread execution mode: every handler method (but {@link Asynchronous} ones) 
+	 * is invoked on a virtual thread of its own, where it may block freely, as if annotated with {@link Blocking}. 
+	 * Parsing, routing and writing the response stay on the I/O loop. At most maxVirtualThreads requests are 
+	 * in flight, further requests are rejected with a 503 (Service Unavailable).
+	 * 
+	 * If the JVM does not support virtual threads (i.e. before Java 21), handlers run on the (bounded) platform thread 
+	 * pool of {@link #setBlockingPool(int, int)} instead. Has no effect once the executor is created (i.e. after the 
+	 * first blocking request).
+	 */
+	public void setVirtualThreads(boolean enabled, int maxVirtualThreads) {
+		if (maxVirtualThreads < 1) {
+			throw new IllegalArgumentException("maxVirtualThreads: " + maxVirtualThreads);
+		}
+		this.virtualThreads = enabled;
+		this.maxVirtualThreads = maxVirtualThreads;
+	}
+	
+	public void setVirtualThreads(boolean enabled) {
+		setVirtualThreads(enabled, maxVirtualThreads);
+	}
+	
+	/**
+	 * @return true if every handler method (but {@link Asynchronous} ones) is dispatched to the 
+	 * {@link #getBlockingExecutor()}
+	 */
+	public boolean isVirtualThreads() {
+		return virtualThreads;
+	}
+	
+	/**
+	 * @return The (bounded) executor methods annotated with {@link Blocking} (and, in virtual thread mode, all 
+	 * handler methods) are invoked on. A saturated executor throws a {@link RejectedExecutionException}. Platform 
+	 * threads are daemon threads named "deft-blocking-n", virtual threads are named "deft-virtual-n".
+	 */
+	public Executor getBlockingExecutor() {
+		return getLimitingExecutor();
+	}
+	
+	/**
+	 * Runs task on the {@link #getBlockingExecutor()} and then, on the same thread, the given continuation. The task
+	 * no longer counts against the executor's bound when the continuation runs, i.e. a request whose response is 
+	 * handed back by the continuation frees its slot before the client can send the next request.
+	 * 
+	 * @throws RejectedExecutionException If the executor is saturated
+	 */
+	public void executeBlocking(Runnable task, Runnable then) {
+		getLimitingExecutor().execute(task, then);
+	}
+	
+	private synchronized LimitingExecutor getLimitingExecutor() {
+		if (blockingExecutor == null) {
+			ExecutorService virtual = virtualThreads ? VirtualThreads.newThreadPerTaskExecutor() : null;
+			if (virtual != null) {
+				blockingExecutor = new LimitingExecutor(virtual, maxVirtualThreads);
+			} else {
+				if (virtualThreads) {
+					logger.info("Virtual threads are not supported by this JVM, handlers run on a platform thread pool");
+				}
+				blockingExecutor = new LimitingExecutor(createBlockingPool(), blockingThreads + blockingQueueSize);
+			}
+		}
+		return blockingExecutor;
+	}
+	
+	/**
+	 * @return A pool of blockingThreads threads with an unbounded queue, bounded by the {@link LimitingExecutor} (a 
+	 * bounded queue would reject tasks while a worker is still on its way back to the queue)
+	 */
+	private ExecutorService createBlockingPool() {
+		return new ThreadPoolExecutor(blockingThreads, blockingThreads, 0, TimeUnit.MILLISECONDS, 
+				new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+					private final AtomicInteger count = new AtomicInteger();
+					@Override
+					public Thread newThread(Runnable r) {
+						Thread thread = new Thread(r, "deft-blocking-" + count.incrementAndGet());
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+	}
+	
+	/**
+	 * Bounds the number of tasks in flight on an (otherwise unbounded) executor.
+	 */
+	private static class LimitingExecutor implements Executor {
+		
+		private final Executor executor;
+		private final Semaphore permits;
+		
+		LimitingExecutor(Executor executor, int maxTasks) {
+			this.executor = executor;
+			this.permits = new Semaphore(maxTasks);
+		}
+		
+		@Override
+		public void execute(Runnable task) {
+			execute(task, null);
+		}
+		
+		/**
+		 * Runs task and, once its permit is released, then (if not null).
+		 */
+		void execute(final Runnable task, final Runnable then) {
+			if (!permits.tryAcquire()) {
+				throw new RejectedExecutionException("Too many tasks in flight");
+			}
+			try {
+				executor.execute(new Runnable() {
+					@Override
+					public void run() {
+						try {
+							task.run();
+						} finally {
+							permits.release();
+						}
+						if (then != null) {
+							then.run();
+						}
+					}
+				});
+			} catch (RejectedExecutionException e) {
+				permits.release();
+				throw e;
+			}
+		}
+		
+	}
+	
+	/**
+	 * Sets the directory static content is served from. Invalidates the routes cached so far. 
+	 */
 	public void setStaticContentDir(String scd) {
 		this.staticContentDir = scd;
+		routeCache.clear();
 	}
 
 }
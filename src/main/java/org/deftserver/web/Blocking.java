@@ -0,0 +1,21 @@
+package org.deftserver.web;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+import org.deftserver.web.handler.RequestHandler;
+import org.deftserver.web.protocol.HttpResponse;
+
+/**
+ * Annotation used by implementations of {@link RequestHandler} to denote a method that blocks (e.g. JDBC or file 
+ * I/O). The method is invoked on a thread of the application's bounded worker pool (cmp. 
+ * {@link Application#setBlockingPool(int, int)}) instead of the I/O loop. Once it returns, the response is handed back 
+ * to the I/O loop and finished there, i.e. the method must not invoke {@link HttpResponse#finish()}. It may invoke 
+ * {@link HttpResponse#flush()} (e.g. to stream a large response), the output is handed over to the I/O loop. If the 
+ * pool (and its queue) is saturated the request is rejected with a 503 (Service Unavailable) right away.
+ */
+@Retention(RetentionPolicy.RUNTIME)	
+@Target(ElementType.METHOD)
+public @interface Blocking {}
@@ -0,0 +1,175 @@
+package org.deftserver.web;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.deftserver.ioloop.IOLoop;
+import org.deftserver.ioloop.Timeout;
+
+/**
+ * Helpers for composing {@link CompletionStage}s in handlers (cmp. 
+ * {@link org.deftserver.web.handler.AsyncRequestHandler}): fan-out combinators, timeouts on the I/O loop's timer and 
+ * adapters for {@link AsyncCallback} based APIs.
+ */
+public class CompletionStages {
+
+	private CompletionStages() {
+	}
+
+	/**
+	 * @return A future completed with the results of all given stages (in the order of the stages), or exceptionally
+	 * as soon as one of them fails.
+	 */
+	public static <T> CompletableFuture<List<T>> all(List<? extends CompletionStage<? extends T>> stages) {
+		final CompletableFuture<List<T>> result = new CompletableFuture<List<T>>();
+		final int size = stages.size();
+		final List<T> values = new ArrayList<T>(size);
+		for (int i = 0; i < size; i++) {
+			values.add(null);
+		}
+		if (size == 0) {
+			result.complete(values);
+			return result;
+		}
+		final AtomicInteger remaining = new AtomicInteger(size);
+		for (int i = 0; i < size; i++) {
+			final int index = i;
+			stages.get(i).whenComplete((value, failure) -> {
+				if (failure != null) {
+					result.completeExceptionally(unwrap(failure));
+					return;
+				}
+				synchronized (values) {
+					values.set(index, value);
+				}
+				if (remaining.decrementAndGet() == 0) {
+					synchronized (values) {
+						result.complete(values);
+					}
+				}
+			});
+		}
+		return result;
+	}
+
+	/**
+	 * @return A future completed with the result of the first of the given stages that succeeds, or exceptionally 
+	 * (with the last failure) if all of them fail.
+	 * @throws IllegalArgumentException If no stages are given
+	 */
+	public static <T> CompletableFuture<T> any(List<? extends CompletionStage<? extends T>> stages) {
+		if (stages.isEmpty()) {
+			throw new IllegalArgumentException("No stages");
+		}
+		final CompletableFuture<T> result = new CompletableFuture<T>();
+		final AtomicInteger remaining = new AtomicInteger(stages.size());
+		for (CompletionStage<? extends T> stage : stages) {
+			stage.whenComplete((value, failure) -> {
+				if (failure == null) {
+					result.complete(value);
+				} else if (remaining.decrementAndGet() == 0) {
+					result.completeExceptionally(unwrap(failure));
+				}
+			});
+		}
+		return result;
+	}
+
+	/** A timer thread for timeouts requested without an I/O loop, created on first use */
+	private static class Scheduler {
+		
+		static final ScheduledThreadPoolExecutor instance = new ScheduledThreadPoolExecutor(1, r -> {
+			Thread thread = new Thread(r, "deft-timeout");
+			thread.setDaemon(true);
+			return thread;
+		});
+		
+		static {
+			instance.setRemoveOnCancelPolicy(true);
+		}
+		
+	}
+
+	/**
+	 * @return A future completed like the given stage, or exceptionally with a {@link TimeoutException} if the stage 
+	 * is not completed within timeoutMs. The timeout is scheduled on (and expires on the thread of) the given loop, or
+	 * if ioLoop is null (e.g. on the {@link HttpServer.Engine#BLOCKING} engine, where there is no current loop) on a 
+	 * shared timer thread.
+	 */
+	public static <T> CompletableFuture<T> withTimeout(CompletionStage<T> stage, long timeoutMs, IOLoop ioLoop) {
+		final CompletableFuture<T> result = new CompletableFuture<T>();
+		final Runnable expire = () -> 
+				result.completeExceptionally(new TimeoutException("Not completed within " + timeoutMs + " ms"));
+		final Runnable cancel;
+		if (ioLoop != null) {
+			Timeout timeout = ioLoop.addTimeout(System.currentTimeMillis() + timeoutMs, expire);
+			cancel = timeout::cancel;
+		} else {
+			ScheduledFuture<?> timeout = Scheduler.instance.schedule(expire, timeoutMs, TimeUnit.MILLISECONDS);
+			cancel = () -> timeout.cancel(false);
+		}
+		stage.whenComplete((value, failure) -> {
+			cancel.run();
+			if (failure != null) {
+				result.completeExceptionally(unwrap(failure));
+			} else {
+				result.complete(value);
+			}
+		});
+		return result;
+	}
+
+	/**
+	 * @return A stage completed like the given one, but whose completion (and hence the continuations added to it) 
+	 * runs on the given loop.
+	 * @throws IllegalArgumentException If ioLoop is null (e.g. IOLoop.current() on a thread that is not a loop's)
+	 */
+	public static <T> CompletableFuture<T> onLoop(CompletionStage<T> stage, IOLoop ioLoop) {
+		if (ioLoop == null) {
+			throw new IllegalArgumentException("No I/O loop to complete on");
+		}
+		final CompletableFuture<T> result = new CompletableFuture<T>();
+		stage.whenCompleteAsync((value, failure) -> {
+			if (failure != null) {
+				result.completeExceptionally(unwrap(failure));
+			} else {
+				result.complete(value);
+			}
+		}, ioLoop);
+		return result;
+	}
+
+	/**
+	 * @return A callback that completes the given future, e.g. to turn an {@link AsyncCallback} based API into a 
+	 * CompletionStage.
+	 */
+	public static <T> AsyncCallback<T> callback(final CompletableFuture<T> future) {
+		return new AsyncCallback<T>() {
+			@Override
+			public void onSuccess(T result) {
+				future.complete(result);
+			}
+			@Override
+			public void onFailure(Throwable caught) {
+				future.completeExceptionally(caught);
+			}
+		};
+	}
+
+	/**
+	 * @return The cause of a {@link CompletionException} (as passed to continuations of dependent stages), the given 
+	 * throwable otherwise.
+	 */
+	public static Throwable unwrap(Throwable failure) {
+		return failure instanceof CompletionException && failure.getCause() != null ? failure.getCause() : failure;
+	}
+
+}
@@ -1,28 +1,99 @@
 package org.deftserver.web;
 
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.ServerSocketChannel;
+
 import org.deftserver.ioloop.IOLoop;
+import org.deftserver.ioloop.IOLoopGroup;
+import org.deftserver.web.protocol.BlockingHttpProtocol;
+import org.deftserver.web.protocol.HttpProtocolImpl;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.io.Closeables;
 
 
 public class HttpServer {
 	
+	private final static Logger logger = LoggerFactory.getLogger(HttpServer.class);
+	
+	/**
+	 * How connections are served
+	 */
+	public enum Engine {
+		
+		/** Non-blocking I/O on {@link IOLoop}s, see {@link HttpProtocolImpl} */
+		SELECTOR,
+		
+		/** A (virtual, if supported) thread per connection doing blocking I/O, see {@link BlockingHttpProtocol} */
+		BLOCKING;
+		
+	}
+	
 	private static final int MIN_PORT_NUMBER = 1;
 	private static final int MAX_PORT_NUMBER = 65535;
 
 	private final Application application;
-	//private final IOLoop ioLoop;
 	
+	/** The loop that accepts new connections */
+	private final IOLoop ioLoop;
+	
+	/** The loops that accepted connections are distributed over, null if running on the default {@link IOLoop} */
+	private final IOLoopGroup ioLoopGroup;
+	
+	private final Engine engine;
+	
+	/**
+	 * Creates a HttpServer that runs on the default (single threaded) {@link IOLoop}.
+	 */
 	public HttpServer(Application app) {
+		this(app, (IOLoopGroup) null);
+	}
+	
+	/**
+	 * Creates a HttpServer that accepts connections on the first loop of the given group and distributes the
+	 * accepted connections over all loops of the group.
+	 */
+	public HttpServer(Application app, IOLoopGroup ioLoopGroup) {
+		application = app;
+		this.ioLoopGroup = ioLoopGroup;
+		ioLoop = ioLoopGroup != null ? ioLoopGroup.getIOLoop(0) : IOLoop.getInstance();
+		engine = Engine.SELECTOR;
+	}
+	
+	/**
+	 * Creates a HttpServer that serves connections with the given engine. A {@link Engine#SELECTOR} server runs on the 
+	 * default {@link IOLoop}. A {@link Engine#BLOCKING} server starts accepting connections (on a thread of its own) 
+	 * when it listens, it has no I/O loop.
+	 */
+	public HttpServer(Application app, Engine engine) {
 		application = app;
-//		ioLoop = new IOLoop(application);
+		this.ioLoopGroup = null;
+		this.engine = engine;
+		ioLoop = engine == Engine.SELECTOR ? IOLoop.getInstance() : null;
 	}
 
+	/**
+	 * @return The {@link IOLoop} accepting new connections. Starting it starts the entire {@link IOLoopGroup} (if 
+	 * any).
+	 * @throws IllegalStateException If this server uses the {@link Engine#BLOCKING} engine
+	 */
 	public IOLoop getIOLoop() {
-	//	return ioLoop;
-		return null;
+		if (engine != Engine.SELECTOR) {
+			throw new IllegalStateException("A " + engine + " server has no IOLoop");
+		}
+		return ioLoop;
+	}
+	
+	public Engine getEngine() {
+		return engine;
 	}
 
 	/**
 	 * @return this for chaining purposes
+	 * @throws RuntimeException If the socket can not be bound (e.g. the port is in use), wraps the IOException
 	 */
 	public HttpServer listen(int port) {
 		if (port <= MIN_PORT_NUMBER || port > MAX_PORT_NUMBER) {
@@ -30,7 +101,27 @@ public class HttpServer {
 					MIN_PORT_NUMBER + ", " + MAX_PORT_NUMBER + ")");
 		}
 		
-//		ioLoop.listen(port);
+		ServerSocketChannel serverChannel = null;
+		try {
+			serverChannel = ServerSocketChannel.open();
+			serverChannel.configureBlocking(engine == Engine.BLOCKING);
+			serverChannel.socket().setReuseAddress(true);
+			serverChannel.socket().bind(new InetSocketAddress(port));
+		} catch (IOException e) {
+			logger.error("Could not bind socket: {}", e);
+			Closeables.closeQuietly(serverChannel);
+			throw new RuntimeException("Could not bind socket on port " + port, e);
+		}
+		application.registerMXBeans();
+		if (engine == Engine.BLOCKING) {
+			final ServerSocketChannel channel = serverChannel;
+			final BlockingHttpProtocol protocol = new BlockingHttpProtocol(application);
+			new Thread(new Runnable() {
+				@Override public void run() { protocol.serve(channel); }
+			}, "deft-acceptor-" + port).start();
+			return this;
+		}
+		ioLoop.addHandler(serverChannel, new HttpProtocolImpl(application, ioLoop, ioLoopGroup), SelectionKey.OP_ACCEPT);
 		return this;
 	}
 
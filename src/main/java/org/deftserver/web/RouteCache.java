@@ -0,0 +1,180 @@
+package org.deftserver.web;
+
+import java.lang.management.ManagementFactory;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A bounded cache of resolved routes, by path (without query string). Negative results (paths that resolve to a
+ * {@link org.deftserver.web.handler.NotFoundRequestHandler}) are cached as well, so a cached path costs a single
+ * hash lookup whatever it resolves to.
+ *
+ * When the cache is full an entry is evicted with the second chance (clock) algorithm: every hit marks its entry as
+ * referenced, a clock hand sweeping over the entries skips (and unmarks) referenced entries and evicts the first
+ * unreferenced one. Hence frequently requested paths stay cached even when a lot of distinct paths (e.g. a scan for
+ * missing files) are requested.
+ *
+ * Thread safe. May be registered as an MXBean (org.deftserver.web:type=RouteCache,id=n) exposing hit/miss counters.
+ */
+class RouteCache implements RouteCacheMXBean {
+
+	private final static Logger logger = LoggerFactory.getLogger(RouteCache.class);
+
+	private static final AtomicInteger ids = new AtomicInteger();
+
+	private static class Entry {
+
+		final Router.Match match;
+
+		/** Set by every hit, cleared by the eviction scan (races are harmless) */
+		volatile boolean referenced;
+
+		Entry(Router.Match match) {
+			this.match = match;
+		}
+
+	}
+
+	private final ConcurrentMap<String, Entry> entries;
+	private final int maxSize;
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+
+	/** The clock hand, i.e. where the next eviction scan starts. Guarded by this */
+	private Iterator<Entry> hand;
+
+	/** The name the MXBean is registered with, null if not registered. Guarded by this */
+	private ObjectName objectName;
+
+	/**
+	 * @param maxSize Max number of cached paths, 0 disables the cache.
+	 */
+	RouteCache(int maxSize) {
+		this.maxSize = maxSize;
+		entries = new ConcurrentHashMap<String, Entry>(Math.max(16, maxSize * 4 / 3 + 1));
+	}
+
+	/**
+	 * @return The cached route for the given path, or null if the path isn't cached.
+	 */
+	Router.Match get(String path) {
+		Entry entry = entries.get(path);
+		if (entry == null) {
+			misses.incrementAndGet();
+			return null;
+		}
+		hits.incrementAndGet();
+		if (!entry.referenced) {
+			entry.referenced = true;
+		}
+		return entry.match;
+	}
+
+	void put(String path, Router.Match match) {
+		if (maxSize == 0) {
+			return;
+		}
+		while (entries.size() >= maxSize) {
+			evict();
+		}
+		entries.putIfAbsent(path, new Entry(match));
+	}
+
+	/**
+	 * Advances the clock hand to the first entry not referenced since the hand last passed it, and removes it.
+	 * Referenced entries the hand passes are unmarked. The hand persists across evictions, i.e. an eviction costs a 
+	 * constant number of steps on average (a single one can take a full turn if every entry is referenced).
+	 */
+	private synchronized void evict() {
+		// at most two restarts: the remainder of the current turn and a full turn unmark every referenced entry
+		for (int restarts = 0; restarts <= 2; ) {
+			if (hand == null || !hand.hasNext()) {
+				hand = entries.values().iterator();	// weakly consistent, i.e. tolerates concurrent modification
+				restarts++;
+				if (!hand.hasNext()) {
+					return;
+				}
+			}
+			Entry entry = hand.next();
+			if (entry.referenced) {
+				entry.referenced = false;
+			} else {
+				hand.remove();
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Registers the MXBean, unless already registered.
+	 */
+	synchronized void register() {
+		if (objectName != null) {
+			return;
+		}
+		MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
+		String mbeanName = "org.deftserver.web:type=RouteCache,id=" + ids.incrementAndGet();
+		try {
+			objectName = new ObjectName(mbeanName);
+			mbs.registerMBean(this, objectName);
+		} catch (Exception e) {
+			objectName = null;
+			logger.error("Unable to register {} MXBean", this.getClass().getCanonicalName());
+		}
+	}
+
+	/**
+	 * Unregisters the MXBean (if registered), i.e. the platform MBeanServer no longer references this cache.
+	 */
+	synchronized void unregister() {
+		if (objectName == null) {
+			return;
+		}
+		try {
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+		} catch (Exception e) {
+			logger.error("Unable to unregister {} MXBean", this.getClass().getCanonicalName());
+		}
+		objectName = null;
+	}
+
+	synchronized boolean isRegistered() {
+		return objectName != null;
+	}
+
+	@Override
+	public long getHits() {
+		return hits.get();
+	}
+
+	@Override
+	public long getMisses() {
+		return misses.get();
+	}
+
+	@Override
+	public int getSize() {
+		return entries.size();
+	}
+
+	@Override
+	public int getMaxSize() {
+		return maxSize;
+	}
+
+	@Override
+	public void clear() {
+		entries.clear();
+	}
+
+}
@@ -0,0 +1,15 @@
+package org.deftserver.web;
+
+public interface RouteCacheMXBean {
+
+	long getHits();
+
+	long getMisses();
+
+	int getSize();
+
+	int getMaxSize();
+
+	void clear();
+
+}
@@ -0,0 +1,313 @@
+package org.deftserver.web;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import org.deftserver.web.handler.RequestHandler;
+
+/**
+ * Maps request paths to {@link RequestHandler}s with a radix tree, i.e. the cost of a lookup depends on the length
+ * of the path, not on the number of routes.
+ *
+ * A route is a path whose segments are either literal or parameters. A parameter matches a complete (non empty)
+ * segment and its value is captured:
+ * <ul>
+ * <li>"{name}" matches any segment</li>
+ * <li>"{name:digits}" matches decimal digits only, "{name:slug}" letters, digits, '-' and '_'</li>
+ * <li>"{name:regex}" (e.g. "{year:(19|20)[0-9]{2}}") matches the segment against the regular expression</li>
+ * <li>"(regex)" (e.g. "([0-9]+)") is an unnamed parameter matched against the regular expression (as in previous
+ * versions, where it was only supported as the last segment)</li>
+ * </ul>
+ * Literal text is preferred over parameters and typed parameters are tried before untyped ones, "digits" first,
+ * then "slug", any and regular expressions. Regular expressions are only evaluated for segments no literal or
+ * cheaper parameter leads to a match for.
+ *
+ * Immutable (and thread safe) once all routes are added.
+ */
+class Router {
+
+	private enum Type {
+		DIGITS, SLUG, ANY, REGEX;
+	}
+
+	/**
+	 * A parameter edge, leads to the node matching the rest of the path.
+	 */
+	private static class Param {
+
+		final Type type;
+		final Pattern pattern;	// null unless type == REGEX
+		final Node next = new Node("");
+
+		Param(Type type, Pattern pattern) {
+			this.type = type;
+			this.pattern = pattern;
+		}
+
+		boolean sameAs(Type type, Pattern pattern) {
+			return this.type == type && (pattern == null || pattern.pattern().equals(this.pattern.pattern()));
+		}
+
+		boolean matches(String path, int start, int end) {
+			switch (type) {
+			case DIGITS:
+				for (int i = start; i < end; i++) {
+					char c = path.charAt(i);
+					if (c < '0' || c > '9') {
+						return false;
+					}
+				}
+				return start < end;
+			case SLUG:
+				for (int i = start; i < end; i++) {
+					char c = path.charAt(i);
+					if (!(c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c >= '0' && c <= '9' || c == '-' || c == '_')) {
+						return false;
+					}
+				}
+				return start < end;
+			case ANY:
+				return start < end;
+			default:
+				return pattern.matcher(path.substring(start, end)).matches();
+			}
+		}
+
+	}
+
+	/**
+	 * A node of the radix tree. The label is the literal text of the edge leading to this node.
+	 */
+	private static class Node {
+
+		String label;
+		Node[] children = new Node[0];
+		Param[] params = new Param[0];
+
+		/** The handler of the route ending at this node (if any) and the names of its parameters, in order */
+		RequestHandler handler;
+		String[] names;
+
+		Node(String label) {
+			this.label = label;
+		}
+
+		Node child(char c) {
+			for (Node child : children) {
+				if (child.label.charAt(0) == c) {
+					return child;
+				}
+			}
+			return null;
+		}
+
+	}
+
+	/** The result of a successful lookup */
+	static class Match {
+
+		final RequestHandler handler;
+		final String[] names;
+		final String[] values;
+
+		Match(RequestHandler handler, String[] names, String[] values) {
+			this.handler = handler;
+			this.names = names;
+			this.values = values;
+		}
+
+	}
+
+	private static final String[] NO_VALUES = {};
+
+	private final Node root = new Node("");
+
+	/** The max number of parameters of a route */
+	private int maxParams = 0;
+
+	/**
+	 * @throws java.util.regex.PatternSyntaxException If the route contains a malformed regular expression
+	 * @throws IllegalArgumentException If the route is malformed or an equivalent route is already added
+	 */
+	void add(String route, RequestHandler handler) {
+		Node node = root;
+		List<String> names = new ArrayList<String>();
+		int i = 0;
+		StringBuilder literal = new StringBuilder();
+		while (i < route.length()) {
+			int segmentEnd = route.indexOf('/', i);
+			if (segmentEnd < 0) {
+				segmentEnd = route.length();
+			}
+			String segment = route.substring(i, segmentEnd);
+			boolean named = segment.startsWith("{") && segment.endsWith("}") && segment.length() > 2;
+			boolean legacy = segment.startsWith("(") && segment.endsWith(")");
+			if (named || legacy) {
+				node = insert(node, literal.toString());
+				literal.setLength(0);
+				node = param(node, segment, named, names);
+			} else {
+				if (segment.indexOf('{') >= 0 || segment.indexOf('}') >= 0) {
+					throw new IllegalArgumentException("A parameter must span a complete path segment: " + route);
+				}
+				literal.append(segment);
+			}
+			if (segmentEnd < route.length()) {
+				literal.append('/');
+			}
+			i = segmentEnd + 1;
+		}
+		node = insert(node, literal.toString());
+		if (node.handler != null) {
+			throw new IllegalArgumentException("Duplicate route: " + route);
+		}
+		node.handler = handler;
+		node.names = names.toArray(new String[names.size()]);
+		maxParams = Math.max(maxParams, names.size());
+	}
+
+	private static Node param(Node node, String segment, boolean named, List<String> names) {
+		Type type;
+		Pattern pattern = null;
+		if (named) {
+			String spec = segment.substring(1, segment.length() - 1);
+			int colon = spec.indexOf(':');
+			names.add(colon < 0 ? spec : spec.substring(0, colon));
+			String matcher = colon < 0 ? null : spec.substring(colon + 1);
+			if (matcher == null) {
+				type = Type.ANY;
+			} else if (matcher.equals("digits") || matcher.equals("[0-9]+") || matcher.equals("\\d+")) {
+				type = Type.DIGITS;
+			} else if (matcher.equals("slug")) {
+				type = Type.SLUG;
+			} else {
+				type = Type.REGEX;
+				pattern = Pattern.compile(matcher);
+			}
+		} else {
+			names.add(null);
+			if (segment.equals("([0-9]+)") || segment.equals("(\\d+)")) {
+				type = Type.DIGITS;
+			} else {
+				type = Type.REGEX;
+				pattern = Pattern.compile(segment);
+			}
+		}
+		for (Param param : node.params) {
+			if (param.sameAs(type, pattern)) {
+				return param.next;
+			}
+		}
+		Param param = new Param(type, pattern);
+		node.params = Arrays.copyOf(node.params, node.params.length + 1);
+		node.params[node.params.length - 1] = param;
+		Arrays.sort(node.params, new Comparator<Param>() {
+			@Override
+			public int compare(Param a, Param b) {
+				return a.type.compareTo(b.type);
+			}
+		});
+		return param.next;
+	}
+
+	/**
+	 * Inserts the given literal text below node (splitting edges as needed).
+	 *
+	 * @return The node the text ends at
+	 */
+	private static Node insert(Node node, String text) {
+		int i = 0;
+		while (i < text.length()) {
+			Node child = node.child(text.charAt(i));
+			if (child == null) {
+				child = new Node(text.substring(i));
+				node.children = Arrays.copyOf(node.children, node.children.length + 1);
+				node.children[node.children.length - 1] = child;
+				return child;
+			}
+			int common = 0;
+			String label = child.label;
+			while (common < label.length() && i + common < text.length() &&
+					label.charAt(common) == text.charAt(i + common)) {
+				common++;
+			}
+			if (common < label.length()) {
+				// split the edge: child becomes the tail of a new node labeled with the common prefix
+				Node split = new Node(label.substring(0, common));
+				child.label = label.substring(common);
+				split.children = new Node[] {child};
+				for (int j = 0; j < node.children.length; j++) {
+					if (node.children[j] == child) {
+						node.children[j] = split;
+					}
+				}
+				child = split;
+			}
+			node = child;
+			i += common;
+		}
+		return node;
+	}
+
+	/**
+	 * @return The route matching path[0, end), or null if there is none.
+	 */
+	Match match(String path, int end) {
+		int[] captures = maxParams == 0 ? null : new int[2 * maxParams];
+		Node node = match(root, path, 0, end, captures, 0);
+		if (node == null) {
+			return null;
+		}
+		if (node.names.length == 0) {
+			return new Match(node.handler, node.names, NO_VALUES);
+		}
+		String[] values = new String[node.names.length];
+		for (int i = 0; i < values.length; i++) {
+			values[i] = path.substring(captures[2 * i], captures[2 * i + 1]);
+		}
+		return new Match(node.handler, node.names, values);
+	}
+
+	/**
+	 * Matches path[i, end) below node (whose label is already matched).
+	 *
+	 * @param captures The start and end of every parameter captured so far
+	 */
+	private static Node match(Node node, String path, int i, int end, int[] captures, int captured) {
+		if (i == end && node.handler != null) {
+			return node;
+		}
+		if (i < end) {
+			Node child = node.child(path.charAt(i));
+			if (child != null && path.regionMatches(i, child.label, 0, child.label.length()) &&
+					i + child.label.length() <= end) {
+				Node result = match(child, path, i + child.label.length(), end, captures, captured);
+				if (result != null) {
+					return result;
+				}
+			}
+		}
+		if (node.params.length == 0) {
+			return null;
+		}
+		int segmentEnd = path.indexOf('/', i);
+		if (segmentEnd < 0 || segmentEnd > end) {
+			segmentEnd = end;
+		}
+		for (Param param : node.params) {
+			if (param.matches(path, i, segmentEnd)) {
+				captures[2 * captured] = i;
+				captures[2 * captured + 1] = segmentEnd;
+				Node result = match(param.next, path, segmentEnd, end, captures, captured + 1);
+				if (result != null) {
+					return result;
+				}
+			}
+		}
+		return null;
+	}
+
+}
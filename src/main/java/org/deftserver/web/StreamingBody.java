@@ -0,0 +1,19 @@
+package org.deftserver.web;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+import java.nio.ByteBuffer;
+
+import org.deftserver.web.handler.RequestHandler;
+import org.deftserver.web.protocol.HttpRequest;
+
+/**
+ * Annotation used by implementations of {@link RequestHandler} to denote that a method wants the request body 
+ * streamed, i.e. every part of the body is handed to {@link RequestHandler#onBodyChunk(HttpRequest, ByteBuffer)} as 
+ * it arrives (instead of being aggregated in memory). The annotated method is invoked once the body is complete.
+ */
+@Retention(RetentionPolicy.RUNTIME)	
+@Target(ElementType.METHOD)
+public @interface StreamingBody {}
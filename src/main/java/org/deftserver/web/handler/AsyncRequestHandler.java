@@ -0,0 +1,107 @@
+package org.deftserver.web.handler;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.function.BiConsumer;
+
+import org.deftserver.ioloop.IOLoop;
+import org.deftserver.web.Asynchronous;
+import org.deftserver.web.CompletionStages;
+import org.deftserver.web.HttpException;
+import org.deftserver.web.protocol.HttpRequest;
+import org.deftserver.web.protocol.HttpResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A request handler whose methods return a {@link CompletionStage}. The response is finished when the stage 
+ * completes, on the I/O loop that owns the connection (i.e. a continuation added to the returned stage, or the 
+ * stage itself, may complete on any thread). If the stage fails with an {@link HttpException} its status code and 
+ * message are sent, any other failure is sent as a 500 (Internal Server Error).
+ * 
+ * The response must only be written to from continuations that run on the loop, e.g. 
+ * <pre>
+ * return CompletionStages.onLoop(backend.fetch(id), IOLoop.current()).thenAccept(value -> response.write(value));
+ * </pre>
+ * (cmp. {@link CompletionStages} for fan-out over several backends).
+ */
+public abstract class AsyncRequestHandler extends RequestHandler {
+
+	private final static Logger logger = LoggerFactory.getLogger(AsyncRequestHandler.class);
+
+	@Override
+	@Asynchronous
+	public final void get(HttpRequest request, HttpResponse response) {
+		finishOnCompletion(getAsync(request, response), response);
+	}
+
+	@Override
+	@Asynchronous
+	public final void post(HttpRequest request, HttpResponse response) {
+		finishOnCompletion(postAsync(request, response), response);
+	}
+
+	@Override
+	@Asynchronous
+	public final void put(HttpRequest request, HttpResponse response) {
+		finishOnCompletion(putAsync(request, response), response);
+	}
+
+	@Override
+	@Asynchronous
+	public final void delete(HttpRequest request, HttpResponse response) {
+		finishOnCompletion(deleteAsync(request, response), response);
+	}
+
+	//Default implementation of HttpMethods return a 501 page
+	public CompletionStage<?> getAsync(HttpRequest request, HttpResponse response) {
+		return notImplemented(response);
+	}
+
+	public CompletionStage<?> postAsync(HttpRequest request, HttpResponse response) {
+		return notImplemented(response);
+	}
+
+	public CompletionStage<?> putAsync(HttpRequest request, HttpResponse response) {
+		return notImplemented(response);
+	}
+
+	public CompletionStage<?> deleteAsync(HttpRequest request, HttpResponse response) {
+		return notImplemented(response);
+	}
+
+	private static CompletionStage<?> notImplemented(HttpResponse response) {
+		response.setStatusCode(501);
+		return CompletableFuture.completedFuture(null);
+	}
+
+	/**
+	 * Finishes the response when the stage completes, on the current I/O loop. Without a loop (i.e. on the blocking 
+	 * engine, where the connection's thread waits for the response) on the thread completing the stage. 
+	 */
+	private static void finishOnCompletion(CompletionStage<?> stage, final HttpResponse response) {
+		BiConsumer<Object, Throwable> finisher = (result, failure) -> {
+			if (failure != null) {
+				Throwable cause = CompletionStages.unwrap(failure);
+				if (cause instanceof HttpException) {
+					response.setStatusCode(((HttpException) cause).getStatusCode());
+					response.write(cause.getMessage());
+				} else {
+					logger.error("Asynchronous request handler failed", cause);
+					response.setStatusCode(500);
+				}
+			}
+			response.finish();
+		};
+		if (stage == null) {
+			stage = CompletableFuture.completedFuture(null);
+		}
+		IOLoop ioLoop = IOLoop.current();
+		if (ioLoop != null) {
+			stage.whenCompleteAsync(finisher, ioLoop);
+		} else {
+			stage.whenComplete(finisher);
+		}
+	}
+
+}
@@ -1,40 +1,53 @@
 package org.deftserver.web.handler;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.lang.annotation.Annotation;
+import java.nio.ByteBuffer;
+import java.util.EnumSet;
 
 import org.deftserver.web.Asynchronous;
+import org.deftserver.web.Blocking;
 import org.deftserver.web.HttpVerb;
+import org.deftserver.web.StreamingBody;
 import org.deftserver.web.protocol.HttpRequest;
 import org.deftserver.web.protocol.HttpResponse;
 
-import com.google.common.collect.ImmutableMap;
-
 public abstract class RequestHandler {
 
-	private final ImmutableMap<HttpVerb, Boolean> asynchVerbs;
+	private final EnumSet<HttpVerb> asynchVerbs;
+	
+	private final EnumSet<HttpVerb> streamingVerbs;
+	
+	private final EnumSet<HttpVerb> blockingVerbs;
 
 	public RequestHandler() {
-		Map<HttpVerb, Boolean> av = new HashMap<HttpVerb, Boolean>();
-		av.put(HttpVerb.GET, hasAsynchronousMethod(HttpVerb.GET));
-		av.put(HttpVerb.POST, hasAsynchronousMethod(HttpVerb.POST));
-		av.put(HttpVerb.PUT, hasAsynchronousMethod(HttpVerb.PUT));
-		av.put(HttpVerb.DELETE, hasAsynchronousMethod(HttpVerb.DELETE));
-		asynchVerbs = ImmutableMap.copyOf(av);
+		asynchVerbs = getAnnotatedVerbs(Asynchronous.class);
+		streamingVerbs = getAnnotatedVerbs(StreamingBody.class);
+		blockingVerbs = getAnnotatedVerbs(Blocking.class);
+		asynchVerbs.removeAll(blockingVerbs);	// the response of a blocking method is always finished by Deft
 	}
 
-	private boolean hasAsynchronousMethod(HttpVerb verb) {
+	private EnumSet<HttpVerb> getAnnotatedVerbs(Class<? extends Annotation> annotation) {
+		EnumSet<HttpVerb> verbs = EnumSet.noneOf(HttpVerb.class);
+		for (HttpVerb verb : EnumSet.of(HttpVerb.GET, HttpVerb.POST, HttpVerb.PUT, HttpVerb.DELETE)) {
+			if (hasAnnotatedMethod(verb, annotation)) {
+				verbs.add(verb);
+			}
+		}
+		return verbs;
+	}
+	
+	private boolean hasAnnotatedMethod(HttpVerb verb, Class<? extends Annotation> annotation) {
 		try {
 			Class<?>[] parameterTypes = new Class<?>[] {HttpRequest.class, HttpResponse.class};
 			switch (verb) {
 			case GET:
-				return getClass().getMethod("get", parameterTypes).getAnnotation(Asynchronous.class) != null;
+				return getClass().getMethod("get", parameterTypes).getAnnotation(annotation) != null;
 			case POST:
-				return getClass().getMethod("post", parameterTypes).getAnnotation(Asynchronous.class) != null;
+				return getClass().getMethod("post", parameterTypes).getAnnotation(annotation) != null;
 			case PUT:
-				return getClass().getMethod("put", parameterTypes).getAnnotation(Asynchronous.class) != null;
+				return getClass().getMethod("put", parameterTypes).getAnnotation(annotation) != null;
 			default: /* DELETE:*/
-				return getClass().getMethod("delete", parameterTypes).getAnnotation(Asynchronous.class) != null; 
+				return getClass().getMethod("delete", parameterTypes).getAnnotation(annotation) != null; 
 			}
 		} catch (NoSuchMethodException nsme) {
 			return false;
@@ -42,7 +55,30 @@ public abstract class RequestHandler {
 	}
 
 	public boolean isMethodAsynchronous(HttpVerb verb) {
-		return asynchVerbs.get(verb);
+		return asynchVerbs.contains(verb);
+	}
+	
+	/**
+	 * @return true if the method handling the given verb is annotated with {@link StreamingBody}
+	 */
+	public boolean isMethodStreaming(HttpVerb verb) {
+		return streamingVerbs.contains(verb);
+	}
+	
+	/**
+	 * @return true if the method handling the given verb is annotated with {@link Blocking}
+	 */
+	public boolean isMethodBlocking(HttpVerb verb) {
+		return blockingVerbs.contains(verb);
+	}
+	
+	/**
+	 * Invoked with every part of the request body as it arrives, if the method handling the request is annotated 
+	 * with {@link StreamingBody}. The chunk is only valid during the invocation. 
+	 * 
+	 * The default implementation discards the body.
+	 */
+	public void onBodyChunk(HttpRequest request, ByteBuffer chunk) {
 	}
 
 	//Default implementation of HttpMethods return a 501 page
@@ -0,0 +1,302 @@
+package org.deftserver.web.protocol;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.deftserver.buffer.ByteBufferPool;
+import org.deftserver.util.VirtualThreads;
+import org.deftserver.web.Application;
+import org.deftserver.web.Asynchronous;
+import org.deftserver.web.HttpException;
+import org.deftserver.web.handler.RequestHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Closeables;
+
+/**
+ * An alternative to the selector based {@link HttpProtocolImpl}: every connection is served by a thread of its own
+ * (a virtual thread if the JVM supports them, a platform thread otherwise) doing blocking reads and writes. The
+ * requests on a connection are handled one after the other, on the connection's thread, i.e. handlers may block.
+ *
+ * Handlers annotated with {@link Asynchronous} may finish their response from any thread, the connection's thread
+ * waits for that (at most for the keep-alive timeout, then the connection is closed). Note that there is no 
+ * {@link org.deftserver.ioloop.IOLoop} on connection threads.
+ *
+ * Without virtual threads, connections are served by at most {@link Application#getBlockingThreads()} platform 
+ * threads, further connections are answered with a 503 (Service Unavailable) and closed right away.
+ */
+public class BlockingHttpProtocol {
+
+	private final static Logger logger = LoggerFactory.getLogger(BlockingHttpProtocol.class);
+
+	private final Application application;
+
+	private static final byte[] SERVICE_UNAVAILABLE = ("HTTP/1.1 503 Service Unavailable\r\nRetry-After: 1\r\n" + 
+			"Content-Length: 0\r\nConnection: Close\r\n\r\n").getBytes(Charsets.US_ASCII);
+
+	private final ThreadFactory threadFactory;
+
+	/** Bounds the number of connections served by platform threads, null if served by virtual threads */
+	private final Semaphore connectionSlots;
+
+	public BlockingHttpProtocol(Application application) {
+		this.application = application;
+		ThreadFactory virtual = VirtualThreads.getFactory();
+		connectionSlots = virtual != null ? null : new Semaphore(application.getBlockingThreads());
+		threadFactory = virtual != null ? virtual : new ThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger();
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "deft-connection-" + count.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		};
+	}
+
+	/**
+	 * Accepts connections on the given (blocking) channel until it is closed. Blocks the invoking thread.
+	 */
+	public void serve(ServerSocketChannel serverChannel) {
+		while (serverChannel.isOpen()) {
+			SocketChannel channel;
+			try {
+				channel = serverChannel.accept();
+			} catch (ClosedChannelException e) {
+				return;
+			} catch (IOException e) {
+				logger.warn("Error accepting connection: {}", e.getMessage());
+				continue;
+			}
+			if (connectionSlots != null && !connectionSlots.tryAcquire()) {
+				reject(channel);
+				continue;
+			}
+			threadFactory.newThread(new Connection(channel)).start();
+		}
+	}
+
+	/**
+	 * Responds with a 503 (fits into the socket's send buffer, i.e. does not block) and closes the channel. The input
+	 * received so far is discarded first, closing a socket with unread input would reset the connection (and the 
+	 * client could lose the response).
+	 */
+	private void reject(SocketChannel channel) {
+		logger.warn("Too many connections, rejecting connection from {}", channel.socket().getRemoteSocketAddress());
+		try {
+			ByteBuffer response = ByteBuffer.wrap(SERVICE_UNAVAILABLE);
+			while (response.hasRemaining()) {
+				channel.write(response);
+			}
+			channel.socket().shutdownOutput();
+			channel.configureBlocking(false);
+			ByteBuffer discard = ByteBuffer.allocate(1024);
+			while (channel.read(discard) > 0) {
+				discard.clear();
+			}
+		} catch (IOException e) {
+			logger.debug("Error rejecting connection: {}", e.getMessage());
+		} finally {
+			Closeables.closeQuietly(channel);
+		}
+	}
+
+	/**
+	 * A connection and the (only) thread serving it.
+	 */
+	private class Connection implements Runnable, ResponseOutput {
+
+		private final SocketChannel channel;
+		private final HttpRequestParser requestParser = new HttpRequestParser();
+
+		/** The bytes read but not yet consumed */
+		private final ByteBuffer buffer;
+
+		/** Released when the current response is done */
+		private final Semaphore responseDone = new Semaphore(0);
+
+		/** false once the last response on this connection is done */
+		private volatile boolean keepAlive = true;
+
+		/** Reads from the channel, with the keep-alive timeout (a channel ignores the socket's timeout) */
+		private InputStream in;
+
+		Connection(SocketChannel channel) {
+			this.channel = channel;
+			buffer = ByteBuffer.allocate(application.getReadBufferSize());
+			buffer.flip();
+		}
+
+		@Override
+		public void run() {
+			try {
+				channel.socket().setSoTimeout((int) HttpProtocolImpl.KEEP_ALIVE_TIMEOUT);
+				in = channel.socket().getInputStream();
+				while (serveRequest()) {
+					// next request
+				}
+			} catch (SocketTimeoutException e) {
+				logger.debug("Closing expired keep-alive connection");
+			} catch (IOException e) {
+				logger.debug("Error serving connection: {}", e.getMessage());
+			} catch (RuntimeException e) {
+				logger.error("Error in request handler", e);
+			} finally {
+				Closeables.closeQuietly(channel);
+				if (connectionSlots != null) {
+					connectionSlots.release();
+				}
+			}
+		}
+
+		/**
+		 * Reads, dispatches and responds to the next request.
+		 *
+		 * @return false if the connection should be closed
+		 */
+		private boolean serveRequest() throws IOException {
+			HttpRequest request = null;
+			RequestHandler rh;
+			try {
+				while (request == null) {
+					if (!buffer.hasRemaining() && !fill()) {
+						return false;
+					}
+					request = requestParser.parse(buffer);
+				}
+				rh = application.getHandler(request);
+				BodyDecoder bodyDecoder = BodyDecoder.forRequest(request);
+				if (bodyDecoder != null) {
+					RequestBody body = new RequestBody(request, rh, bodyDecoder, application.getMaxRequestBodySize());
+					if (HttpRequestParser.HTTP_1_1.equals(request.getVersion()) &&
+							"100-continue".equalsIgnoreCase(request.getHeader("Expect"))) {
+						write(ByteBuffer.wrap(HttpProtocolImpl.CONTINUE));
+					}
+					while (!body.decode(buffer)) {
+						if (!fill()) {
+							return false;
+						}
+					}
+				}
+			} catch (HttpException e) {
+				// malformed request (or too large body), respond and close
+				HttpResponse response = new HttpResponse(this, false);
+				response.setStatusCode(e.getStatusCode());
+				response.write(e.getMessage());
+				response.finish();
+				return false;
+			}
+			HttpResponse response = new HttpResponse(this, request.isKeepAlive());
+			HttpRequestDispatcher.dispatch(rh, request, response);
+			if (!rh.isMethodAsynchronous(request.getMethod())) {
+				response.finish();
+			}
+			try {
+				if (!responseDone.tryAcquire(HttpProtocolImpl.KEEP_ALIVE_TIMEOUT, TimeUnit.MILLISECONDS)) {
+					logger.warn("Response to {} not finished in time, closing connection", request.getRequestedPath());
+					return false;
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return false;
+			}
+			return keepAlive && channel.isOpen();
+		}
+
+		/**
+		 * Reads (blocking) more bytes into the buffer.
+		 *
+		 * @return false on end of stream
+		 */
+		private boolean fill() throws IOException {
+			buffer.compact();
+			int n = in.read(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+			if (n > 0) {
+				buffer.position(buffer.position() + n);
+			}
+			buffer.flip();
+			return n >= 0;
+		}
+
+		@Override
+		public boolean isOpen() {
+			return channel.isOpen();
+		}
+
+		@Override
+		public boolean isCurrentResponse(HttpResponse response) {
+			return true;	// requests are not pipelined, i.e. a response is dispatched once the preceding one is done
+		}
+
+		@Override
+		public synchronized void write(ByteBuffer... output) {
+			try {
+				while (hasRemaining(output)) {
+					channel.write(output);
+				}
+			} catch (IOException e) {
+				logger.debug("Error writing response: {}", e.getMessage());
+				Closeables.closeQuietly(channel);
+			}
+		}
+
+		private boolean hasRemaining(ByteBuffer[] buffers) {
+			for (ByteBuffer b : buffers) {
+				if (b.hasRemaining()) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		@Override
+		public synchronized void write(FileChannel file, long position, long count) {
+			try {
+				long end = position + count;
+				while (position < end && position < file.size()) {
+					position += file.transferTo(position, end - position, channel);
+				}
+			} catch (IOException e) {
+				logger.debug("Error writing (static file) response: {}", e.getMessage());
+				Closeables.closeQuietly(channel);
+			} finally {
+				Closeables.closeQuietly(file);
+			}
+		}
+
+		@Override
+		public ByteBufferPool getBufferPool() {
+			return null;
+		}
+
+		@Override
+		public void release(ByteBuffer... pooled) {
+			throw new UnsupportedOperationException("Not pooled");
+		}
+
+		@Override
+		public void execute(Runnable task) {
+			task.run();	// writes are synchronized
+		}
+
+		@Override
+		public void responseDone(HttpResponse response, boolean keepAlive) {
+			this.keepAlive = keepAlive;
+			responseDone.release();
+		}
+
+	}
+
+}
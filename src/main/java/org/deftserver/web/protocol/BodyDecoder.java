@@ -0,0 +1,85 @@
+package org.deftserver.web.protocol;
+
+import java.nio.ByteBuffer;
+
+import org.deftserver.web.HttpException;
+
+/**
+ * Decodes the body of a request as its bytes arrive, as specified by the request's "Transfer-Encoding" and 
+ * "Content-Length" headers (RFC 2616 4.4). Resumable, i.e. a body may be split over any number of reads.
+ */
+abstract class BodyDecoder {
+
+	/**
+	 * Receives the decoded body, chunk by chunk.
+	 */
+	interface Sink {
+		
+		/**
+		 * @param chunk The next part of the body. Only valid during the invocation (it's typically a view of the 
+		 * connection's read buffer).
+		 */
+		void onChunk(ByteBuffer chunk);
+		
+	}
+
+	/**
+	 * @return A decoder for the body of the given request, or null if the request has no body.
+	 * @throws HttpException (400) If the framing headers are malformed.
+	 */
+	static BodyDecoder forRequest(HttpRequest request) {
+		String transferEncoding = request.getHeader("Transfer-Encoding");
+		if (transferEncoding != null && !"identity".equalsIgnoreCase(transferEncoding.trim())) {
+			if (!transferEncoding.toLowerCase().trim().endsWith("chunked")) {
+				throw new HttpException(400, "Unsupported transfer encoding: " + transferEncoding);
+			}
+			return new ChunkedBodyDecoder();
+		}
+		String contentLength = request.getHeader("Content-Length");
+		if (contentLength == null) {
+			return null;
+		}
+		long length;
+		try {
+			length = Long.parseLong(contentLength.trim());
+		} catch (NumberFormatException e) {
+			throw new HttpException(400, "Malformed Content-Length: " + contentLength);
+		}
+		if (length < 0) {
+			throw new HttpException(400, "Malformed Content-Length: " + contentLength);
+		}
+		return length == 0 ? null : new FixedLengthBodyDecoder(length);
+	}
+
+	/**
+	 * Consumes bytes from the given buffer and hands the body part of them to the sink. Bytes following the end of 
+	 * the body (i.e. the next request) are left in the buffer.
+	 * 
+	 * @return true if the body is complete.
+	 * @throws HttpException If the body is malformed.
+	 */
+	abstract boolean decode(ByteBuffer buffer, Sink sink);
+
+	/**
+	 * @return The length of the body if known in advance, -1 otherwise.
+	 */
+	abstract long getContentLength();
+	
+	/**
+	 * Hands (at most) the next {@code length} bytes of the buffer to the sink.
+	 * 
+	 * @return The number of bytes passed on
+	 */
+	static int transfer(ByteBuffer buffer, long length, Sink sink) {
+		int n = (int) Math.min(buffer.remaining(), length);
+		if (n > 0) {
+			int limit = buffer.limit();
+			buffer.limit(buffer.position() + n);
+			ByteBuffer chunk = buffer.slice();
+			buffer.position(buffer.limit()).limit(limit);
+			sink.onChunk(chunk);
+		}
+		return n;
+	}
+
+}
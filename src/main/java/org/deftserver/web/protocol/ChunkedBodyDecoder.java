@@ -0,0 +1,131 @@
+package org.deftserver.web.protocol;
+
+import java.nio.ByteBuffer;
+
+import org.deftserver.web.HttpException;
+
+/**
+ * Decodes a body sent with "Transfer-Encoding: chunked" (RFC 2616 3.6.1). Chunk extensions and trailers are 
+ * ignored.
+ */
+class ChunkedBodyDecoder extends BodyDecoder {
+
+	/** Max length of a chunk size line or a trailer line */
+	private static final int MAX_LINE_LENGTH = 4096;
+
+	private enum State {
+		SIZE,
+		EXTENSION,
+		SIZE_LF,
+		DATA,
+		DATA_CR,
+		DATA_LF,
+		TRAILER,
+		TRAILER_LF
+	}
+
+	private State state = State.SIZE;
+	private long chunkSize = 0;
+	private int digits = 0;
+	private int lineLength = 0;
+	
+	@Override
+	@SuppressWarnings("fallthrough")
+	boolean decode(ByteBuffer buffer, Sink sink) {
+		while (buffer.hasRemaining()) {
+			if (state == State.DATA) {
+				chunkSize -= transfer(buffer, chunkSize, sink);
+				if (chunkSize == 0) {
+					state = State.DATA_CR;
+				}
+				continue;
+			}
+			byte b = buffer.get();
+			if (++lineLength > MAX_LINE_LENGTH) {
+				throw new HttpException(400, "Chunk line too long");
+			}
+			switch (state) {
+			case SIZE:
+				int digit = Character.digit(b, 16);
+				if (digit >= 0) {
+					if (++digits > 15) {
+						throw new HttpException(400, "Chunk size too large");
+					}
+					chunkSize = chunkSize << 4 | digit;
+					break;
+				} else if (digits == 0) {
+					throw new HttpException(400, "Malformed chunk size");
+				}
+				state = State.EXTENSION;
+				// fall through
+			case EXTENSION:
+				if (b == '\r') {
+					state = State.SIZE_LF;
+				} else if (b == '\n') {
+					endOfSizeLine();
+				}
+				break;
+			case SIZE_LF:
+				expectLF(b);
+				endOfSizeLine();
+				break;
+			case DATA_CR:
+				if (b == '\r') {
+					state = State.DATA_LF;
+					break;
+				}
+				// fall through, a bare LF
+			case DATA_LF:
+				expectLF(b);
+				lineLength = 0;
+				state = State.SIZE;
+				break;
+			case TRAILER:
+				if (b == '\r') {
+					state = State.TRAILER_LF;
+				} else if (b == '\n') {
+					if (endOfTrailerLine(1)) {
+						return true;
+					}
+				}
+				break;
+			case TRAILER_LF:
+				expectLF(b);
+				if (endOfTrailerLine(2)) {
+					return true;
+				}
+				state = State.TRAILER;
+				break;
+			}
+		}
+		return false;
+	}
+	
+	private void expectLF(byte b) {
+		if (b != '\n') {
+			throw new HttpException(400, "Malformed chunk");
+		}
+	}
+	
+	private void endOfSizeLine() {
+		state = chunkSize == 0 ? State.TRAILER : State.DATA;
+		digits = 0;
+		lineLength = 0;
+	}
+	
+	/**
+	 * @param emptyLength The length of an empty line given the line terminator seen (CRLF or a bare LF)
+	 * @return true if the (just terminated) trailer line was empty, i.e. the body is complete
+	 */
+	private boolean endOfTrailerLine(int emptyLength) {
+		boolean last = lineLength == emptyLength;
+		lineLength = 0;
+		return last;
+	}
+
+	@Override
+	long getContentLength() {
+		return -1;
+	}
+
+}
@@ -0,0 +1,42 @@
+package org.deftserver.web.protocol;
+
+import org.deftserver.util.DateUtil;
+
+import com.google.common.base.Charsets;
+
+/**
+ * The (encoded) "Date" response header line. The date has a resolution of one second, hence the line is formatted
+ * and encoded (at most) once per second instead of once per response. Whichever thread first asks for the line in a
+ * new second refreshes it, i.e. the line never depends on a particular {@link org.deftserver.ioloop.IOLoop} running.
+ */
+class DateHeader {
+
+	/** The line and the second (since the epoch) it was created in, replaced together */
+	private static class Line {
+		
+		final byte[] bytes;
+		final long second;
+		
+		Line(long now) {
+			bytes = ("Date: " + DateUtil.getCurrentAsString() + "\r\n").getBytes(Charsets.US_ASCII);
+			second = now / 1000;
+		}
+		
+	}
+	
+	private static volatile Line current = new Line(System.currentTimeMillis());
+	
+	/**
+	 * @return The current "Date" header line, e.g. "Date: Sun, 06 Nov 1994 08:49:37 GMT\r\n". Must not be modified.
+	 */
+	static byte[] get() {
+		Line line = current;
+		long now = System.currentTimeMillis();
+		if (now / 1000 != line.second) {
+			// concurrent refreshes are harmless, all of them create the same line
+			line = current = new Line(now);
+		}
+		return line.bytes;
+	}
+	
+}
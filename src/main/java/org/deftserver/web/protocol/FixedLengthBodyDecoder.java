@@ -0,0 +1,29 @@
+package org.deftserver.web.protocol;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Decodes a body whose length is given by the "Content-Length" header.
+ */
+class FixedLengthBodyDecoder extends BodyDecoder {
+
+	private final long contentLength;
+	private long remaining;
+	
+	FixedLengthBodyDecoder(long contentLength) {
+		this.contentLength = contentLength;
+		remaining = contentLength;
+	}
+	
+	@Override
+	boolean decode(ByteBuffer buffer, Sink sink) {
+		remaining -= transfer(buffer, remaining, sink);
+		return remaining == 0;
+	}
+
+	@Override
+	long getContentLength() {
+		return contentLength;
+	}
+
+}
@@ -0,0 +1,288 @@
+package org.deftserver.web.protocol;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+import org.deftserver.buffer.ByteBufferPool;
+import org.deftserver.ioloop.EventHandler;
+import org.deftserver.ioloop.IOLoop;
+import org.deftserver.ioloop.Timeout;
+import org.deftserver.ioloop.WriteQueue;
+import org.deftserver.web.HttpException;
+import org.deftserver.web.handler.RequestHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.io.Closeables;
+
+/**
+ * Per connection state of a client channel. Attached to the channel's {@link SelectionKey} and owned by exactly 
+ * one {@link IOLoop}.
+ */
+class HttpConnection implements EventHandler, ResponseOutput {
+	
+	private final static Logger logger = LoggerFactory.getLogger(HttpConnection.class);
+
+	private final HttpProtocolImpl protocol;
+	private final IOLoop ioLoop;
+	private final SocketChannel channel;
+	private SelectionKey key;
+	private final HttpRequestParser requestParser = new HttpRequestParser();
+	
+	/** Closes this connection if idle, null unless the connection is persistent ("keep-alive") */
+	private Timeout keepAliveTimeout;
+	
+	/** 
+	 * The responses to the (pipelined) requests dispatched but not yet finished, in request order. Only the first 
+	 * one writes to the channel, the others hold back their output until they get to the front.  
+	 */
+	private final Deque<HttpResponse> responses = new ArrayDeque<HttpResponse>(2);
+	
+	/** Response output not yet accepted by the channel, drained on OP_WRITE readiness */
+	private final WriteQueue writeQueue = new WriteQueue();
+	
+	/** false once the last request on this connection is received ("Connection: close" or a malformed request) */
+	private boolean reading = true;
+	
+	/** true if this connection is closed as soon as the write queue is drained */
+	private boolean closeWhenFlushed = false;
+	
+	/** The body being received, null while waiting for a request head */
+	private RequestBody body;
+	
+	HttpConnection(HttpProtocolImpl protocol, IOLoop ioLoop, SocketChannel channel) {
+		this.protocol = protocol;
+		this.ioLoop = ioLoop;
+		this.channel = channel;
+	}
+	
+	/**
+	 * Invoked when the channel is registered with the loop's selector.
+	 */
+	void setKey(SelectionKey key) {
+		this.key = key;
+	}
+	
+	SocketChannel getChannel() {
+		return channel;
+	}
+	
+	IOLoop getIOLoop() {
+		return ioLoop;
+	}
+	
+	HttpRequestParser getRequestParser() {
+		return requestParser;
+	}
+	
+	Timeout getKeepAliveTimeout() {
+		return keepAliveTimeout;
+	}
+	
+	void setKeepAliveTimeout(Timeout keepAliveTimeout) {
+		this.keepAliveTimeout = keepAliveTimeout;
+	}
+
+	/**
+	 * @return The request whose body is being received, or null if no request is in progress.
+	 */
+	HttpRequest getRequest() {
+		return body != null ? body.getRequest() : null;
+	}
+	
+	RequestHandler getHandler() {
+		return body != null ? body.getHandler() : null;
+	}
+	
+	/**
+	 * Prepares for receiving the body of the given request. 
+	 * 
+	 * @param maxBodySize Max size of an aggregated (not streamed) body
+	 * @throws HttpException (413) If the announced body length exceeds maxBodySize
+	 */
+	void beginBody(HttpRequest request, RequestHandler handler, BodyDecoder bodyDecoder, int maxBodySize) {
+		body = new RequestBody(request, handler, bodyDecoder, maxBodySize);
+	}
+	
+	/**
+	 * Consumes (the next part of) the body of the current request from the given buffer. 
+	 * 
+	 * @return true if the body is complete, in which case the request can be dispatched. (If the body was 
+	 * aggregated it's set on the request.)
+	 */
+	boolean decodeBody(ByteBuffer buffer) {
+		return body.decode(buffer);
+	}
+	
+	/**
+	 * Discards the state of the current request (invoked when the request has been dispatched or failed).
+	 */
+	void endRequest() {
+		body = null;
+	}
+	
+	/**
+	 * Appends a response to the queue of responses to dispatched requests.
+	 */
+	void addResponse(HttpResponse response) {
+		responses.addLast(response);
+	}
+	
+	/**
+	 * @return true if a response to a preceding request is not yet finished
+	 */
+	boolean hasPendingResponses() {
+		return !responses.isEmpty();
+	}
+	
+	@Override
+	public boolean isOpen() {
+		return channel.isOpen();
+	}
+	
+	/**
+	 * @return true if the given response is the first unfinished response, i.e. it may write to the channel.
+	 */
+	@Override
+	public boolean isCurrentResponse(HttpResponse response) {
+		return responses.peekFirst() == response;
+	}
+	
+	/**
+	 * Invoked when the current response is finished. Lets the next response (if any) write its output.
+	 * 
+	 * @param keepAlive false if this connection should be closed once the response is written
+	 */
+	@Override
+	public void responseDone(HttpResponse response, boolean keepAlive) {
+		if (responses.peekFirst() == response) {
+			responses.removeFirst();
+			if (!keepAlive) {
+				closeWhenFlushed = true;
+				stopReading();
+			}
+			HttpResponse next = responses.peekFirst();
+			if (next != null) {
+				next.unblock();
+			}
+		}
+		if (writeQueue.isEmpty()) {
+			onDrained();
+		}
+	}
+	
+	/**
+	 * Enqueues the given output and writes as much of it as the channel accepts right away.
+	 */
+	@Override
+	public void write(ByteBuffer... output) {
+		writeQueue.add(output);
+		flush();
+	}
+	
+	/**
+	 * Enqueues (a region of) a file, the file is closed when transferred.
+	 */
+	@Override
+	public void write(FileChannel file, long position, long count) {
+		writeQueue.add(file, position, count);
+		flush();
+	}
+	
+	/**
+	 * @return The buffer pool of the I/O loop owning this connection if invoked on it, otherwise null
+	 */
+	@Override
+	public ByteBufferPool getBufferPool() {
+		return ioLoop.isInLoopThread() ? ioLoop.getBufferPool() : null;
+	}
+	
+	/**
+	 * Releases the given buffers to the loop's pool once the write queue is drained up to them (or cleared).
+	 */
+	@Override
+	public void release(ByteBuffer... pooled) {
+		writeQueue.release(ioLoop.getBufferPool(), pooled);
+	}
+	
+	/**
+	 * Runs the given task on the I/O loop owning this connection (right away if invoked on it).
+	 */
+	@Override
+	public void execute(Runnable task) {
+		if (ioLoop.isInLoopThread()) {
+			task.run();
+		} else {
+			ioLoop.addCallback(task);
+		}
+	}
+	
+	/**
+	 * Writes the queued output until the channel's send buffer is full. Invoked on OP_WRITE readiness.
+	 */
+	void flush() {
+		if (!channel.isOpen()) {
+			writeQueue.clear();
+			return;
+		}
+		try {
+			if (writeQueue.writeTo(channel)) {
+				onDrained();
+			}
+		} catch (IOException e) {
+			logger.warn("Error writing response: {}", e.getMessage());
+			close();
+			return;
+		}
+		updateInterestOps();
+	}
+	
+	/**
+	 * Invoked when all output enqueued so far is written. Closes this connection or, if it has become idle, 
+	 * schedules the closing of the idle persistent connection. 
+	 */
+	private void onDrained() {
+		if (closeWhenFlushed) {
+			close();
+		} else if (responses.isEmpty() && body == null) {
+			protocol.armKeepAliveTimeout(this);
+		}
+	}
+	
+	/**
+	 * Stops reading (requests) from this connection.
+	 */
+	void stopReading() {
+		reading = false;
+		updateInterestOps();
+	}
+	
+	private void updateInterestOps() {
+		if (key != null && key.isValid()) {
+			int ops = (reading ? SelectionKey.OP_READ : 0) | (writeQueue.isEmpty() ? 0 : SelectionKey.OP_WRITE);
+			if (key.interestOps() != ops) {
+				key.interestOps(ops);
+			}
+		}
+	}
+	
+	/**
+	 * Closes this connection, discarding any output not yet written. 
+	 */
+	void close() {
+		protocol.disarmKeepAliveTimeout(this);
+		writeQueue.clear();
+		Closeables.closeQuietly(channel);
+	}
+	
+	@Override
+	public void handleEvents(SelectionKey key) {
+		protocol.handleEvents(key);
+	}
+	
+}
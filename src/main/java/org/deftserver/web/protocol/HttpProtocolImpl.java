@@ -6,41 +6,57 @@ import java.nio.ByteBuffer;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
-import java.util.HashMap;
-import java.util.Iterator;
-import java.util.Map;
-import java.util.Map.Entry;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.management.MBeanServer;
 import javax.management.ObjectName;
 
+import org.deftserver.buffer.ByteBufferPool;
+import org.deftserver.ioloop.EventHandler;
+import org.deftserver.ioloop.IOLoop;
+import org.deftserver.ioloop.IOLoopGroup;
+import org.deftserver.ioloop.Timeout;
 import org.deftserver.web.Application;
+import org.deftserver.web.HttpException;
+import org.deftserver.web.HttpVerb;
 import org.deftserver.web.handler.RequestHandler;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.base.Charsets;
 import com.google.common.io.Closeables;
 
-public class HttpProtocolImpl implements HttpProtocol, HttpProtocolImplMXBean {
+public class HttpProtocolImpl implements HttpProtocol, HttpProtocolImplMXBean, EventHandler {
 	
 	private final static Logger logger = LoggerFactory.getLogger(HttpProtocolImpl.class);
 
 	/** The number of seconds Deft will wait for a subsequent request before closing the connection */
-	private final static long KEEP_ALIVE_TIMEOUT = 30 * 1000;	// 30s 
+	final static long KEEP_ALIVE_TIMEOUT = 30 * 1000;	// 30s 
 	
-	/** All {@link SocketChannel} connections where request header "Connection: Close" is missing. 
+	/** Interim response to a request with an "Expect: 100-continue" header */
+	final static byte[] CONTINUE = "HTTP/1.1 100 Continue\r\n\r\n".getBytes(Charsets.US_ASCII);
+	
+	/** The number of connections where request header "Connection: Close" is missing. 
 	 * ("In HTTP 1.1 all connections are considered persistent, unless declared otherwise")
-	 * The value associated with each {@link SocketChannel} is the connection expiration time in ms.
+	 * Each such connection holds a {@link Timeout} (scheduled on its own {@link IOLoop}) that closes it when expired.
 	 */
-	private final Map<SocketChannel, Long> persistentConnections = new HashMap<SocketChannel, Long>();
+	private final AtomicInteger persistentConnections = new AtomicInteger();
 	
 	private final int readBufferSize;
 
 	private final Application application;
 	
-	public HttpProtocolImpl(Application app) {
+	/** The loop accepting new connections */
+	private final IOLoop ioLoop;
+	
+	/** The loops that accepted connections are distributed over, null if all connections are owned by ioLoop */
+	private final IOLoopGroup ioLoopGroup;
+	
+	public HttpProtocolImpl(Application app, IOLoop ioLoop, IOLoopGroup ioLoopGroup) {
 		application = app;
 		readBufferSize = app.getReadBufferSize();
+		this.ioLoop = ioLoop;
+		this.ioLoopGroup = ioLoopGroup;
 		registerMXBean();
 	}
 	
@@ -56,24 +72,141 @@ public class HttpProtocolImpl implements HttpProtocol, HttpProtocolImplMXBean {
         }
 	}
 	
+	@Override
+	public void handleEvents(SelectionKey key) {
+		try {
+			if (key.isAcceptable()) {
+				handleAccept(key);
+				return;
+			}
+			if (key.isWritable()) {
+				handleWrite(key);
+			}
+			if (key.isValid() && key.isReadable()) {
+				handleRead(key);
+			}
+		} catch (IOException e) {
+			logger.warn("Error handling events on {}: {}", key.channel(), e.getMessage());
+			Closeables.closeQuietly(key.channel());
+		}
+	}
+	
 	@Override
 	public void handleAccept(SelectionKey key) throws IOException {
-		SocketChannel clientChannel = ((ServerSocketChannel) key.channel()).accept();
+		final SocketChannel clientChannel = ((ServerSocketChannel) key.channel()).accept();
+		if (clientChannel == null) {
+			return;
+		}
 		clientChannel.configureBlocking(false);
-		clientChannel.register(key.selector(), SelectionKey.OP_READ, ByteBuffer.allocate(readBufferSize));
+		final IOLoop owner = ioLoopGroup != null ? ioLoopGroup.next() : ioLoop;
+		owner.addCallback(new Runnable() {
+			@Override
+			public void run() {
+				HttpConnection connection = new HttpConnection(HttpProtocolImpl.this, owner, clientChannel);
+				connection.setKey(owner.addHandler(clientChannel, connection, SelectionKey.OP_READ));
+			}
+		});
+	}
+	
+	@Override
+	public void handleWrite(SelectionKey key) {
+		((HttpConnection) key.attachment()).flush();
 	}
 
+	/**
+	 * Reads into a buffer borrowed from the loop's pool for the duration of this invocation only. Every byte read is 
+	 * consumed (copied) by the request parser or body decoder, i.e. an idle connection holds no read buffer.
+	 */
 	@Override
 	public void handleRead(SelectionKey key) throws IOException {
 		SocketChannel clientChannel = (SocketChannel) key.channel();
-		HttpRequest request = getHttpRequest(key, clientChannel);
-		
+		HttpConnection connection = (HttpConnection) key.attachment();
+		ByteBufferPool pool = connection.getIOLoop().getBufferPool();
+		ByteBuffer buffer = pool.acquire(readBufferSize);
+		try {
+			try {
+				if (clientChannel.read(buffer) < 0) {
+					connection.close();
+					return;
+				}
+			} catch (IOException e) {
+				logger.warn("Could not read buffer: {}", e.getMessage());
+				connection.close();
+				return;
+			}
+			buffer.flip();
+			// a read may contain several (pipelined) requests 
+			while (buffer.hasRemaining()) {
+				HttpRequest request = handleInput(connection, buffer);
+				if (request != null && !request.isKeepAlive()) {
+					// last request on this connection, which is closed as soon as the response is written
+					connection.stopReading();
+					break;
+				}
+			}
+		} catch (HttpException e) {
+			// malformed request (or too large body), respond (after the responses to preceding requests) and close
+			connection.endRequest();
+			disarmKeepAliveTimeout(connection);
+			connection.stopReading();
+			HttpResponse response = new HttpResponse(connection, false);
+			connection.addResponse(response);
+			response.setStatusCode(e.getStatusCode());
+			response.write(e.getMessage());
+			response.finish();
+		} finally {
+			pool.release(buffer);
+		}
+	}
+	
+	/**
+	 * Feeds the bytes read to the request parser or, if a request head is already parsed, to the body decoder of the
+	 * request in progress. The request is dispatched once its body (if any) is complete. 
+	 * 
+	 * @return The request dispatched, or null if no request was completed by the bytes consumed.
+	 */
+	private HttpRequest handleInput(HttpConnection connection, ByteBuffer buffer) throws IOException {
+		HttpRequest request = connection.getRequest();
+		if (request == null) {
+			request = connection.getRequestParser().parse(buffer);
+			if (request == null) {
+				return null;	// the request head is not yet complete (the parser keeps its state until the next read)
+			}
+			RequestHandler rh = application.getHandler(request);
+			BodyDecoder bodyDecoder = BodyDecoder.forRequest(request);
+			if (bodyDecoder == null) {
+				dispatch(connection, request, rh);
+				return request;
+			}
+			connection.beginBody(request, rh, bodyDecoder, application.getMaxRequestBodySize());
+			if (HttpRequestParser.HTTP_1_1.equals(request.getVersion()) && !connection.hasPendingResponses() &&
+					"100-continue".equalsIgnoreCase(request.getHeader("Expect"))) {
+				connection.write(ByteBuffer.wrap(CONTINUE));
+			}
+		}
+		// a (possibly long running) upload should not be closed as an idle connection 
 		if (request.isKeepAlive()) {
-			persistentConnections.put(clientChannel, System.currentTimeMillis() + KEEP_ALIVE_TIMEOUT);
+			armKeepAliveTimeout(connection);
+		}
+		if (connection.decodeBody(buffer)) {
+			RequestHandler rh = connection.getHandler();
+			connection.endRequest();
+			dispatch(connection, request, rh);
+			return request;
+		}
+		return null;
+	}
+	
+	private void dispatch(HttpConnection connection, HttpRequest request, RequestHandler rh) {
+		// the connection is busy until the response is written (the keep-alive timeout is armed when it's idle again)
+		disarmKeepAliveTimeout(connection);
+		HttpResponse response = new HttpResponse(connection, request.isKeepAlive());
+		connection.addResponse(response);
+		HttpVerb method = request.getMethod();
+		if (rh.isMethodBlocking(method) || application.isVirtualThreads() && !rh.isMethodAsynchronous(method)) {
+			HttpRequestDispatcher.dispatchBlocking(application, connection.getIOLoop(), rh, request, response);
+			return;
 		}
-		
-		HttpResponse response = new HttpResponse(clientChannel, request.isKeepAlive());
-		RequestHandler rh = application.getHandler(request);
 		HttpRequestDispatcher.dispatch(rh, request, response);
 		
 		//Only close if not async. In that case its up to RH to close it
@@ -82,35 +215,41 @@ public class HttpProtocolImpl implements HttpProtocol, HttpProtocolImplMXBean {
 		}
 	}
 	
-	private HttpRequest getHttpRequest(SelectionKey key, SocketChannel clientChannel) {
-		ByteBuffer buffer = (ByteBuffer) key.attachment();
-		try {
-			clientChannel.read(buffer);
-		} catch (IOException e) {
-			logger.warn("Could not read buffer: {}", e.getMessage());
-			Closeables.closeQuietly(clientChannel);
+	/**
+	 * (Re)schedules the closing of an idle persistent connection. Both cancel and insert are O(1). 
+	 */
+	void armKeepAliveTimeout(final HttpConnection connection) {
+		Timeout previous = connection.getKeepAliveTimeout();
+		if (previous != null) {
+			previous.cancel();
+		} else {
+			persistentConnections.incrementAndGet();
 		}
-		buffer.clear();	// reuse the read buffer, (hint: "Connection: Keep-Alive" header)
-		return HttpRequest.of(buffer);
+		Timeout timeout = connection.getIOLoop().addTimeout(System.currentTimeMillis() + KEEP_ALIVE_TIMEOUT,
+				new Runnable() {
+					@Override
+					public void run() {
+						logger.debug("Closing expired keep-alive connection");
+						connection.setKeepAliveTimeout(null);
+						persistentConnections.decrementAndGet();
+						connection.close();
+					}
+				});
+		connection.setKeepAliveTimeout(timeout);
 	}
 	
-	public void handleCallback() {
-		long now = System.currentTimeMillis();
-		Iterator<Entry<SocketChannel, Long>> iter = persistentConnections.entrySet().iterator();
-		while (iter.hasNext()) {
-			Entry<SocketChannel, Long> candidate = iter.next();
-			long expires = candidate.getValue();
-			if (now >= expires) {
-				logger.debug("Closing expired keep-alive connection");
-				Closeables.closeQuietly(candidate.getKey());
-				iter.remove();
-			}
+	void disarmKeepAliveTimeout(HttpConnection connection) {
+		Timeout timeout = connection.getKeepAliveTimeout();
+		if (timeout != null) {
+			timeout.cancel();
+			connection.setKeepAliveTimeout(null);
+			persistentConnections.decrementAndGet();
 		}
 	}
 
 	@Override
 	public int getPersistentConnections() {
-		return persistentConnections.size();
+		return persistentConnections.get();
 	}
 
 }
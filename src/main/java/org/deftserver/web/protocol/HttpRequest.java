@@ -4,26 +4,28 @@ import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
 
-import org.deftserver.util.ArrayUtil;
+import org.deftserver.web.HttpException;
 import org.deftserver.web.HttpVerb;
 
-import com.google.common.collect.ImmutableMultimap;
-
 public class HttpRequest {
 
 	private final static Charset CHAR_SET = Charset.forName("US-ASCII");
 
-	private final String requestLine;
+	private String requestLine;	// created lazily when the request was parsed by HttpRequestParser
 	private final HttpVerb method;
 	private final String requestedPath;	// correct name?
 	private final String version; 
-	private Map<String, String> headers;
-	private ImmutableMultimap<String, String> parameters;
+	private final RequestHeaders headers;
+	private RequestParameters parameters;	// parsed on first access
 	private String body;
 	private boolean keepAlive;
+	private String[] pathParameterNames = NO_PATH_PARAMETERS;	// set when the request is routed
+	private String[] pathParameterValues = NO_PATH_PARAMETERS;
+
+	private static final String[] NO_PATH_PARAMETERS = {};
 
 	
 	public HttpRequest(String requestLine, Map<String, String> headers) {
@@ -32,10 +34,9 @@ public class HttpRequest {
 		method = HttpVerb.valueOf(elements[0]);
 		requestedPath = elements[1];
 		version = elements[2];
-		this.headers = headers;	
+		this.headers = RequestHeaders.of(headers);	
 		body = null;
 		initKeepAlive();
-		parameters = parseParameters(requestedPath);
 	}
 	
 	public HttpRequest(String requestLine, Map<String, String> headers, String body) {
@@ -43,28 +44,54 @@ public class HttpRequest {
 		this.body = body;
 	}
 	
+	/**
+	 * Used by {@link HttpRequestParser}
+	 */
+	HttpRequest(HttpVerb method, String requestedPath, String version, RequestHeaders headers) {
+		this.requestLine = null;
+		this.method = method;
+		this.requestedPath = requestedPath;
+		this.version = version;
+		this.headers = headers;
+		body = null;
+		initKeepAlive();
+	}
+	
+	/**
+	 * Parses a complete request (head and body) from the given buffer. The buffer itself is left untouched.
+	 * 
+	 * @throws HttpException If the buffer does not contain a complete and well formed request head.
+	 */
 	public static HttpRequest of(ByteBuffer buffer) {
-		String raw = new String(buffer.array(), CHAR_SET);
-		String[] headersAndBody = raw.split("\\r\\n\\r\\n"); //TODO fix a better regexp for this
-		String[] headerFields = headersAndBody[0].split("\\r\\n");
-		headerFields = ArrayUtil.dropFromEndWhile(headerFields, "");
-		
-		String requestLine = headerFields[0];
-		Map<String, String> generalHeaders = new HashMap<String, String>();
-		for (int i = 1; i < headerFields.length; i++) {
-			String[] header = headerFields[i].split(": ");
-			generalHeaders.put(header[0], header[1]);
-		}
-		
-		String body = "";
-		for (int i=1; i<headersAndBody.length; ++i) { //First entry contains headers
-			body += headersAndBody[i];
+		ByteBuffer raw = buffer.duplicate();
+		HttpRequest request = new HttpRequestParser(raw.remaining()).parse(raw);
+		if (request == null) {
+			throw new HttpException(400, "Incomplete request");
 		}
-		
-		return new HttpRequest(requestLine, generalHeaders, body);
+		request.setBody(raw);
+		return request;
+	}
+	
+	/**
+	 * Sets the body of this request to the remaining bytes of the given buffer.
+	 */
+	void setBody(ByteBuffer buffer) {
+		byte[] bytes = new byte[buffer.remaining()];
+		buffer.get(bytes);
+		setBody(bytes, bytes.length);
+	}
+	
+	/**
+	 * Sets the body of this request to the first length bytes of the given array (an aggregated request body).
+	 */
+	void setBody(byte[] bytes, int length) {
+		body = new String(bytes, 0, length, CHAR_SET);
 	}
 
 	public String getRequestLine() {
+		if (requestLine == null) {
+			requestLine = method + " " + requestedPath + " " + version;
+		}
 		return requestLine;
 	}
 	
@@ -76,10 +103,16 @@ public class HttpRequest {
 		return version;
 	}
 	
+	/**
+	 * @return All headers of this request. Prefer {@link #getHeader(String)}, this method decodes every header.
+	 */
 	public Map<String, String> getHeaders() {
-		return Collections.unmodifiableMap(headers);
+		return headers.asMap();
 	}
 	
+	/**
+	 * Returns the value of the header with the given name (case insensitive), or null if the header does not exist.
+	 */
 	public String getHeader(String name) {
 		return headers.get(name);
 	}
@@ -97,12 +130,14 @@ public class HttpRequest {
      * the array returned by getParameterValues. 
 	 */
 	public String getParameter(String name) {
-		Collection<String> values = parameters.get(name);		
-		return values.isEmpty() ? null : values.iterator().next();
+		return parameters().get(name);
 	}
 	
+	/**
+	 * @return All parameters (unmodifiable).
+	 */
 	public Map<String, Collection<String>> getParameters() {
-		return parameters.asMap();
+		return parameters().asMap();
 	}	
 	
 	public String getBody() {
@@ -114,7 +149,72 @@ public class HttpRequest {
 	 * If no values are found and empty collection is returned.
 	 */
 	public Collection<String> getParameterValues(String name) {
-		return parameters.get(name);
+		return parameters().getAll(name);
+	}
+	
+	/**
+	 * Returns the value of the path parameter with the given name (e.g. "42" for the route "/persons/{id}" and the
+	 * path "/persons/42"), or null if there is none.
+	 */
+	public String getPathParameter(String name) {
+		for (int i = 0; i < pathParameterNames.length; i++) {
+			if (name.equals(pathParameterNames[i])) {
+				return pathParameterValues[i];
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Returns the value of the path parameter at the given index, in the order the parameters appear in the route.
+	 * Unnamed parameters (e.g. "([0-9]+)") are only accessible by index.
+	 *
+	 * @throws IndexOutOfBoundsException If the route has less than index + 1 parameters
+	 */
+	public String getPathParameter(int index) {
+		if (index < 0 || index >= pathParameterValues.length) {
+			throw new IndexOutOfBoundsException("Index: " + index + " path parameters: " + pathParameterValues.length);
+		}
+		return pathParameterValues[index];
+	}
+
+	/**
+	 * @return The named path parameters, in the order they appear in the route (unmodifiable).
+	 */
+	public Map<String, String> getPathParameters() {
+		Map<String, String> result = new LinkedHashMap<String, String>();
+		for (int i = 0; i < pathParameterNames.length; i++) {
+			if (pathParameterNames[i] != null) {
+				result.put(pathParameterNames[i], pathParameterValues[i]);
+			}
+		}
+		return Collections.unmodifiableMap(result);
+	}
+
+	/**
+	 * Sets the path parameters captured when the request was routed (by {@link org.deftserver.web.Application}).
+	 *
+	 * @param names The parameter names (null for unnamed parameters), shared by all requests of a route
+	 * @param values The parameter values
+	 */
+	public void setPathParameters(String[] names, String[] values) {
+		this.pathParameterNames = names;
+		this.pathParameterValues = values;
+	}
+
+	/**
+	 * @return The requested path without its query string
+	 */
+	public String getPath() {
+		int index = requestedPath.indexOf('?');
+		return index < 0 ? requestedPath : requestedPath.substring(0, index);
+	}
+
+	private RequestParameters parameters() {
+		if (parameters == null) {
+			parameters = RequestParameters.parse(requestedPath);
+		}
+		return parameters;
 	}
 	
 	public boolean isKeepAlive() {
@@ -128,46 +228,24 @@ public class HttpRequest {
 		result += "PATH: " + requestedPath + "\n";
 		
 		result += "--- HEADER --- \n";
-		for (String key : headers.keySet()) {
-			String value = headers.get(key);
-			result += key + ":" + value + "\n";
+		for (Map.Entry<String, String> header : getHeaders().entrySet()) {
+			result += header.getKey() + ":" + header.getValue() + "\n";
 		}
 		
 		result += "--- PARAMETERS --- \n";
-		for (String key : parameters.keySet()) {
-			Collection<String> values = parameters.get(key);
-			for (String value : values) {
-				result += key + ":" + value + "\n";
+		for (Map.Entry<String, Collection<String>> parameter : getParameters().entrySet()) {
+			for (String value : parameter.getValue()) {
+				result += parameter.getKey() + ":" + value + "\n";
 			}
 		}
 		return result;
 	}
 	
-	private ImmutableMultimap<String, String> parseParameters(String requestLine) {
-		ImmutableMultimap.Builder<String, String> builder = ImmutableMultimap.builder();
-		String[] str = requestLine.split("\\?");
-		
-		//Parameters exist
-		if (str.length > 1) {
-			String[] paramArray = str[1].split("\\&|;"); //Delimiter is either & or ;
-			for (String keyValue : paramArray) {
-				String[] keyValueArray = keyValue.split("=");
-				
-				//We need to check if the parameter has a value associated with it.
-				if (keyValueArray.length > 1) {
-					builder.put(keyValueArray[0], keyValueArray[1]); //name, value
-				}
-			}
-		}
-		return builder.build();
-	}
-	
-	
 	private void initKeepAlive() {
 		String connection = getHeader("Connection");
 		if ("keep-alive".equalsIgnoreCase(connection)) { 
 			keepAlive = true;
-		} else if ("close".equalsIgnoreCase(connection) || requestLine.contains("1.0")) {
+		} else if ("close".equalsIgnoreCase(connection) || HttpRequestParser.HTTP_1_0.equals(version)) {
 			keepAlive = false;
 		} else {
 			keepAlive = true;
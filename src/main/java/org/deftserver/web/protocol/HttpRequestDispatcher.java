@@ -1,5 +1,10 @@
 package org.deftserver.web.protocol;
 
+import java.util.concurrent.RejectedExecutionException;
+
+import org.deftserver.ioloop.IOLoop;
+import org.deftserver.web.Application;
+import org.deftserver.web.Blocking;
 import org.deftserver.web.HttpException;
 import org.deftserver.web.HttpVerb;
 import org.deftserver.web.handler.RequestHandler;
@@ -46,4 +51,47 @@ public class HttpRequestDispatcher {
 			}
 		}
 	}
+
+	/**
+	 * Invokes the handler for a method annotated with {@link Blocking} (or any method in virtual thread mode) on the 
+	 * application's blocking executor, and finishes the response on the I/O loop once the handler returns (and its 
+	 * slot in the executor is freed). If the executor rejects the request, the response (a 503) is finished right 
+	 * away (on the calling I/O loop thread). If the handler fails, the response is a 500 unless its head is already 
+	 * flushed, in which case the connection is closed once the output flushed is written.
+	 */
+	public static void dispatchBlocking(Application application, final IOLoop ioLoop, final RequestHandler rh, 
+			final HttpRequest request, final HttpResponse response) {
+		try {
+			application.executeBlocking(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						dispatch(rh, request, response);
+					} catch (RuntimeException e) {
+						logger.error("Error in blocking request handler", e);
+						if (response.isCommitted()) {
+							response.abort();	// a 500 can't follow the head already sent
+						} else {
+							response.reset();
+							response.setStatusCode(500);
+						}
+					}
+				}
+			}, new Runnable() {
+				@Override
+				public void run() {
+					ioLoop.addCallback(new Runnable() {
+						@Override
+						public void run() { response.finish(); }
+					});
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			logger.warn("Blocking request handler pool saturated, rejecting request for {}", request.getRequestedPath());
+			response.setStatusCode(503);
+			response.setHeader("Retry-After", "1");
+			response.finish();
+		}
+	}
+
 }
@@ -0,0 +1,373 @@
+package org.deftserver.web.protocol;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.deftserver.web.HttpException;
+import org.deftserver.web.HttpVerb;
+
+/**
+ * A resumable, byte level HTTP/1.x request head parser.
+ *
+ * Bytes are fed to {@link #parse(ByteBuffer)} as they arrive from the network, the parser keeps its state between
+ * invocations and hence handles request heads that are split over several reads (TCP segments). The bytes of the
+ * head are copied (a line at a time, i.e. never beyond the end of the head) into an internal array and the request 
+ * line and headers are recorded as offsets into that array.
+ *
+ * Not thread safe. One parser is used per connection and reused for subsequent requests.
+ */
+public class HttpRequestParser {
+
+	/** Max size of a request head (request line + headers) */
+	private static final int MAX_HEAD_SIZE = 64 * 1024;
+
+	private static final int DEFAULT_CAPACITY = 1024;
+	
+	private static final byte[] EMPTY = {};
+
+	private static final byte CR = '\r';
+	private static final byte LF = '\n';
+	private static final byte SP = ' ';
+	private static final byte HT = '\t';
+	private static final byte COLON = ':';
+
+	private static final byte[] GET = {'G', 'E', 'T'};
+	private static final byte[] PUT = {'P', 'U', 'T'};
+	private static final byte[] POST = {'P', 'O', 'S', 'T'};
+	private static final byte[] HEAD = {'H', 'E', 'A', 'D'};
+	private static final byte[] TRACE = {'T', 'R', 'A', 'C', 'E'};
+	private static final byte[] DELETE = {'D', 'E', 'L', 'E', 'T', 'E'};
+	private static final byte[] OPTIONS = {'O', 'P', 'T', 'I', 'O', 'N', 'S'};
+	private static final byte[] CONNECT = {'C', 'O', 'N', 'N', 'E', 'C', 'T'};
+
+	static final String HTTP_1_1 = "HTTP/1.1";
+	static final String HTTP_1_0 = "HTTP/1.0";
+	private static final byte[] HTTP_1_1_BYTES = {'H', 'T', 'T', 'P', '/', '1', '.', '1'};
+	private static final byte[] HTTP_1_0_BYTES = {'H', 'T', 'T', 'P', '/', '1', '.', '0'};
+
+	private enum State {
+		METHOD,
+		URI,
+		VERSION,
+		REQUEST_LINE_LF,
+		HEADER_START,
+		HEADER_NAME,
+		HEADER_VALUE_START,
+		HEADER_VALUE,
+		HEADER_LF,
+		HEAD_END_LF
+	}
+
+	private State state = State.METHOD;
+
+	/** 
+	 * The bytes of the request head consumed so far. Allocated when the first byte of a request arrives and handed 
+	 * over to the request when the head is complete, i.e. an idle parser holds no array.
+	 */
+	private byte[] head = EMPTY;
+	private int length = 0;
+	private final int initialCapacity;
+
+	/** Position in head of the next byte to examine (only up to date between invocations of scan) */
+	private int pos = 0;
+
+	/** Start of the token currently being parsed */
+	private int mark = 0;
+
+	private HttpVerb method;
+	private int uriStart, uriEnd;
+	private int versionStart, versionEnd;
+
+	/** Four entries per header: name start, name end, value start, value end */
+	private int[] headerOffsets = new int[4 * 16];
+	private int headerCount = 0;
+
+	public HttpRequestParser() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	public HttpRequestParser(int initialCapacity) {
+		this.initialCapacity = initialCapacity;
+	}
+
+	/**
+	 * Discards any partially parsed request. (Invoked automatically once a request head is complete.)
+	 */
+	public void reset() {
+		state = State.METHOD;
+		length = pos = mark = 0;
+		method = null;
+		headerCount = 0;
+	}
+
+	/**
+	 * Consumes bytes from the given buffer until either a complete request head has been parsed or the buffer is
+	 * exhausted.
+	 *
+	 * @param buffer A buffer ready to be read (flipped). On return its position is just after the last consumed byte,
+	 * i.e. any bytes following the request head (the body) are left in the buffer.
+	 * @return The request if the head is complete, otherwise null (more bytes needed).
+	 * @throws HttpException If the request is malformed (400) or uses an unknown method (501).
+	 */
+	public HttpRequest parse(ByteBuffer buffer) {
+		while (buffer.hasRemaining()) {
+			// copy a line at a time: the head ends with a line, i.e. no byte following it (e.g. a pipelined request) 
+			// is copied
+			int available = Math.min(lineLength(buffer), MAX_HEAD_SIZE - length);
+			ensureCapacity(length + available);
+			buffer.get(head, length, available);
+			length += available;
+
+			HttpRequest request = scan();
+			if (request != null) {
+				reset();
+				return request;
+			}
+			if (length >= MAX_HEAD_SIZE) {
+				throw new HttpException(400, "Request head too large");
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @return The number of remaining bytes in the buffer up to and including the next LF (all of them if there is 
+	 * none)
+	 */
+	private static int lineLength(ByteBuffer buffer) {
+		int start = buffer.position();
+		int limit = buffer.limit();
+		if (buffer.hasArray()) {
+			byte[] b = buffer.array();
+			int offset = buffer.arrayOffset();
+			for (int i = start; i < limit; i++) {
+				if (b[offset + i] == LF) {
+					return i + 1 - start;
+				}
+			}
+		} else {
+			for (int i = start; i < limit; i++) {
+				if (buffer.get(i) == LF) {
+					return i + 1 - start;
+				}
+			}
+		}
+		return limit - start;
+	}
+
+	/**
+	 * Scans the bytes in head[pos, length). Every state scans its token with a tight loop, i.e. the state is only 
+	 * dispatched once per token rather than once per byte.
+	 */
+	private HttpRequest scan() {
+		final byte[] b = head;
+		final int end = length;
+		int p = pos;
+		while (p < end) {
+			switch (state) {
+			case METHOD:
+				// ignore empty lines preceding the request line (RFC 2616 4.1)
+				while (p < end && p == mark && (b[p] == CR || b[p] == LF)) {
+					mark = ++p;
+				}
+				while (p < end && b[p] != SP) {
+					p++;
+				}
+				if (p == end) {
+					break;
+				}
+				method = parseMethod(b, mark, p);
+				mark = ++p;
+				state = State.URI;
+				break;
+			case URI:
+				while (p < end && b[p] != SP && b[p] != CR && b[p] != LF) {
+					p++;
+				}
+				if (p == end) {
+					break;
+				}
+				if (b[p] != SP) {
+					throw new HttpException(400, "Malformed request line");
+				} else if (p == mark) {
+					throw new HttpException(400, "Missing request URI");
+				}
+				uriStart = mark;
+				uriEnd = p;
+				mark = ++p;
+				state = State.VERSION;
+				break;
+			case VERSION:
+				while (p < end && b[p] != CR && b[p] != LF) {
+					p++;
+				}
+				if (p == end) {
+					break;
+				}
+				versionStart = mark;
+				versionEnd = p;
+				state = b[p++] == CR ? State.REQUEST_LINE_LF : State.HEADER_START;
+				break;
+			case REQUEST_LINE_LF:
+			case HEADER_LF:
+				if (b[p++] != LF) {
+					throw new HttpException(400, "Malformed line ending");
+				}
+				state = State.HEADER_START;
+				break;
+			case HEADER_START:
+				byte c = b[p];
+				if (c == CR) {
+					p++;
+					state = State.HEAD_END_LF;
+				} else if (c == LF) {
+					pos = p + 1;
+					return complete();
+				} else {
+					mark = p;
+					state = State.HEADER_NAME;
+				}
+				break;
+			case HEADER_NAME:
+				while (p < end && b[p] != COLON && b[p] != CR && b[p] != LF) {
+					p++;
+				}
+				if (p == end) {
+					break;
+				}
+				if (b[p] != COLON) {
+					throw new HttpException(400, "Malformed header");
+				}
+				addHeaderName(mark, p++);
+				state = State.HEADER_VALUE_START;
+				break;
+			case HEADER_VALUE_START:
+				while (p < end && (b[p] == SP || b[p] == HT)) {
+					p++;
+				}
+				if (p == end) {
+					break;
+				}
+				mark = p;
+				state = State.HEADER_VALUE;
+				break;
+			case HEADER_VALUE:
+				while (p < end && b[p] != CR && b[p] != LF) {
+					p++;
+				}
+				if (p == end) {
+					break;
+				}
+				int valueEnd = p;
+				while (valueEnd > mark && (b[valueEnd - 1] == SP || b[valueEnd - 1] == HT)) {
+					valueEnd--;
+				}
+				addHeaderValue(mark, valueEnd);
+				state = b[p++] == CR ? State.HEADER_LF : State.HEADER_START;
+				break;
+			case HEAD_END_LF:
+				if (b[p] != LF) {
+					throw new HttpException(400, "Malformed line ending");
+				}
+				pos = p + 1;
+				return complete();
+			}
+		}
+		pos = p;
+		return null;
+	}
+
+	private void ensureCapacity(int capacity) {
+		if (capacity > head.length) {
+			int newCapacity = Math.max(Math.max(capacity, head.length * 2), initialCapacity);
+			byte[] newHead = new byte[Math.min(newCapacity, MAX_HEAD_SIZE)];
+			System.arraycopy(head, 0, newHead, 0, length);
+			head = newHead;
+		}
+	}
+
+	private void addHeaderName(int start, int end) {
+		int i = 4 * headerCount;
+		if (i + 4 > headerOffsets.length) {
+			int[] newOffsets = new int[headerOffsets.length * 2];
+			System.arraycopy(headerOffsets, 0, newOffsets, 0, i);
+			headerOffsets = newOffsets;
+		}
+		headerOffsets[i] = start;
+		headerOffsets[i + 1] = end;
+	}
+
+	private void addHeaderValue(int start, int end) {
+		int i = 4 * headerCount;
+		headerOffsets[i + 2] = start;
+		headerOffsets[i + 3] = end;
+		headerCount++;
+	}
+
+	private HttpRequest complete() {
+		String path = asciiString(head, uriStart, uriEnd);
+		String version = parseVersion(head, versionStart, versionEnd);
+		// hand over the head array (no copy), the next request gets a new one once its first byte arrives
+		byte[] raw = head;
+		head = EMPTY;
+		RequestHeaders headers = new RequestHeaders(raw, Arrays.copyOf(headerOffsets, 4 * headerCount), headerCount);
+		return new HttpRequest(method, path, version, headers);
+	}
+
+	/**
+	 * @return true if the bytes b[start, end) equals the given bytes
+	 */
+	static boolean equals(byte[] b, int start, int end, byte[] expected) {
+		if (end - start != expected.length) {
+			return false;
+		}
+		for (int i = 0; i < expected.length; i++) {
+			if (b[start + i] != expected[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static HttpVerb parseMethod(byte[] b, int start, int end) {
+		switch (end - start) {
+		case 3:
+			if (equals(b, start, end, GET)) return HttpVerb.GET;
+			if (equals(b, start, end, PUT)) return HttpVerb.PUT;
+			break;
+		case 4:
+			if (equals(b, start, end, POST)) return HttpVerb.POST;
+			if (equals(b, start, end, HEAD)) return HttpVerb.HEAD;
+			break;
+		case 5:
+			if (equals(b, start, end, TRACE)) return HttpVerb.TRACE;
+			break;
+		case 6:
+			if (equals(b, start, end, DELETE)) return HttpVerb.DELETE;
+			break;
+		case 7:
+			if (equals(b, start, end, OPTIONS)) return HttpVerb.OPTIONS;
+			if (equals(b, start, end, CONNECT)) return HttpVerb.CONNECT;
+			break;
+		}
+		throw new HttpException(501, "Unknown method: " + asciiString(b, start, end));
+	}
+
+	private static String parseVersion(byte[] b, int start, int end) {
+		if (equals(b, start, end, HTTP_1_1_BYTES)) {
+			return HTTP_1_1;
+		} else if (equals(b, start, end, HTTP_1_0_BYTES)) {
+			return HTTP_1_0;
+		}
+		return asciiString(b, start, end);
+	}
+
+	static String asciiString(byte[] b, int start, int end) {
+		char[] chars = new char[end - start];
+		for (int i = 0; i < chars.length; i++) {
+			chars[i] = (char) (b[start + i] & 0xff);
+		}
+		return new String(chars);
+	}
+
+}
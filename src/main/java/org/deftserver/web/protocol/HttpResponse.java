@@ -4,24 +4,34 @@ import java.io.File;
 import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
-import org.deftserver.util.DateUtil;
+import org.deftserver.buffer.ByteBufferPool;
+import org.deftserver.buffer.CompositeByteBuffer;
 import org.deftserver.util.HttpUtil;
 import org.deftserver.web.handler.StaticContentHandler;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.google.common.base.Charsets;
 import com.google.common.io.Closeables;
 
 public class HttpResponse {
 	
 	private final static Logger logger = LoggerFactory.getLogger(HttpProtocolImpl.class);
 	
-	private final SocketChannel clientChannel;
+	/** Segment size of the buffer the head is encoded into, large enough for the head of a typical response */
+	private final static int HEAD_SEGMENT_SIZE = 512;
+	
+	/** Segment size of the body, the size class of a pooled buffer */
+	private final static int BODY_SEGMENT_SIZE = 4096;
+	
+	private final static ByteBuffer[] NO_BUFFERS = {};
 	
 	private /*<> AtomicInteger */ int statusCode = 200;	// default response status code
 	
@@ -29,23 +39,41 @@ public class HttpResponse {
 	//<> the CCHM used below 
 	//<> private final ConcurrentMap<String, String> headers = new ConcurrentHashMap<String, String>();
 	
+	/** Headers set by the handler ("Server", "Date" and "Connection" are added when the head is written) */
 	private final Map<String, String> headers = new HashMap<String, String>();
 	private boolean headersCreated = false;
-	private String responseData = "";
-	private final boolean keepAlive;
+	
+	/** 
+	 * The body written and not yet flushed, null until first written. Pooled (see {@link #body()}) if written on the 
+	 * thread owning the connection. 
+	 */
+	private CompositeByteBuffer responseData;
+	private boolean keepAlive;
+	
+	/** 
+	 * The connection (or channel) this response is sent on, also keeps the responses to pipelined requests in order
+	 */
+	private final ResponseOutput output;
+	
+	/** Output held back until the responses to all preceding (pipelined) requests have been written */
+	private List<ByteBuffer> deferred;
+	
+	/** The pooled buffers of the deferred output, released once written */
+	private List<ByteBuffer> deferredPooled;
+	
+	private boolean finished = false;
 	
 	public HttpResponse(SocketChannel sc, boolean keepAlive) {
-		clientChannel = sc;
-		headers.put("Server", "DeftServer/0.1.0");
-		headers.put("Date", DateUtil.getCurrentAsString());
-
-		if (keepAlive) {
-			this.keepAlive = true;
-			headers.put("Connection", "Keep-Alive");
-		} else {
-			this.keepAlive = false;
-			headers.put("Connection", "Close");	
-		}
+		this(new ChannelOutput(sc), keepAlive);
+	}
+	
+	/**
+	 * Creates a response that is written to the given output. If the output is a connection, nothing is written 
+	 * until the responses to all preceding requests on the connection are finished.
+	 */
+	HttpResponse(ResponseOutput output, boolean keepAlive) {
+		this.output = output;
+		this.keepAlive = keepAlive;
 	}
 	
 	public void setStatusCode(int sc) {
@@ -57,72 +85,322 @@ public class HttpResponse {
 	}
 
 	public HttpResponse write(String data) {
-		responseData +=data;
+		return write((CharSequence) data);
+	}
+	
+	/**
+	 * Appends the given characters (UTF-8 encoded) to the response body.
+	 */
+	public HttpResponse write(CharSequence data) {
+		body().append(data != null ? data : "null");	// as String concatenation
+		return this;
+	}
+	
+	/**
+	 * Appends the given bytes to the response body.
+	 */
+	public HttpResponse write(byte[] data) {
+		body().append(data);
+		return this;
+	}
+	
+	/**
+	 * Appends the remaining bytes of the given buffer to the response body.
+	 */
+	public HttpResponse write(ByteBuffer data) {
+		body().append(data);
 		return this;
 	}
 		
+	/**
+	 * @return The body, created on the first write. The body is accumulated in buffers from the connection's pool if 
+	 * it's written on the thread owning the connection (e.g. by a non-blocking handler), otherwise in heap buffers. 
+	 * I.e. a body started on the thread owning the connection has to be written there until flushed.
+	 */
+	private CompositeByteBuffer body() {
+		if (responseData == null) {
+			responseData = new CompositeByteBuffer(BODY_SEGMENT_SIZE, output.getBufferPool());
+		}
+		return responseData;
+	}
+	
+	/**
+	 * Discards the headers and body written so far (e.g. to respond with an error instead). Only valid before the 
+	 * first flush.
+	 */
+	void reset() {
+		headers.clear();
+		if (responseData != null) {
+			responseData.clear();
+		}
+	}
+	
+	/**
+	 * @return true if the head has been flushed, i.e. the response can no longer be {@link #reset()}
+	 */
+	boolean isCommitted() {
+		return headersCreated;
+	}
+	
+	/**
+	 * Discards the body written since the last flush and closes the connection (instead of keeping it alive) once the 
+	 * output flushed so far is written. For a response that can not be completed once its head is flushed, the client
+	 * sees it cut off.
+	 */
+	void abort() {
+		if (responseData != null) {
+			responseData.clear();
+		}
+		keepAlive = false;
+	}
+	
+	/**
+	 * Hands the headers (unless already flushed) and the body written so far to the connection. May be invoked from 
+	 * any thread (e.g. by a {@link org.deftserver.web.Blocking} handler), the output is encoded on the calling thread 
+	 * and handed over on the thread owning the connection (in the order flushed).
+	 * 
+	 * @return The number of bytes handed over
+	 */
 	public long flush() {
-		if (!headersCreated) {
-			String initial = createInitalLineAndHeaders();			
-			responseData = initial + responseData;
-			headersCreated = true;
+		ByteBuffer[] body = NO_BUFFERS;
+		ByteBuffer[] pooled = NO_BUFFERS;
+		if (responseData != null) {
+			body = responseData.drain();
+			if (responseData.getPool() != null) {
+				pooled = body;
+			}
 		}
-		ByteBuffer output = ByteBuffer.wrap(responseData.getBytes(Charsets.UTF_8));
-		long bytesWritten = 0;
-		try {
-			bytesWritten = clientChannel.write(output);
-		} catch (IOException e) {
-			logger.error("Error writing response: {}", e.getMessage());
-		} finally {
-			responseData = "";
+		if (headersCreated) {
+			return handOver(body, pooled);
 		}
-		return bytesWritten;
+		headersCreated = true;
+		CompositeByteBuffer head = new CompositeByteBuffer(HEAD_SEGMENT_SIZE);
+		ResponseHead.encode(head, statusCode, keepAlive, headers);
+		ByteBuffer[] headBuffers = head.getBuffers();
+		ByteBuffer[] output = new ByteBuffer[headBuffers.length + body.length];
+		System.arraycopy(headBuffers, 0, output, 0, headBuffers.length);
+		System.arraycopy(body, 0, output, headBuffers.length, body.length);
+		return handOver(output, pooled);
+	}
+	
+	/**
+	 * Writes the given output (cmp. {@link #writeToChannel(ByteBuffer[], ByteBuffer[])}) on the thread owning the 
+	 * connection.
+	 * 
+	 * @return The number of bytes handed over
+	 */
+	private long handOver(final ByteBuffer[] buffers, final ByteBuffer[] pooled) {
+		output.execute(new Runnable() {
+			@Override
+			public void run() { writeToChannel(buffers, pooled); }
+		});
+		return remaining(buffers);
+	}
+	
+	private static long remaining(ByteBuffer[] buffers) {
+		long bytes = 0;
+		for (ByteBuffer buffer : buffers) {
+			bytes += buffer.remaining();
+		}
+		return bytes;
+	}
+	
+	/**
+	 * Hands the given output to the connection (e.g. its write queue), or holds it back if a response to a preceding 
+	 * request is not yet finished. Must be invoked on the thread owning the connection.
+	 * 
+	 * @param pooled The buffers of the output acquired from the connection's pool, released once written
+	 * @return The number of bytes handed over
+	 */
+	private long writeToChannel(ByteBuffer[] buffers, ByteBuffer[] pooled) {
+		long bytes = remaining(buffers);
+		if (isBlocked()) {
+			if (deferred == null) {
+				deferred = new ArrayList<ByteBuffer>(buffers.length);
+				deferredPooled = new ArrayList<ByteBuffer>(pooled.length);
+			}
+			Collections.addAll(deferred, buffers);
+			Collections.addAll(deferredPooled, pooled);
+		} else {
+			output.write(buffers);
+			if (pooled.length > 0) {
+				output.release(pooled);
+			}
+		}
+		return bytes;
 	}
 	
+	/**
+	 * @return true if this response has to wait for the responses to preceding (pipelined) requests
+	 */
+	private boolean isBlocked() {
+		return !output.isCurrentResponse(this);
+	}
+	
+	/**
+	 * Flushes the response and marks it finished, i.e. lets the connection move on to the next response. May be 
+	 * invoked from any thread, as {@link #flush()}: both the output and the completion are handed over (in that order) 
+	 * to the thread owning the connection, the response must not be used afterwards.
+	 * 
+	 * @return The number of bytes handed over
+	 */
 	public long finish() {
 		long bytesWritten = 0;
-		if (clientChannel.isOpen()) {
+		if (output.isOpen()) {
 			if (!headersCreated) {
-				setHeader("Etag", HttpUtil.getEtag(responseData.getBytes()));
-				setHeader("Content-Length", ""+responseData.getBytes(Charsets.UTF_8).length);	// TODO RS faster/better with new Integer(..)?
+				setHeader("Etag", HttpUtil.getEtag(responseData != null ? responseData.getBuffers() : NO_BUFFERS));
+				setHeader("Content-Length", String.valueOf(responseData != null ? responseData.size() : 0));
 			}
 			bytesWritten = flush();
-			if (!keepAlive) {
-				Closeables.closeQuietly(clientChannel);
-			}
-		}	
+		}
+		output.execute(new Runnable() {
+			@Override
+			public void run() { complete(); }
+		});
 		return bytesWritten;
 	}
 	
-	private /*<> synchronzied */ String createInitalLineAndHeaders() {
-		StringBuilder sb = new StringBuilder(HttpUtil.createInitialLine(statusCode));
-		for (Map.Entry<String, String> header : headers.entrySet()) {
-			sb.append(header.getKey());
-			sb.append(": ");
-			sb.append(header.getValue());
-			sb.append("\r\n");
+	/**
+	 * Marks this response finished, after its output is handed over. Invoked on the thread owning the connection.
+	 */
+	private void complete() {
+		if (responseData != null) {
+			responseData.clear();	// not flushed if the connection is closed (releases pooled buffers)
+		}
+		finished = true;
+		if (!isBlocked()) {
+			done();
 		}
-		
-		sb.append("\r\n");
-		return sb.toString();
 	}
-
+	
 	/**
-	 * Should only be called by {@link StaticContentHandler}.
+	 * Invoked when this response is finished and all its output is handed over to the connection, i.e. the 
+	 * connection is ready for the next response. (The connection is closed, or becomes idle, once its write queue 
+	 * is drained.)
+	 */
+	private void done() {
+		output.responseDone(this, keepAlive);
+	}
+	
+	/**
+	 * Invoked by the connection when the responses to all preceding requests are written. Writes the output held 
+	 * back so far.
+	 */
+	void unblock() {
+		if (deferred != null) {
+			writeToChannel(deferred.toArray(new ByteBuffer[deferred.size()]), 
+					deferredPooled.toArray(new ByteBuffer[deferredPooled.size()]));
+			deferred = deferredPooled = null;
+		}
+		if (finished) {
+			done();
+		}
+	}
+	
+	/**
+	 * Should only be called by {@link StaticContentHandler}. May be invoked from any thread, as {@link #flush()}.
 	 * @param file Requested static resource 
 	 */
 	public long write(File file) {
 		//setHeader("Etag", HttpUtil.getEtag(file));
-		setHeader("Content-Length", String.valueOf(file.length()));
-		long bytesWritten = 0;
+		final long length = file.length();
+		setHeader("Content-Length", String.valueOf(length));
 		flush();	// write initial line + headers
+		final FileChannel fileChannel;
 		try {
-			bytesWritten = new RandomAccessFile(file, "r").getChannel().transferTo(0, file.length(), clientChannel);
+			fileChannel = new RandomAccessFile(file, "r").getChannel();
 		} catch (IOException e) {
 			logger.error("Error writing (static file) response: {}", e.getMessage());
+			return 0;
 		}
-		return bytesWritten;
+		output.execute(new Runnable() {
+			@Override
+			public void run() { writeFile(fileChannel, length); }
+		});
+		return length;
 	}
-
 	
+	/**
+	 * Hands the given file to the connection, or (mapped) holds it back if a response to a preceding request is not 
+	 * yet finished. Must be invoked on the thread owning the connection.
+	 */
+	private void writeFile(FileChannel fileChannel, long length) {
+		if (!isBlocked()) {
+			output.write(fileChannel, 0, length);	// closed by the output when transferred
+			return;
+		}
+		try {
+			writeToChannel(new ByteBuffer[] {fileChannel.map(FileChannel.MapMode.READ_ONLY, 0, length)}, NO_BUFFERS);
+		} catch (IOException e) {
+			logger.error("Error writing (static file) response: {}", e.getMessage());
+		} finally {
+			Closeables.closeQuietly(fileChannel);
+		}
+	}
+	
+	/**
+	 * A bare (non-blocking) channel, written to as much as it accepts without blocking. 
+	 */
+	private static class ChannelOutput implements ResponseOutput {
+		
+		private final SocketChannel channel;
+		
+		ChannelOutput(SocketChannel channel) {
+			this.channel = channel;
+		}
+
+		@Override
+		public boolean isOpen() {
+			return channel.isOpen();
+		}
+
+		@Override
+		public boolean isCurrentResponse(HttpResponse response) {
+			return true;
+		}
+
+		@Override
+		public void write(ByteBuffer... output) {
+			try {
+				channel.write(output);
+			} catch (IOException e) {
+				logger.error("Error writing response: {}", e.getMessage());
+			}
+		}
+
+		@Override
+		public void write(FileChannel file, long position, long count) {
+			try {
+				file.transferTo(position, count, channel);
+			} catch (IOException e) {
+				logger.error("Error writing (static file) response: {}", e.getMessage());
+			} finally {
+				Closeables.closeQuietly(file);
+			}
+		}
+
+		@Override
+		public ByteBufferPool getBufferPool() {
+			return null;
+		}
+
+		@Override
+		public void release(ByteBuffer... pooled) {
+			throw new UnsupportedOperationException("Not pooled");
+		}
+
+		@Override
+		public void execute(Runnable task) {
+			task.run();
+		}
+
+		@Override
+		public void responseDone(HttpResponse response, boolean keepAlive) {
+			if (!keepAlive) {
+				Closeables.closeQuietly(channel);
+			}
+		}
+		
+	}
+
 }
@@ -0,0 +1,87 @@
+package org.deftserver.web.protocol;
+
+import java.nio.ByteBuffer;
+
+import org.deftserver.web.HttpException;
+import org.deftserver.web.handler.RequestHandler;
+
+/**
+ * The body of a request being received. Streamed to the handler (cmp. {@link RequestHandler#isMethodStreaming}) or 
+ * aggregated in memory and set on the request once complete.
+ */
+class RequestBody implements BodyDecoder.Sink {
+
+	private final HttpRequest request;
+	private final RequestHandler handler;
+	private final BodyDecoder decoder;
+	
+	/** true if the body is handed to the handler as it arrives, false if it's aggregated into body */
+	private final boolean streaming;
+	private byte[] body;
+	private int length;
+	private final int maxSize;
+	
+	/**
+	 * @param maxSize Max size of an aggregated (not streamed) body
+	 * @throws HttpException (413) If the announced body length exceeds maxSize
+	 */
+	RequestBody(HttpRequest request, RequestHandler handler, BodyDecoder decoder, int maxSize) {
+		this.request = request;
+		this.handler = handler;
+		this.decoder = decoder;
+		this.maxSize = maxSize;
+		streaming = handler.isMethodStreaming(request.getMethod());
+		if (!streaming) {
+			long contentLength = decoder.getContentLength();
+			if (contentLength > maxSize) {
+				throw new HttpException(413, "Request body too large");
+			}
+			body = new byte[contentLength < 0 ? Math.min(4096, maxSize) : (int) contentLength];
+		}
+	}
+	
+	HttpRequest getRequest() {
+		return request;
+	}
+	
+	RequestHandler getHandler() {
+		return handler;
+	}
+	
+	/**
+	 * Consumes (the next part of) the body from the given buffer. 
+	 * 
+	 * @return true if the body is complete, in which case the request can be dispatched. (If the body was 
+	 * aggregated it's set on the request.)
+	 */
+	boolean decode(ByteBuffer buffer) {
+		if (!decoder.decode(buffer, this)) {
+			return false;
+		}
+		if (!streaming) {
+			request.setBody(body, length);
+			body = null;
+		}
+		return true;
+	}
+	
+	@Override
+	public void onChunk(ByteBuffer chunk) {
+		if (streaming) {
+			handler.onBodyChunk(request, chunk);
+			return;
+		}
+		int n = chunk.remaining();
+		if (length + n > body.length) {
+			if (length + n > maxSize) {
+				throw new HttpException(413, "Request body too large");
+			}
+			byte[] newBody = new byte[Math.min(Math.max(length + n, body.length * 2), maxSize)];
+			System.arraycopy(body, 0, newBody, 0, length);
+			body = newBody;
+		}
+		chunk.get(body, length, n);
+		length += n;
+	}
+	
+}
@@ -0,0 +1,137 @@
+package org.deftserver.web.protocol;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The headers of a {@link HttpRequest}, stored as (name offset, name length, value offset, value length) entries
+ * over the raw bytes of the request head. Lookups compare the (case insensitive) name byte by byte and a value is
+ * only decoded into a String when it is asked for.
+ */
+class RequestHeaders {
+
+	private static final int NAME_START = 0;
+	private static final int NAME_END = 1;
+	private static final int VALUE_START = 2;
+	private static final int VALUE_END = 3;
+
+	/** The raw request head (US-ASCII) */
+	private final byte[] raw;
+
+	/** Four entries per header: name start, name end, value start, value end */
+	private final int[] offsets;
+	private final int count;
+
+	/** Decoded values, created on demand */
+	private String[] values;
+
+	private Map<String, String> map;
+
+	RequestHeaders(byte[] raw, int[] offsets, int count) {
+		this.raw = raw;
+		this.offsets = offsets;
+		this.count = count;
+	}
+
+	/**
+	 * Encodes the given headers into the raw format.
+	 */
+	static RequestHeaders of(Map<String, String> headers) {
+		int size = 0;
+		for (Map.Entry<String, String> header : headers.entrySet()) {
+			size += header.getKey().length() + header.getValue().length();
+		}
+		byte[] raw = new byte[size];
+		int[] offsets = new int[4 * headers.size()];
+		int pos = 0, i = 0;
+		for (Map.Entry<String, String> header : headers.entrySet()) {
+			offsets[i + NAME_START] = pos;
+			pos = encode(header.getKey(), raw, pos);
+			offsets[i + NAME_END] = offsets[i + VALUE_START] = pos;
+			pos = encode(header.getValue(), raw, pos);
+			offsets[i + VALUE_END] = pos;
+			i += 4;
+		}
+		return new RequestHeaders(raw, offsets, headers.size());
+	}
+
+	private static int encode(String s, byte[] dst, int pos) {
+		for (int i = 0; i < s.length(); i++) {
+			dst[pos++] = (byte) s.charAt(i);
+		}
+		return pos;
+	}
+
+	int size() {
+		return count;
+	}
+
+	/**
+	 * @return The value of the first header with the given (case insensitive) name, or null if no such header exists.
+	 */
+	String get(String name) {
+		int index = indexOf(name);
+		return index < 0 ? null : value(index);
+	}
+
+	private int indexOf(String name) {
+		final int length = name.length();
+		for (int i = 0; i < count; i++) {
+			int start = offsets[4 * i + NAME_START];
+			if (offsets[4 * i + NAME_END] - start == length && equalsIgnoreCase(name, start)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private boolean equalsIgnoreCase(String name, int start) {
+		for (int i = 0; i < name.length(); i++) {
+			int a = raw[start + i];
+			int b = name.charAt(i);
+			if (a != b && toLowerCase(a) != toLowerCase(b)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static int toLowerCase(int c) {
+		return c >= 'A' && c <= 'Z' ? c + ('a' - 'A') : c;
+	}
+
+	private String value(int index) {
+		if (values == null) {
+			values = new String[count];
+		}
+		String value = values[index];
+		if (value == null) {
+			value = values[index] = string(offsets[4 * index + VALUE_START], offsets[4 * index + VALUE_END]);
+		}
+		return value;
+	}
+
+	private String string(int start, int end) {
+		return HttpRequestParser.asciiString(raw, start, end);
+	}
+
+	/**
+	 * @return All headers (decodes every name and value). If a header name occurs more than once, the first value is
+	 * used.
+	 */
+	Map<String, String> asMap() {
+		if (map == null) {
+			Map<String, String> headers = new HashMap<String, String>(count * 2);
+			for (int i = 0; i < count; i++) {
+				String name = string(offsets[4 * i + NAME_START], offsets[4 * i + NAME_END]);
+				if (!headers.containsKey(name)) {
+					headers.put(name, value(i));
+				}
+			}
+			map = Collections.unmodifiableMap(headers);
+		}
+		return map;
+	}
+
+}
@@ -0,0 +1,153 @@
+package org.deftserver.web.protocol;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The (query string) parameters of a {@link HttpRequest}, parsed in a single pass over the requested path. Names
+ * and values are percent ("%XX", UTF-8) and '+' decoded. Pairs are separated by '&' or ';' and pairs without a
+ * value are ignored.
+ *
+ * The parameters are stored as a flat array of (name, value) pairs in the order they appear in the path, hence
+ * a lookup is a linear scan. (Requests rarely carry more than a handful of parameters.)
+ */
+class RequestParameters {
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	static final RequestParameters EMPTY = new RequestParameters(new String[0], 0);
+
+	/** name, value, name, value, ... */
+	private final String[] pairs;
+	private final int count;
+
+	private Map<String, Collection<String>> map;
+
+	private RequestParameters(String[] pairs, int count) {
+		this.pairs = pairs;
+		this.count = count;
+	}
+
+	/**
+	 * Parses the query string (if any) of the given path, e.g. "/search?q=deft+server&page=2".
+	 */
+	static RequestParameters parse(String path) {
+		int start = path.indexOf('?') + 1;
+		if (start == 0 || start == path.length()) {
+			return EMPTY;
+		}
+		String[] pairs = new String[8];
+		int count = 0;
+		final int end = path.length();
+		int nameStart = start, nameEnd = -1;
+		for (int i = start; i <= end; i++) {
+			char c = i < end ? path.charAt(i) : '&';
+			if (c == '=' && nameEnd < 0) {
+				nameEnd = i;
+			} else if (c == '&' || c == ';') {
+				if (nameEnd >= 0 && nameEnd + 1 < i) {	// pairs without value are ignored
+					if (2 * count + 2 > pairs.length) {
+						String[] newPairs = new String[pairs.length * 2];
+						System.arraycopy(pairs, 0, newPairs, 0, 2 * count);
+						pairs = newPairs;
+					}
+					pairs[2 * count] = decode(path, nameStart, nameEnd);
+					pairs[2 * count + 1] = decode(path, nameEnd + 1, i);
+					count++;
+				}
+				nameStart = i + 1;
+				nameEnd = -1;
+			}
+		}
+		return count == 0 ? EMPTY : new RequestParameters(pairs, count);
+	}
+
+	/**
+	 * Decodes s[start, end). Returns a plain substring unless the range contains a '%' or a '+'.
+	 */
+	static String decode(String s, int start, int end) {
+		int i = start;
+		while (i < end && s.charAt(i) != '%' && s.charAt(i) != '+') {
+			i++;
+		}
+		if (i == end) {
+			return s.substring(start, end);
+		}
+		byte[] bytes = new byte[end - start];
+		int length = 0;
+		for (i = start; i < end; i++) {
+			char c = s.charAt(i);
+			if (c == '+') {
+				bytes[length++] = ' ';
+			} else if (c == '%' && i + 2 < end && hex(s.charAt(i + 1)) >= 0 && hex(s.charAt(i + 2)) >= 0) {
+				bytes[length++] = (byte) (hex(s.charAt(i + 1)) << 4 | hex(s.charAt(i + 2)));
+				i += 2;
+			} else {
+				bytes[length++] = (byte) c;	// malformed escapes are kept as is
+			}
+		}
+		return new String(bytes, 0, length, UTF_8);
+	}
+
+	private static int hex(char c) {
+		if (c >= '0' && c <= '9') {
+			return c - '0';
+		} else if (c >= 'a' && c <= 'f') {
+			return c - 'a' + 10;
+		} else if (c >= 'A' && c <= 'F') {
+			return c - 'A' + 10;
+		}
+		return -1;
+	}
+
+	/**
+	 * @return The first value of the given parameter, or null if the parameter does not exist.
+	 */
+	String get(String name) {
+		for (int i = 0; i < count; i++) {
+			if (pairs[2 * i].equals(name)) {
+				return pairs[2 * i + 1];
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @return All values of the given parameter (unmodifiable), an empty collection if the parameter does not exist.
+	 */
+	Collection<String> getAll(String name) {
+		List<String> values = null;
+		for (int i = 0; i < count; i++) {
+			if (pairs[2 * i].equals(name)) {
+				if (values == null) {
+					values = new ArrayList<String>(2);
+				}
+				values.add(pairs[2 * i + 1]);
+			}
+		}
+		return values == null ? Collections.<String>emptyList() : Collections.unmodifiableList(values);
+	}
+
+	/**
+	 * @return All parameters as an unmodifiable map from name to (unmodifiable) values, in order of appearance.
+	 */
+	Map<String, Collection<String>> asMap() {
+		if (map == null) {
+			Map<String, Collection<String>> parameters = new LinkedHashMap<String, Collection<String>>();
+			for (int i = 0; i < count; i++) {
+				String name = pairs[2 * i];
+				if (!parameters.containsKey(name)) {
+					parameters.put(name, getAll(name));
+				}
+			}
+			map = Collections.unmodifiableMap(parameters);
+		}
+		return map;
+	}
+
+}
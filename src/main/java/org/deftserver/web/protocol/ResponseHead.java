@@ -0,0 +1,70 @@
+package org.deftserver.web.protocol;
+
+import java.util.Map;
+
+import org.deftserver.buffer.CompositeByteBuffer;
+import org.deftserver.util.HttpUtil;
+
+import com.google.common.base.Charsets;
+
+/**
+ * Encodes the status line and headers of a {@link HttpResponse}. The status lines and the headers that are part of 
+ * every response are kept pre-encoded.
+ */
+class ResponseHead {
+
+	private static final byte[] SERVER = bytes("Server: DeftServer/0.1.0\r\n");
+	private static final byte[] CONNECTION_KEEP_ALIVE = bytes("Connection: Keep-Alive\r\n");
+	private static final byte[] CONNECTION_CLOSE = bytes("Connection: Close\r\n");
+	private static final byte[] COLON_SP = bytes(": ");
+	private static final byte[] CRLF = bytes("\r\n");
+	
+	/** The status codes known by {@link HttpUtil#createInitialLine(int)} */
+	private static final int[] KNOWN_STATUS_CODES = {200, 304, 400, 403, 404, 413, 500, 501, 503};
+	
+	/** Encoded status lines indexed by status code, null for unknown codes. Never modified after class initialization */
+	private static final byte[][] statusLines = new byte[600][];
+	
+	static {
+		for (int statusCode : KNOWN_STATUS_CODES) {
+			statusLines[statusCode] = bytes(HttpUtil.createInitialLine(statusCode));
+		}
+	}
+	
+	private static byte[] bytes(String s) {
+		return s.getBytes(Charsets.US_ASCII);
+	}
+	
+	/**
+	 * @throws IllegalArgumentException If the status code is unknown (cmp. {@link HttpUtil#createInitialLine(int)})
+	 */
+	static byte[] getStatusLine(int statusCode) {
+		byte[] line = statusCode >= 0 && statusCode < statusLines.length ? statusLines[statusCode] : null;
+		return line != null ? line : bytes(HttpUtil.createInitialLine(statusCode));
+	}
+	
+	/**
+	 * Appends the response head to the given buffer. The "Server", "Date" and "Connection" headers are added unless
+	 * overridden by the given headers. 
+	 */
+	static void encode(CompositeByteBuffer out, int statusCode, boolean keepAlive, Map<String, String> headers) {
+		out.append(getStatusLine(statusCode));
+		if (!headers.containsKey("Server")) {
+			out.append(SERVER);
+		}
+		if (!headers.containsKey("Date")) {
+			out.append(DateHeader.get());
+		}
+		if (!headers.containsKey("Connection")) {
+			out.append(keepAlive ? CONNECTION_KEEP_ALIVE : CONNECTION_CLOSE);
+		}
+		for (Map.Entry<String, String> header : headers.entrySet()) {
+			out.append(header.getKey());
+			out.append(COLON_SP);
+			out.append(header.getValue());
+			out.append(CRLF);
+		}
+		out.append(CRLF);
+	}
+	
+}
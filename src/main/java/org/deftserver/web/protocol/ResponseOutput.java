@@ -0,0 +1,58 @@
+package org.deftserver.web.protocol;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import org.deftserver.buffer.ByteBufferPool;
+
+/**
+ * Where an {@link HttpResponse} writes to: a connection of the selector based {@link HttpProtocolImpl} (non-blocking, 
+ * owned by an I/O loop), a connection of the {@link BlockingHttpProtocol}, or a bare channel.
+ */
+interface ResponseOutput {
+
+	boolean isOpen();
+
+	/**
+	 * @return true if the given response may write, false if it has to hold back its output until the responses to 
+	 * preceding (pipelined) requests are finished (it's unblocked by {@link HttpResponse#unblock()}).
+	 */
+	boolean isCurrentResponse(HttpResponse response);
+
+	/**
+	 * Writes the given buffers. They must not be modified afterwards.
+	 */
+	void write(ByteBuffer... output);
+
+	/**
+	 * Writes (a region of) a file and closes it.
+	 */
+	void write(FileChannel file, long position, long count);
+
+	/**
+	 * @return The pool a response body may be accumulated in when invoked on the thread owning this output, 
+	 * otherwise (or if this output is not pooled) null
+	 */
+	ByteBufferPool getBufferPool();
+
+	/**
+	 * Gives the given buffers (acquired from {@link #getBufferPool()} and written before) back to the pool once they 
+	 * are written. Must be invoked on the thread owning this output.
+	 */
+	void release(ByteBuffer... pooled);
+
+	/**
+	 * Invoked when the given response is finished and all its output is handed over.
+	 * 
+	 * @param keepAlive false if the connection should be closed once the response is written
+	 */
+	void responseDone(HttpResponse response, boolean keepAlive);
+
+	/**
+	 * Runs the given task where this output may be written: right away if invoked on the thread owning this output 
+	 * (or if the output is thread safe), otherwise later on the owning thread. Tasks handed over by one thread run in
+	 * the order they were handed over.
+	 */
+	void execute(Runnable task);
+
+}
@@ -0,0 +1,80 @@
+package org.deftserver.buffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+public class ByteBufferPoolTest {
+
+	@Test
+	public void sizeClassTest() {
+		assertEquals(0, ByteBufferPool.sizeClass(1));
+		assertEquals(0, ByteBufferPool.sizeClass(512));
+		assertEquals(1, ByteBufferPool.sizeClass(513));
+		assertEquals(2, ByteBufferPool.sizeClass(1500));
+		assertEquals(7, ByteBufferPool.sizeClass(64 * 1024));
+		assertEquals(-1, ByteBufferPool.sizeClass(64 * 1024 + 1));
+	}
+	
+	@Test
+	public void acquireTest() {
+		ByteBufferPool pool = new ByteBufferPool();
+		ByteBuffer buffer = pool.acquire(1500);
+		assertTrue(buffer.isDirect());
+		assertEquals(2048, buffer.capacity());
+		assertEquals(0, buffer.position());
+		assertEquals(1500, buffer.limit());
+	}
+	
+	@Test
+	public void reuseTest() {
+		ByteBufferPool pool = new ByteBufferPool();
+		ByteBuffer buffer = pool.acquire(1500);
+		buffer.put((byte) 1);
+		pool.release(buffer);
+		
+		ByteBuffer reused = pool.acquire(2000);
+		assertSame(buffer, reused);
+		assertEquals(0, reused.position());
+		assertEquals(2000, reused.limit());
+		assertNotSame(buffer, pool.acquire(1500));	// buffer is in use
+	}
+	
+	@Test
+	public void unpooledTest() {
+		ByteBufferPool pool = new ByteBufferPool();
+		ByteBuffer large = pool.acquire(100 * 1024);
+		assertEquals(100 * 1024, large.capacity());
+		pool.release(large);
+		assertNotSame(large, pool.acquire(100 * 1024));
+		
+		ByteBuffer foreign = ByteBuffer.allocate(1024);
+		pool.release(foreign);
+		assertNotSame(foreign, pool.acquire(1024));
+	}
+	
+	@Test
+	public void leakDetectionTest() {
+		ByteBufferPool.setLeakDetection(true);
+		try {
+			ByteBufferPool pool = new ByteBufferPool();
+			int unreleased = ByteBufferPool.getUnreleasedCount();
+			ByteBuffer first = pool.acquire(1024);
+			ByteBuffer second = pool.acquire(1024);
+			assertEquals(unreleased + 2, ByteBufferPool.getUnreleasedCount());
+			pool.release(first);
+			pool.release(first);	// ignored (and logged)
+			assertEquals(unreleased + 1, ByteBufferPool.getUnreleasedCount());
+			pool.release(second);
+			assertEquals(unreleased, ByteBufferPool.getUnreleasedCount());
+		} finally {
+			ByteBufferPool.setLeakDetection(false);
+		}
+	}
+	
+}
@@ -0,0 +1,105 @@
+package org.deftserver.buffer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+public class CompositeByteBufferTest {
+
+	@Test
+	public void testAppendBytesSpanningSegments() {
+		CompositeByteBuffer buffer = new CompositeByteBuffer(4);
+		buffer.append(new byte[] {1, 2, 3});
+		buffer.append(new byte[] {4, 5, 6, 7, 8, 9, 10});
+		
+		assertEquals(10, buffer.size());
+		assertEquals(3, buffer.getBuffers().length);
+		assertArrayEquals(new byte[] {1, 2, 3, 4, 5, 6, 7, 8, 9, 10}, buffer.toByteArray());
+	}
+	
+	@Test
+	public void testAppendByteBuffer() {
+		CompositeByteBuffer buffer = new CompositeByteBuffer(4);
+		ByteBuffer src = ByteBuffer.wrap(new byte[] {0, 1, 2, 3, 4, 5, 6});
+		src.position(1);
+		buffer.append(src);
+		
+		assertEquals(0, src.remaining());
+		assertArrayEquals(new byte[] {1, 2, 3, 4, 5, 6}, buffer.toByteArray());
+	}
+	
+	@Test
+	public void testAppendCharsIsUtf8Encoded() throws Exception {
+		String s = "abc åäö € 𝄞 xyz";
+		CompositeByteBuffer buffer = new CompositeByteBuffer(5);	// forces code points to start new segments
+		buffer.append(s);
+		buffer.append(new StringBuilder("!"));
+		
+		byte[] expected = (s + "!").getBytes("UTF-8");
+		assertEquals(expected.length, buffer.size());
+		assertArrayEquals(expected, buffer.toByteArray());
+	}
+	
+	@Test
+	public void testGetBuffersIsNotAffectedByLaterAppends() {
+		CompositeByteBuffer buffer = new CompositeByteBuffer();
+		buffer.append("hello");
+		ByteBuffer[] buffers = buffer.getBuffers();
+		buffer.append(" world");
+		
+		assertEquals(1, buffers.length);
+		assertEquals(5, buffers[0].remaining());
+		assertEquals("hello world", new String(buffer.toByteArray()));
+	}
+	
+	@Test
+	public void testClear() {
+		CompositeByteBuffer buffer = new CompositeByteBuffer();
+		buffer.append("hello");
+		buffer.clear();
+		
+		assertEquals(0, buffer.size());
+		assertEquals(0, buffer.getBuffers().length);
+		buffer.append("bye");
+		assertEquals("bye", new String(buffer.toByteArray()));
+	}
+	
+	@Test
+	public void testPooledSegments() {
+		ByteBufferPool.setLeakDetection(true);
+		try {
+			ByteBufferPool pool = new ByteBufferPool();
+			int unreleased = ByteBufferPool.getUnreleasedCount();
+			CompositeByteBuffer buffer = new CompositeByteBuffer(512, pool);
+			buffer.append(new byte[700]);
+			assertEquals(unreleased + 2, ByteBufferPool.getUnreleasedCount());
+			
+			ByteBuffer[] segments = buffer.drain();
+			assertEquals(0, buffer.size());
+			assertEquals(2, segments.length);
+			assertTrue(segments[0].isDirect());
+			assertEquals(512, segments[0].remaining());
+			assertEquals(188, segments[1].remaining());
+			for (ByteBuffer segment : segments) {
+				pool.release(segment);
+			}
+			assertEquals(unreleased, ByteBufferPool.getUnreleasedCount());
+			
+			buffer.append("hello");
+			buffer.clear();
+			assertEquals(unreleased, ByteBufferPool.getUnreleasedCount());
+			buffer.append("again");
+			assertSame(pool, buffer.getPool());
+			assertEquals("again", new String(buffer.toByteArray()));
+			buffer.clear();
+		} finally {
+			ByteBufferPool.setLeakDetection(false);
+		}
+	}
+	
+}
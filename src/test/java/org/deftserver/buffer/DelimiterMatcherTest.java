@@ -0,0 +1,71 @@
+package org.deftserver.buffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class DelimiterMatcherTest {
+
+	private static int naiveIndexOf(byte[] b, byte[] delimiter, int from, int end) {
+		outer:
+		for (int i = from; i <= end - delimiter.length; i++) {
+			for (int j = 0; j < delimiter.length; j++) {
+				if (b[i + j] != delimiter[j]) {
+					continue outer;
+				}
+			}
+			return i;
+		}
+		return -1;
+	}
+	
+	@Test
+	public void matcherSelectionTest() {
+		assertTrue(DelimiterMatcher.forDelimiter("\r\n".getBytes()) instanceof DelimiterMatcher.SwarMatcher);
+		assertTrue(DelimiterMatcher.forDelimiter("--boundary".getBytes()) instanceof DelimiterMatcher.HorspoolMatcher);
+	}
+	
+	@Test
+	public void shortDelimiterTest() {
+		byte[] b = "0123456789abcdef\r\n".getBytes();
+		DelimiterMatcher matcher = DelimiterMatcher.forDelimiter("\r\n".getBytes());
+		assertEquals(16, matcher.indexOf(b, 0, b.length));
+		assertEquals(16, matcher.indexOf(b, 16, b.length));
+		assertEquals(-1, matcher.indexOf(b, 0, b.length - 1));	// "\r" only
+		assertEquals(-1, matcher.indexOf(b, 17, b.length));
+	}
+	
+	@Test
+	public void highBytesTest() {
+		byte[] delimiter = {(byte) 0xff, (byte) 0x80};
+		byte[] b = {0x7f, (byte) 0xff, 0x00, (byte) 0x80, (byte) 0xfe, (byte) 0xff, (byte) 0xff, (byte) 0x80, 0, 0};
+		assertEquals(6, DelimiterMatcher.forDelimiter(delimiter).indexOf(b, 0, b.length));
+	}
+	
+	@Test
+	public void randomTest() {
+		Random random = new Random(42);
+		byte[][] delimiters = {{'\n'}, {'\r', '\n'}, {'\r', '\n', '\r', '\n'}, "--XyZ".getBytes(), 
+				"\r\n--boundary-1234567890".getBytes()};
+		for (byte[] delimiter : delimiters) {
+			DelimiterMatcher matcher = DelimiterMatcher.forDelimiter(delimiter);
+			for (int n = 0; n < 500; n++) {
+				// a small alphabet (incl. the delimiter's bytes) to get plenty of partial matches
+				byte[] b = new byte[random.nextInt(200)];
+				for (int i = 0; i < b.length; i++) {
+					b[i] = random.nextInt(4) == 0 ? delimiter[random.nextInt(delimiter.length)] : (byte) random.nextInt(3);
+				}
+				if (b.length > delimiter.length && random.nextBoolean()) {
+					int at = random.nextInt(b.length - delimiter.length);
+					System.arraycopy(delimiter, 0, b, at, delimiter.length);
+				}
+				int from = b.length > 0 ? random.nextInt(b.length) : 0;
+				assertEquals(naiveIndexOf(b, delimiter, from, b.length), matcher.indexOf(b, from, b.length));
+			}
+		}
+	}
+	
+}
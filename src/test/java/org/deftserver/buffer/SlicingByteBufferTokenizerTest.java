@@ -0,0 +1,102 @@
+package org.deftserver.buffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.NoSuchElementException;
+
+import org.junit.Test;
+
+public class SlicingByteBufferTokenizerTest {
+
+	private static final Charset ASCII = Charset.forName("US-ASCII");
+	private static final byte[] CRLF = "\r\n".getBytes(ASCII);
+	
+	private static ByteBuffer bytes(String s) {
+		return ByteBuffer.wrap(s.getBytes(ASCII));
+	}
+	
+	private static String string(ByteBuffer buffer) {
+		return ASCII.decode(buffer).toString();
+	}
+	
+	@Test
+	public void tokensTest() {
+		SlicingByteBufferTokenizer tokenizer = new SlicingByteBufferTokenizer(16, CRLF);
+		tokenizer.append(bytes("one\r\ntwo\r\nthr"));
+		assertTrue(tokenizer.hasNext());
+		assertEquals("one\r\n", string(tokenizer.next()));
+		assertEquals("two\r\n", string(tokenizer.next()));
+		assertFalse(tokenizer.hasNext());
+		assertEquals(3, tokenizer.size());
+		
+		tokenizer.append(bytes("ee\r"));
+		assertFalse(tokenizer.hasNext());
+		tokenizer.append(bytes("\n"));
+		assertEquals("three\r\n", string(tokenizer.next()));
+		assertEquals(0, tokenizer.size());
+	}
+	
+	@Test
+	public void readOnlySliceTest() {
+		SlicingByteBufferTokenizer tokenizer = new SlicingByteBufferTokenizer(16, CRLF);
+		tokenizer.append(bytes("line\r\n"));
+		ByteBuffer token = tokenizer.next();
+		assertTrue(token.isReadOnly());
+		assertEquals(0, token.position());
+		assertEquals(6, token.remaining());
+	}
+	
+	@Test
+	public void compactAndGrowTest() {
+		SlicingByteBufferTokenizer tokenizer = new SlicingByteBufferTokenizer(8, CRLF);
+		tokenizer.append(bytes("ab\r\ncd"));
+		assertEquals("ab\r\n", string(tokenizer.next()));
+		tokenizer.append(bytes("ef\r\n"));	// doesn't fit behind "cd", the window is moved to the front
+		assertEquals("cdef\r\n", string(tokenizer.next()));
+		
+		tokenizer.append(bytes("0123456789"));	// grows
+		tokenizer.append(bytes("abcdef\r\n"));
+		assertEquals("0123456789abcdef\r\n", string(tokenizer.next()));
+		assertEquals(0, tokenizer.size());
+	}
+	
+	@Test
+	public void sliceTest() {
+		SlicingByteBufferTokenizer tokenizer = new SlicingByteBufferTokenizer(16, CRLF);
+		tokenizer.append(bytes("12345\r\nrest"));
+		assertEquals("123", string(tokenizer.slice(3)));
+		assertEquals("45\r\n", string(tokenizer.next()));
+		assertEquals("rest", string(tokenizer.slice(4)));
+		assertEquals(0, tokenizer.size());
+	}
+	
+	@Test(expected=BufferUnderflowException.class)
+	public void sliceUnderflowTest() {
+		SlicingByteBufferTokenizer tokenizer = new SlicingByteBufferTokenizer(16);
+		tokenizer.append(bytes("abc"));
+		tokenizer.slice(4);
+	}
+	
+	@Test
+	public void changeDelimiterTest() {
+		SlicingByteBufferTokenizer tokenizer = new SlicingByteBufferTokenizer(16, CRLF);
+		tokenizer.append(bytes("a;b\r\n"));
+		tokenizer.setDelimiter(";".getBytes(ASCII));
+		assertEquals("a;", string(tokenizer.next()));
+		tokenizer.setDelimiter(CRLF);
+		assertEquals("b\r\n", string(tokenizer.next()));
+	}
+	
+	@Test(expected=NoSuchElementException.class)
+	public void noDelimiterTest() {
+		SlicingByteBufferTokenizer tokenizer = new SlicingByteBufferTokenizer(16);
+		tokenizer.append(bytes("a\r\n"));
+		tokenizer.hasNext();
+	}
+	
+}
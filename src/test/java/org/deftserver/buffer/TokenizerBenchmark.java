@@ -0,0 +1,94 @@
+package org.deftserver.buffer;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+/**
+ * Measures the delimiter search of the tokenizers: short lines, long lines (both "\r\n") and a multipart boundary
+ * in a large body. Run as a plain Java application.
+ */
+public class TokenizerBenchmark {
+
+	private static final int ITERATIONS = 2000;
+	
+	public static void main(String[] args) {
+		byte[] crlf = "\r\n".getBytes();
+		byte[] boundary = "\r\n--deft-multipart-boundary-7a3f".getBytes();
+		
+		byte[] shortLines = lines(16 * 1024, 20);
+		byte[] longLines = lines(16 * 1024, 2000);
+		byte[] multipart = body(256 * 1024, boundary);
+		
+		for (int round = 0; round < 3; round++) {	// the first rounds warm up the JIT
+			System.out.println("Round " + round);
+			run("short lines, dynamic", shortLines, crlf, false);
+			run("short lines, slicing", shortLines, crlf, true);
+			run("long lines, dynamic", longLines, crlf, false);
+			run("long lines, slicing", longLines, crlf, true);
+			run("boundary, dynamic", multipart, boundary, false);
+			run("boundary, slicing", multipart, boundary, true);
+		}
+	}
+	
+	private static void run(String name, byte[] input, byte[] delimiter, boolean slicing) {
+		int tokens = 0;
+		long start = System.nanoTime();
+		for (int i = 0; i < ITERATIONS; i++) {
+			// the input arrives in 1500 byte reads
+			if (slicing) {
+				SlicingByteBufferTokenizer tokenizer = new SlicingByteBufferTokenizer(1500, delimiter);
+				for (int pos = 0; pos < input.length; pos += 1500) {
+					tokenizer.append(ByteBuffer.wrap(input, pos, Math.min(1500, input.length - pos)));
+					while (tokenizer.hasNext()) {
+						tokenizer.next();
+						tokens++;
+					}
+				}
+			} else {
+				DynamicByteBufferTokenizer tokenizer = new DynamicByteBufferTokenizer(1500, delimiter);
+				for (int pos = 0; pos < input.length; pos += 1500) {
+					tokenizer.append(ByteBuffer.wrap(input, pos, Math.min(1500, input.length - pos)));
+					while (tokenizer.hasNext()) {
+						tokenizer.next();
+						tokens++;
+					}
+				}
+			}
+		}
+		long elapsed = System.nanoTime() - start;
+		double mbPerSecond = (double) input.length * ITERATIONS / (1024 * 1024) / (elapsed / 1e9);
+		System.out.println(String.format("  %-22s %8.1f MB/s (%d tokens)", name, mbPerSecond, tokens / ITERATIONS));
+	}
+	
+	/**
+	 * @return Lines of printable characters of the given average length, terminated by "\r\n"
+	 */
+	private static byte[] lines(int size, int averageLength) {
+		Random random = new Random(1);
+		byte[] b = new byte[size];
+		int i = 0;
+		while (i < size - 2) {
+			int length = Math.min(1 + random.nextInt(2 * averageLength), size - 2 - i);
+			for (int j = 0; j < length; j++) {
+				b[i++] = (byte) (' ' + random.nextInt(95));
+			}
+			b[i++] = '\r';
+			b[i++] = '\n';
+		}
+		return b;
+	}
+	
+	/**
+	 * @return Random (binary) parts separated by the given boundary
+	 */
+	private static byte[] body(int size, byte[] boundary) {
+		Random random = new Random(2);
+		byte[] b = new byte[size];
+		random.nextBytes(b);
+		for (int i = 32 * 1024; i + boundary.length < size; i += 32 * 1024) {
+			System.arraycopy(boundary, 0, b, i, boundary.length);
+		}
+		return b;
+	}
+	
+}
@@ -0,0 +1,100 @@
+package org.deftserver.ioloop;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+
+public class HashedWheelTimerTest {
+
+	private static final long START = 1000000;
+	private static final long TICK = 100;
+	private static final int WHEEL = 8;
+	
+	private HashedWheelTimer timer;
+	private List<String> fired;
+	
+	@Before
+	public void setup() {
+		timer = new HashedWheelTimer(TICK, WHEEL, START);
+		fired = new ArrayList<String>();
+	}
+	
+	private Timeout timeout(long deadline, final String name) {
+		return new Timeout(IOLoop.getInstance(), deadline, new Runnable() {
+			@Override public void run() { fired.add(name); }
+		});
+	}
+	
+	@Test
+	public void expireInOrderTest() {
+		timer.add(timeout(START + 250, "b"));
+		timer.add(timeout(START + 50, "a"));
+		timer.add(timeout(START + 420, "c"));
+		assertEquals(3, timer.size());
+		
+		timer.expire(START + 99);
+		assertTrue(fired.isEmpty());
+		timer.expire(START + 100);
+		assertEquals(1, fired.size());
+		timer.expire(START + 300);
+		assertEquals(2, fired.size());
+		timer.expire(START + 500);
+		assertEquals(3, fired.size());
+		assertEquals("a", fired.get(0));
+		assertEquals("b", fired.get(1));
+		assertEquals("c", fired.get(2));
+		assertEquals(0, timer.size());
+	}
+	
+	@Test
+	public void severalRoundsTest() {
+		long deadline = START + 3 * WHEEL * TICK + 50;	// three revolutions ahead
+		timer.add(timeout(deadline, "a"));
+		
+		timer.expire(deadline - TICK);
+		assertTrue(fired.isEmpty());
+		timer.expire(deadline + TICK);
+		assertEquals(1, fired.size());
+	}
+	
+	@Test
+	public void cancelTest() {
+		Timeout a = timeout(START + 50, "a");
+		Timeout b = timeout(START + 60, "b");	// same bucket
+		Timeout c = timeout(START + 70, "c");	// same bucket
+		timer.add(a);
+		timer.add(b);
+		timer.add(c);
+		timer.remove(b);
+		timer.remove(b);	// removing twice is a no-op
+		assertEquals(2, timer.size());
+		
+		timer.expire(START + 100);
+		assertEquals(2, fired.size());
+		assertTrue(fired.contains("a"));
+		assertTrue(fired.contains("c"));
+	}
+	
+	@Test
+	public void nextTimeoutTest() {
+		assertEquals(-1, timer.nextTimeout(START));
+		timer.add(timeout(START + 350, "a"));
+		assertEquals(400, timer.nextTimeout(START));
+		assertEquals(1, timer.nextTimeout(START + 1000));
+	}
+	
+	@Test
+	public void expiredDeadlineTest() {
+		timer.expire(START + 1000);
+		timer.add(timeout(START, "a"));	// deadline already passed
+		timer.expire(START + 1100);
+		assertEquals(1, fired.size());
+	}
+	
+}
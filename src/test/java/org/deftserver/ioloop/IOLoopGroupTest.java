@@ -0,0 +1,40 @@
+package org.deftserver.ioloop;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import org.deftserver.ioloop.IOLoopGroup.Balancing;
+import org.junit.Test;
+
+
+public class IOLoopGroupTest {
+
+	@Test
+	public void roundRobinTest() {
+		IOLoopGroup group = new IOLoopGroup(3);
+		assertEquals(3, group.size());
+		
+		assertSame(group.getIOLoop(0), group.next());
+		assertSame(group.getIOLoop(1), group.next());
+		assertSame(group.getIOLoop(2), group.next());
+		assertSame(group.getIOLoop(0), group.next());
+	}
+	
+	@Test
+	public void leastLoadedTest() {
+		IOLoopGroup group = new IOLoopGroup(2, Balancing.LEAST_LOADED);
+		IOLoop first = group.next();
+		IOLoop second = group.next();
+		assertNotSame(first, second);
+		
+		group.getIOLoop(0).incrementLoad();
+		assertSame(group.getIOLoop(1), group.next());
+	}
+	
+	@Test(expected=IllegalArgumentException.class)
+	public void emptyGroupTest() {
+		new IOLoopGroup(0);
+	}
+	
+}
@@ -0,0 +1,204 @@
+package org.deftserver.ioloop;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.deftserver.buffer.ByteBufferPool;
+import org.deftserver.web.AsyncCallback;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class IOStreamTest {
+
+	private ServerSocketChannel server;
+	private SocketChannel client;
+	private IOStream stream;
+	
+	/** A key that is always ready for reading, i.e. drives {@link IOStream#handleEvents(SelectionKey)} */
+	private static class ReadableKey extends SelectionKey {
+		@Override public SelectableChannel channel() { return null; }
+		@Override public Selector selector() { return null; }
+		@Override public boolean isValid() { return true; }
+		@Override public void cancel() {}
+		@Override public int interestOps() { return OP_READ; }
+		@Override public SelectionKey interestOps(int ops) { return this; }
+		@Override public int readyOps() { return OP_READ; }
+	}
+	
+	private static class BytesCallback implements AsyncCallback<ByteBuffer> {
+		
+		ByteBuffer result;
+
+		@Override
+		public void onFailure(Throwable caught) {
+		}
+
+		@Override
+		public void onSuccess(ByteBuffer result) {
+			this.result = result;
+		}
+	}
+	
+	@Before
+	public void setup() throws IOException {
+		server = ServerSocketChannel.open();
+		server.socket().bind(new InetSocketAddress("127.0.0.1", 0));
+		client = SocketChannel.open(server.socket().getLocalSocketAddress());
+		stream = new IOStream(server.accept(), new IOLoop("test"));	// the loop is driven by the test
+	}
+	
+	@After
+	public void tearDown() throws IOException {
+		stream.close();
+		client.close();
+		server.close();
+	}
+	
+	@Test
+	public void writeWatermarksTest() throws IOException {
+		final List<Boolean> events = new ArrayList<Boolean>();
+		stream.setWriteWatermarks(16 * 1024, 64 * 1024);
+		stream.setWritabilityListener(new WritabilityListener() {
+			@Override
+			public void writabilityChanged(IOStream s, boolean writable) {
+				events.add(writable);
+			}
+		});
+		
+		int total = 0;
+		for (int i = 0; i < 8; i++) {
+			stream.write(ByteBuffer.allocate(16 * 1024));
+			total += 16 * 1024;
+		}
+		assertFalse(stream.isWritable());
+		assertEquals(1, events.size());
+		assertFalse(events.get(0));
+		
+		ByteBuffer received = ByteBuffer.allocate(4096);
+		int receivedBytes = 0;
+		while (receivedBytes < total) {
+			stream.handleWrite();	// as on OP_WRITE readiness
+			received.clear();
+			receivedBytes += client.read(received);
+		}
+		assertEquals(0, stream.getPendingBytes());
+		assertTrue(stream.isWritable());
+		assertEquals(2, events.size());
+		assertTrue(events.get(1));
+	}
+	
+	@Test(expected=IllegalArgumentException.class)
+	public void invalidWatermarksTest() {
+		stream.setWriteWatermarks(64 * 1024, 16 * 1024);
+	}
+	
+	@Test
+	public void readBytesTest() throws IOException {
+		client.write(ByteBuffer.wrap("0123456789".getBytes()));
+		BytesCallback first = new BytesCallback();
+		stream.readBytes(4, first);
+		while (first.result == null) {
+			stream.handleEvents(new ReadableKey());
+		}
+		assertEquals("0123", new String(toArray(first.result)));
+		
+		BytesCallback second = new BytesCallback();
+		stream.readBytes(6, second);	// already buffered
+		assertEquals("456789", new String(toArray(second.result)));
+	}
+	
+	@Test
+	public void readBytesDirectTest() throws IOException {
+		final int size = 256 * 1024;
+		byte[] payload = new byte[size + 3];
+		for (int i = 0; i < payload.length; i++) {
+			payload[i] = (byte) i;
+		}
+		client.write(ByteBuffer.wrap(payload, 0, 8));
+		BytesCallback header = new BytesCallback();
+		stream.readBytes(3, header);
+		while (header.result == null) {
+			stream.handleEvents(new ReadableKey());
+		}
+		
+		BytesCallback body = new BytesCallback();
+		stream.readBytes(size, body);
+		client.configureBlocking(false);	// the test thread is both the writer and the reader
+		ByteBuffer remaining = ByteBuffer.wrap(payload, 8, payload.length - 8);
+		while (body.result == null) {
+			if (remaining.hasRemaining()) {
+				client.write(remaining);
+			}
+			stream.handleEvents(new ReadableKey());
+		}
+		assertTrue(body.result.isDirect());
+		assertEquals(size, body.result.remaining());
+		byte[] bytes = toArray(body.result);
+		for (int i = 0; i < size; i++) {
+			assertEquals((byte) (i + 3), bytes[i]);
+		}
+	}
+	
+	@Test
+	public void idleStreamHoldsNoBuffersTest() throws IOException {
+		assertFalse(stream.holdsReadBuffers());
+		ByteBufferPool.setLeakDetection(true);
+		try {
+			int unreleased = ByteBufferPool.getUnreleasedCount();
+			client.write(ByteBuffer.wrap("0123456789".getBytes()));
+			BytesCallback first = new BytesCallback();
+			stream.readBytes(4, first);
+			while (first.result == null) {
+				stream.handleEvents(new ReadableKey());
+			}
+			assertTrue(stream.holdsReadBuffers());	// six bytes not yet consumed
+			assertEquals(unreleased, ByteBufferPool.getUnreleasedCount());	// the read buffer is only borrowed
+			
+			BytesCallback second = new BytesCallback();
+			stream.readBytes(6, second);
+			assertEquals("456789", new String(toArray(second.result)));
+			assertFalse(stream.holdsReadBuffers());
+			assertEquals(unreleased, ByteBufferPool.getUnreleasedCount());
+		} finally {
+			ByteBufferPool.setLeakDetection(false);
+		}
+	}
+	
+	@Test
+	public void idleAfterDirectReadTest() throws IOException {
+		final int size = 128 * 1024;
+		BytesCallback body = new BytesCallback();
+		stream.readBytes(size, body);
+		assertTrue(stream.holdsReadBuffers());
+		client.configureBlocking(false);
+		ByteBuffer payload = ByteBuffer.allocate(size);
+		while (body.result == null) {
+			if (payload.hasRemaining()) {
+				client.write(payload);
+			}
+			stream.handleEvents(new ReadableKey());
+		}
+		assertEquals(size, body.result.remaining());
+		assertFalse(stream.holdsReadBuffers());
+	}
+	
+	private static byte[] toArray(ByteBuffer buffer) {
+		byte[] bytes = new byte[buffer.remaining()];
+		buffer.get(bytes);
+		return bytes;
+	}
+	
+}
@@ -0,0 +1,70 @@
+package org.deftserver.ioloop;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+
+
+public class MpscQueueTest {
+
+	@Test
+	public void fifoTest() {
+		MpscQueue<Integer> queue = new MpscQueue<Integer>();
+		assertTrue(queue.isEmpty());
+		assertNull(queue.poll());
+		
+		queue.offer(1);
+		queue.offer(2);
+		queue.offer(3);
+		assertEquals(Integer.valueOf(1), queue.poll());
+		assertEquals(Integer.valueOf(2), queue.poll());
+		queue.offer(4);
+		assertEquals(Integer.valueOf(3), queue.poll());
+		assertEquals(Integer.valueOf(4), queue.poll());
+		assertNull(queue.poll());
+		assertTrue(queue.isEmpty());
+	}
+	
+	@Test
+	public void multipleProducersTest() throws InterruptedException {
+		final int producers = 4;
+		final int perProducer = 100000;
+		final MpscQueue<int[]> queue = new MpscQueue<int[]>();
+		final CountDownLatch start = new CountDownLatch(1);
+		
+		for (int p = 0; p < producers; p++) {
+			final int producer = p;
+			new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						start.await();
+					} catch (InterruptedException e) {
+						return;
+					}
+					for (int i = 0; i < perProducer; i++) {
+						queue.offer(new int[] {producer, i});
+					}
+				}
+			}).start();
+		}
+		start.countDown();
+		
+		int[] expected = new int[producers];	// elements from one producer must arrive in order
+		int received = 0;
+		long deadline = System.currentTimeMillis() + 10 * 1000;
+		while (received < producers * perProducer && System.currentTimeMillis() < deadline) {
+			int[] element = queue.poll();
+			if (element != null) {
+				assertEquals(expected[element[0]]++, element[1]);
+				received++;
+			}
+		}
+		assertEquals(producers * perProducer, received);
+	}
+	
+}
@@ -0,0 +1,219 @@
+package org.deftserver.ioloop;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.GatheringByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.deftserver.buffer.ByteBufferPool;
+import org.deftserver.web.AsyncCallback;
+import org.junit.Test;
+
+public class WriteQueueTest {
+
+	/** A channel that accepts at most 'capacity' bytes per write (a full send buffer) */
+	private static class ThrottledChannel implements GatheringByteChannel {
+		
+		private final ByteArrayOutputStream written = new ByteArrayOutputStream();
+		private final int capacity;
+		
+		ThrottledChannel(int capacity) {
+			this.capacity = capacity;
+		}
+
+		@Override
+		public int write(ByteBuffer src) {
+			int n = Math.min(capacity, src.remaining());
+			for (int i = 0; i < n; i++) {
+				written.write(src.get());
+			}
+			return n;
+		}
+
+		@Override
+		public long write(ByteBuffer[] srcs, int offset, int length) {
+			int budget = capacity;
+			long total = 0;
+			for (int i = offset; i < offset + length && budget > 0; i++) {
+				int n = Math.min(budget, srcs[i].remaining());
+				for (int j = 0; j < n; j++) {
+					written.write(srcs[i].get());
+				}
+				budget -= n;
+				total += n;
+			}
+			return total;
+		}
+
+		@Override
+		public long write(ByteBuffer[] srcs) {
+			return write(srcs, 0, srcs.length);
+		}
+
+		@Override public boolean isOpen() { return true; }
+		@Override public void close() {}
+	}
+	
+	@Test
+	public void testPartialWrites() throws IOException {
+		WriteQueue queue = new WriteQueue();
+		queue.add(ByteBuffer.wrap(new byte[] {1, 2, 3}), ByteBuffer.wrap(new byte[] {4, 5}));
+		queue.add(ByteBuffer.wrap(new byte[] {6, 7, 8, 9}));
+		assertEquals(9, queue.getPendingBytes());
+		
+		ThrottledChannel channel = new ThrottledChannel(4);
+		assertFalse(queue.writeTo(channel));
+		assertEquals(5, queue.getPendingBytes());
+		assertFalse(queue.writeTo(channel));
+		assertEquals(1, queue.getPendingBytes());
+		assertTrue(queue.writeTo(channel));
+		assertTrue(queue.isEmpty());
+		assertArrayEquals(new byte[] {1, 2, 3, 4, 5, 6, 7, 8, 9}, channel.written.toByteArray());
+	}
+	
+	@Test
+	public void testFileRegion() throws IOException {
+		File file = File.createTempFile("deft", ".tmp");
+		file.deleteOnExit();
+		FileOutputStream out = new FileOutputStream(file);
+		out.write(new byte[] {10, 11, 12, 13, 14, 15});
+		out.close();
+		
+		WriteQueue queue = new WriteQueue();
+		queue.add(ByteBuffer.wrap(new byte[] {1}));
+		queue.add(new RandomAccessFile(file, "r").getChannel(), 1, 4);
+		queue.add(ByteBuffer.wrap(new byte[] {2}));
+		
+		ThrottledChannel channel = new ThrottledChannel(3);
+		while (!queue.writeTo(channel));
+		assertEquals(0, queue.getPendingBytes());
+		assertArrayEquals(new byte[] {1, 11, 12, 13, 14, 2}, channel.written.toByteArray());
+	}
+	
+	@Test
+	public void testTruncatedFileRegion() throws IOException {
+		File file = File.createTempFile("deft", ".tmp");
+		file.deleteOnExit();
+		FileOutputStream out = new FileOutputStream(file);
+		out.write(new byte[] {10, 11, 12, 13, 14, 15});
+		out.close();
+		
+		WriteQueue queue = new WriteQueue();
+		FileChannel fileChannel = new RandomAccessFile(file, "r").getChannel();
+		queue.add(fileChannel, 0, 6);
+		queue.add(ByteBuffer.wrap(new byte[] {1}));
+		RandomAccessFile truncated = new RandomAccessFile(file, "rw");
+		truncated.setLength(2);
+		truncated.close();
+		
+		ThrottledChannel channel = new ThrottledChannel(3);
+		try {
+			for (int i = 0; i < 10; i++) {	// a stalled region would never drain
+				queue.writeTo(channel);
+			}
+			fail("Expected EOFException");
+		} catch (EOFException expected) {
+		}
+		assertFalse(fileChannel.isOpen());
+		assertEquals(1, queue.getPendingBytes());	// the buffer after the region
+		assertArrayEquals(new byte[] {10, 11}, channel.written.toByteArray());
+	}
+	
+	private static class RecordingCallback implements AsyncCallback<Void> {
+		
+		private final List<String> events;
+		private final String name;
+		
+		RecordingCallback(List<String> events, String name) {
+			this.events = events;
+			this.name = name;
+		}
+
+		@Override
+		public void onFailure(Throwable caught) {
+			events.add(name + ":" + caught.getClass().getSimpleName());
+		}
+
+		@Override
+		public void onSuccess(Void result) {
+			events.add(name);
+		}
+	}
+	
+	@Test
+	public void testCallbacks() throws IOException {
+		List<String> events = new ArrayList<String>();
+		WriteQueue queue = new WriteQueue();
+		queue.add(ByteBuffer.wrap(new byte[] {1, 2, 3}));
+		queue.addCallback(new RecordingCallback(events, "first"));
+		queue.add(ByteBuffer.wrap(new byte[] {4, 5, 6, 7, 8}));
+		queue.addCallback(new RecordingCallback(events, "second"));
+		
+		ThrottledChannel channel = new ThrottledChannel(4);
+		assertFalse(queue.writeTo(channel));
+		assertEquals(1, events.size());
+		assertEquals("first", events.get(0));
+		assertTrue(queue.writeTo(channel));
+		assertEquals(2, events.size());
+		assertEquals("second", events.get(1));
+		assertArrayEquals(new byte[] {1, 2, 3, 4, 5, 6, 7, 8}, channel.written.toByteArray());
+	}
+	
+	@Test
+	public void testClearFailsCallbacks() throws IOException {
+		List<String> events = new ArrayList<String>();
+		WriteQueue queue = new WriteQueue();
+		queue.add(ByteBuffer.wrap(new byte[] {1, 2, 3}));
+		queue.addCallback(new RecordingCallback(events, "first"));
+		queue.clear();
+		assertTrue(queue.isEmpty());
+		assertEquals(1, events.size());
+		assertEquals("first:" + ClosedChannelException.class.getSimpleName(), events.get(0));
+	}
+	
+	@Test
+	public void testReleaseOnceWritten() throws IOException {
+		ByteBufferPool pool = new ByteBufferPool();
+		ByteBuffer pooled = pool.acquire(512);
+		pooled.put(new byte[] {1, 2, 3, 4, 5}).flip();
+		WriteQueue queue = new WriteQueue();
+		queue.add(pooled);
+		queue.release(pool, pooled);
+		
+		ThrottledChannel channel = new ThrottledChannel(4);
+		assertFalse(queue.writeTo(channel));
+		assertNotSame(pooled, pool.acquire(512));	// not yet released
+		assertTrue(queue.writeTo(channel));
+		assertSame(pooled, pool.acquire(512));
+		assertArrayEquals(new byte[] {1, 2, 3, 4, 5}, channel.written.toByteArray());
+	}
+	
+	@Test
+	public void testClearReleases() {
+		ByteBufferPool pool = new ByteBufferPool();
+		ByteBuffer pooled = pool.acquire(512);
+		pooled.put((byte) 1).flip();
+		WriteQueue queue = new WriteQueue();
+		queue.add(pooled);
+		queue.release(pool, pooled);
+		queue.clear();
+		assertSame(pooled, pool.acquire(512));
+	}
+	
+}
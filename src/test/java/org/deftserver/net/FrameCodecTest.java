@@ -0,0 +1,91 @@
+package org.deftserver.net;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+import org.deftserver.buffer.CompositeByteBuffer;
+import org.deftserver.buffer.SlicingByteBufferTokenizer;
+import org.junit.Test;
+
+public class FrameCodecTest {
+
+	private static final Charset ASCII = Charset.forName("US-ASCII");
+	
+	private static SlicingByteBufferTokenizer input(byte[] bytes) {
+		return new SlicingByteBufferTokenizer(16).append(ByteBuffer.wrap(bytes));
+	}
+	
+	private static String string(ByteBuffer buffer) {
+		return ASCII.decode(buffer).toString();
+	}
+	
+	@Test
+	public void delimiterDecoderTest() {
+		DelimiterFrameDecoder decoder = new DelimiterFrameDecoder("\r\n".getBytes(ASCII), 16);
+		SlicingByteBufferTokenizer input = input("one\r\ntwo\r\nthr".getBytes(ASCII));
+		assertEquals("one", string(decoder.decode(input)));
+		assertEquals("two", string(decoder.decode(input)));
+		assertNull(decoder.decode(input));
+		input.append(ByteBuffer.wrap("ee\r\n".getBytes(ASCII)));
+		assertEquals("three", string(decoder.decode(input)));
+	}
+	
+	@Test(expected=FrameException.class)
+	public void delimiterDecoderTooLongTest() {
+		DelimiterFrameDecoder decoder = new DelimiterFrameDecoder("\r\n".getBytes(ASCII), 4);
+		decoder.decode(input("0123456789".getBytes(ASCII)));
+	}
+	
+	@Test
+	public void lengthFieldDecoderTest() {
+		LengthFieldFrameDecoder decoder = new LengthFieldFrameDecoder(2, 1024);
+		SlicingByteBufferTokenizer input = input(new byte[] {0, 3, 'a', 'b', 'c', 0, 0, 0});
+		assertEquals("abc", string(decoder.decode(input)));
+		assertEquals(0, decoder.decode(input).remaining());
+		assertNull(decoder.decode(input));	// half a length field
+		input.append(ByteBuffer.wrap(new byte[] {2, 'd'}));
+		assertNull(decoder.decode(input));	// half a frame
+		input.append(ByteBuffer.wrap(new byte[] {'e'}));
+		assertEquals("de", string(decoder.decode(input)));
+	}
+	
+	@Test(expected=FrameException.class)
+	public void lengthFieldDecoderTooLongTest() {
+		new LengthFieldFrameDecoder(4, 1024).decode(input(new byte[] {0, 0, 4, 1}));
+	}
+	
+	@Test
+	public void fixedLengthDecoderTest() {
+		FixedLengthFrameDecoder decoder = new FixedLengthFrameDecoder(3);
+		SlicingByteBufferTokenizer input = input("abcdefg".getBytes(ASCII));
+		assertEquals("abc", string(decoder.decode(input)));
+		assertEquals("def", string(decoder.decode(input)));
+		assertNull(decoder.decode(input));
+	}
+	
+	@Test
+	public void encodersTest() {
+		CompositeByteBuffer out = new CompositeByteBuffer();
+		new LengthFieldFrameEncoder(2).encode(ByteBuffer.wrap("abc".getBytes(ASCII)), out);
+		new DelimiterFrameEncoder(";".getBytes(ASCII)).encode(ByteBuffer.wrap("de".getBytes(ASCII)), out);
+		new TextLineEncoder().encode("f", out);
+		assertArrayEquals(new byte[] {0, 3, 'a', 'b', 'c', 'd', 'e', ';', 'f', '\r', '\n'}, out.toByteArray());
+	}
+	
+	@Test
+	public void lengthFieldRoundTripTest() {
+		CompositeByteBuffer out = new CompositeByteBuffer();
+		LengthFieldFrameEncoder encoder = new LengthFieldFrameEncoder(4);
+		encoder.encode(ByteBuffer.wrap(new byte[300]), out);
+		encoder.encode(ByteBuffer.wrap("x".getBytes(ASCII)), out);
+		SlicingByteBufferTokenizer input = input(out.toByteArray());
+		LengthFieldFrameDecoder decoder = new LengthFieldFrameDecoder(4, 1024);
+		assertEquals(300, decoder.decode(input).remaining());
+		assertEquals("x", string(decoder.decode(input)));
+	}
+	
+}
@@ -0,0 +1,118 @@
+package org.deftserver.net;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.deftserver.ioloop.IOLoopGroup;
+import org.deftserver.util.ServerHelper;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class FrameServerTest {
+
+	private static final int PORT = 8083;
+	
+	/** The size of every batch handled, in order */
+	private static final List<Integer> batches = Collections.synchronizedList(new ArrayList<Integer>());
+	
+	/**
+	 * Echoes every (length prefixed) frame, reversed.
+	 */
+	private static class ReverseHandler extends FrameHandler<ByteBuffer, ByteBuffer> {
+		
+		@Override
+		public void handleFrames(FrameConnection<ByteBuffer, ByteBuffer> connection, List<ByteBuffer> frames) {
+			batches.add(frames.size());
+			for (ByteBuffer frame : frames) {
+				byte[] reversed = new byte[frame.remaining()];
+				for (int i = reversed.length - 1; i >= 0; i--) {
+					reversed[i] = frame.get();
+				}
+				connection.write(ByteBuffer.wrap(reversed));
+			}
+		}
+		
+	}
+	
+	@BeforeClass
+	public static void setup() throws InterruptedException {
+		IOLoopGroup group = new IOLoopGroup(1);
+		FrameServer<ByteBuffer, ByteBuffer> server = new FrameServer<ByteBuffer, ByteBuffer>(
+				new LengthFieldFrameDecoder(2, 1024), new LengthFieldFrameEncoder(2), new ReverseHandler(), group);
+		server.listen(new InetSocketAddress(PORT));
+		ServerHelper.start(group);
+	}
+	
+	@Test
+	public void batchedFramesTest() throws IOException {
+		Socket socket = new Socket("localhost", PORT);
+		try {
+			OutputStream out = socket.getOutputStream();
+			// three frames in a single write (and most likely read), the third one split over two writes
+			out.write(new byte[] {0, 2, 'a', 'b', 0, 3, 'c', 'd', 'e', 0, 4, 'f'});
+			out.flush();
+			
+			DataInputStream in = new DataInputStream(socket.getInputStream());
+			assertEquals("ba", readFrame(in));
+			assertEquals("edc", readFrame(in));
+			
+			out.write(new byte[] {'g', 'h', 'i'});
+			out.flush();
+			assertEquals("ihgf", readFrame(in));
+		} finally {
+			socket.close();
+		}
+		assertEquals(3, sum(batches));
+	}
+	
+	@Test
+	public void malformedFrameClosesConnectionTest() throws IOException {
+		Socket socket = new Socket("localhost", PORT);
+		try {
+			socket.getOutputStream().write(new byte[] {(byte) 0xff, (byte) 0xff});	// exceeds the max frame length
+			assertEquals(-1, socket.getInputStream().read());
+		} finally {
+			socket.close();
+		}
+	}
+	
+	private static String readFrame(DataInputStream in) throws IOException {
+		byte[] frame = new byte[in.readUnsignedShort()];
+		in.readFully(frame);
+		return new String(frame, "US-ASCII");
+	}
+	
+	private static int sum(List<Integer> values) {
+		synchronized (values) {
+			int sum = 0;
+			for (int value : values) {
+				sum += value;
+			}
+			return sum;
+		}
+	}
+	
+
+	@Test
+	public void portInUseTest() {
+		try {
+			new FrameServer<ByteBuffer, ByteBuffer>(new LengthFieldFrameDecoder(2, 1024), 
+					new LengthFieldFrameEncoder(2), new ReverseHandler()).bind(new InetSocketAddress(PORT));
+			fail();
+		} catch (RuntimeException e) {
+			assertTrue(e.getCause() instanceof IOException);
+		}
+	}
+
+}
@@ -0,0 +1,76 @@
+package org.deftserver.util;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.Socket;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.deftserver.ioloop.IOLoopGroup;
+
+/**
+ * Starts the I/O loops of the servers under test and talks to the servers over raw sockets (i.e. the bytes on the
+ * wire are asserted, not what a client library makes of them).
+ */
+public class ServerHelper {
+
+	/** Max time a read waits for the server, a response that never ends fails the test instead of hanging it */
+	private static final int READ_TIMEOUT = 10 * 1000;
+
+	/**
+	 * Starts the loops of the given group on a daemon thread ({@link IOLoopGroup#start()} blocks) and waits until
+	 * every loop is running.
+	 *
+	 * @return The group
+	 */
+	public static IOLoopGroup start(final IOLoopGroup group) throws InterruptedException {
+		Thread thread = new Thread(new Runnable() {
+			@Override public void run() { group.start(); }
+		});
+		thread.setDaemon(true);
+		thread.start();
+		final CountDownLatch running = new CountDownLatch(group.size());
+		for (int i = 0; i < group.size(); i++) {
+			group.getIOLoop(i).addCallback(new Runnable() {
+				@Override public void run() { running.countDown(); }
+			});
+		}
+		if (!running.await(5, TimeUnit.SECONDS)) {
+			throw new IllegalStateException("I/O loops not started");
+		}
+		return group;
+	}
+
+	/**
+	 * Sends a GET request for the given path ("Connection: close").
+	 *
+	 * @return The response (head and body)
+	 */
+	public static String get(int port, String path) throws IOException {
+		return exchange(port, "GET " + path + " HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n");
+	}
+
+	/**
+	 * Sends the given (raw) requests on a single connection and reads until the server closes it, i.e. the last
+	 * request should close the connection.
+	 *
+	 * @return Everything received (ISO-8859-1 decoded)
+	 */
+	public static String exchange(int port, String requests) throws IOException {
+		Socket socket = new Socket("localhost", port);
+		try {
+			socket.setSoTimeout(READ_TIMEOUT);
+			socket.getOutputStream().write(requests.getBytes("US-ASCII"));
+			InputStream in = new BufferedInputStream(socket.getInputStream());
+			StringBuilder response = new StringBuilder();
+			for (int c; (c = in.read()) != -1; ) {
+				response.append((char) c);
+			}
+			return response.toString();
+		} finally {
+			socket.close();
+		}
+	}
+
+}
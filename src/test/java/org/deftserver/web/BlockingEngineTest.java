@@ -0,0 +1,163 @@
+package org.deftserver.web;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.deftserver.example.AsyncDbHandler;
+import org.deftserver.example.ScatterGatherHandler;
+import org.deftserver.util.ServerHelper;
+import org.deftserver.util.VirtualThreads;
+import org.deftserver.web.handler.RequestHandler;
+import org.deftserver.web.protocol.HttpRequest;
+import org.deftserver.web.protocol.HttpResponse;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class BlockingEngineTest {
+
+	private static final int PORT = 8086;
+
+	/** A server limited to a single connection (if served by platform threads) */
+	private static final int LIMITED_PORT = 8087;
+
+	private static class PersonRequestHandler extends RequestHandler {
+		@Override
+		public void get(HttpRequest request, HttpResponse response) {
+			response.write("person " + request.getPathParameter("id"));
+		}
+	}
+
+	private static class EchoBodyRequestHandler extends RequestHandler {
+		@Override
+		public void post(HttpRequest request, HttpResponse response) {
+			response.write(request.getBody());
+		}
+	}
+
+	private static class AsyncRequestHandler extends RequestHandler {
+		@Override
+		@Asynchronous
+		public void get(HttpRequest request, final HttpResponse response) {
+			new Thread(new Runnable() {
+				@Override public void run() {
+					response.write("finished elsewhere");
+					response.finish();
+				}
+			}).start();
+		}
+	}
+
+	@BeforeClass
+	public static void setup() throws InterruptedException {
+		Map<String, RequestHandler> handlers = new HashMap<String, RequestHandler>();
+		handlers.put("/persons/{id:digits}", new PersonRequestHandler());
+		handlers.put("/echo", new EchoBodyRequestHandler());
+		handlers.put("/async", new AsyncRequestHandler());
+		handlers.put("/scatter", new ScatterGatherHandler());
+		handlers.put("/db", new AsyncDbHandler());
+		Application application = new Application(handlers);
+		application.setMaxRequestBodySize(1024);
+		application.setStaticContentDir("src/test/resources");
+		new HttpServer(application, HttpServer.Engine.BLOCKING).listen(PORT);
+
+		Application limited = new Application(handlers);
+		limited.setBlockingPool(1, 0);
+		new HttpServer(limited, HttpServer.Engine.BLOCKING).listen(LIMITED_PORT);
+		Thread.sleep(300);
+	}
+
+	/**
+	 * Sends the given requests on a single connection, the last one should close it.
+	 */
+	private static String exchange(String requests) throws IOException {
+		return exchange(PORT, requests);
+	}
+
+	private static String exchange(int port, String requests) throws IOException {
+		return ServerHelper.exchange(port, requests);
+	}
+
+	@Test
+	public void keepAliveTest() throws IOException {
+		String responses = exchange(
+				"GET /persons/1 HTTP/1.1\r\nHost: localhost\r\n\r\n" +
+				"GET /persons/2?x=y HTTP/1.1\r\nHost: localhost\r\n\r\n" +
+				"GET /missing HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n");
+		int first = responses.indexOf("person 1");
+		int second = responses.indexOf("person 2");
+		int third = responses.indexOf("HTTP/1.1 404 Not Found");
+		assertTrue(responses, first > 0);
+		assertTrue(responses, second > first);
+		assertTrue(responses, third > second);
+	}
+
+	@Test
+	public void bodyTest() throws IOException {
+		String response = exchange("POST /echo HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n" +
+				"Transfer-Encoding: chunked\r\n\r\n5\r\nhello\r\n6\r\n world\r\n0\r\n\r\n");
+		assertTrue(response, response.startsWith("HTTP/1.1 200 OK"));
+		assertTrue(response, response.endsWith("hello world"));
+	}
+
+	@Test
+	public void tooLargeBodyTest() throws IOException {
+		String response = exchange("POST /echo HTTP/1.1\r\nHost: localhost\r\nContent-Length: 2048\r\n\r\n");
+		assertTrue(response, response.startsWith("HTTP/1.1 413"));
+	}
+
+	@Test
+	public void asynchronousTest() throws IOException {
+		String response = exchange("GET /async HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n");
+		assertTrue(response, response.startsWith("HTTP/1.1 200 OK"));
+		assertTrue(response, response.endsWith("finished elsewhere"));
+	}
+
+	@Test
+	public void completionStageTest() throws IOException {
+		// completed by threads of the (example) database api, there's no I/O loop on the connection's thread
+		String response = exchange("GET /scatter HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n");
+		assertTrue(response, response.startsWith("HTTP/1.1 200 OK"));
+		assertTrue(response, response.endsWith("Names: [Jim123, Jim456]"));
+	}
+
+	@Test
+	public void callbackTest() throws IOException {
+		String response = exchange("GET /db HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n");
+		assertTrue(response, response.startsWith("HTTP/1.1 200 OK"));
+		assertTrue(response, response.endsWith("Name: Jim123"));
+	}
+
+	@Test
+	public void staticFileTest() throws IOException {
+		String response = exchange("GET /src/test/resources/test.txt HTTP/1.1\r\nHost: localhost\r\n" + 
+				"Connection: close\r\n\r\n");
+		assertTrue(response, response.startsWith("HTTP/1.1 200 OK"));
+		String length = response.substring(response.indexOf("Content-Length: ") + 16);
+		length = length.substring(0, length.indexOf("\r\n"));
+		assertEquals(Integer.parseInt(length), response.length() - response.indexOf("\r\n\r\n") - 4);
+	}
+
+	@Test
+	public void connectionLimitTest() throws Exception {
+		assumeTrue(!VirtualThreads.isSupported());
+		String request = "GET /persons/1 HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n";
+		Socket idle = new Socket("localhost", LIMITED_PORT);	// occupies the only connection thread
+		try {
+			Thread.sleep(100);
+			String response = exchange(LIMITED_PORT, "");	// rejected right away, without reading a request
+			assertTrue(response, response.startsWith("HTTP/1.1 503 Service Unavailable"));
+		} finally {
+			idle.close();
+		}
+		Thread.sleep(100);	// the connection thread sees the end of stream and frees its slot
+		String response = exchange(LIMITED_PORT, request);
+		assertTrue(response, response.startsWith("HTTP/1.1 200 OK"));
+	}
+
+}
@@ -0,0 +1,140 @@
+package org.deftserver.web;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.deftserver.ioloop.IOLoopGroup;
+import org.deftserver.util.ServerHelper;
+import org.deftserver.web.handler.RequestHandler;
+import org.deftserver.web.protocol.HttpRequest;
+import org.deftserver.web.protocol.HttpResponse;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class BlockingHandlerTest {
+
+	private static final int PORT = 8084;
+
+	private static final CountDownLatch entered = new CountDownLatch(1);
+	private static final CountDownLatch released = new CountDownLatch(1);
+
+	private static class ThreadNameRequestHandler extends RequestHandler {
+		@Override
+		@Blocking
+		public void get(HttpRequest request, HttpResponse response) {
+			response.write(Thread.currentThread().getName());
+		}
+	}
+
+	private static class GateRequestHandler extends RequestHandler {
+		@Override
+		@Blocking
+		public void get(HttpRequest request, HttpResponse response) {
+			entered.countDown();
+			try {
+				released.await(10, TimeUnit.SECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			response.write("released");
+		}
+	}
+
+	private static class ThrowingRequestHandler extends RequestHandler {
+		@Override
+		@Blocking
+		public void get(HttpRequest request, HttpResponse response) {
+			response.write("partial");
+			throw new IllegalStateException("handler failure");
+		}
+	}
+
+	private static class FlushingThrowingRequestHandler extends RequestHandler {
+		@Override
+		@Blocking
+		public void get(HttpRequest request, HttpResponse response) {
+			response.write("partial");
+			response.flush();
+			response.write("discarded");
+			throw new IllegalStateException("handler failure after flush");
+		}
+	}
+
+	@BeforeClass
+	public static void setup() throws InterruptedException {
+		Map<String, RequestHandler> handlers = new HashMap<String, RequestHandler>();
+		handlers.put("/thread", new ThreadNameRequestHandler());
+		handlers.put("/gate", new GateRequestHandler());
+		handlers.put("/throw", new ThrowingRequestHandler());
+		handlers.put("/flushThrow", new FlushingThrowingRequestHandler());
+		Application application = new Application(handlers);
+		application.setBlockingPool(1, 0);
+
+		IOLoopGroup group = new IOLoopGroup(1);
+		new HttpServer(application, group).listen(PORT);
+		ServerHelper.start(group);
+	}
+
+	private static String get(String path) throws IOException {
+		return ServerHelper.get(PORT, path);
+	}
+
+	@Test
+	public void blockingHandlersTest() throws Exception {
+		String response = get("/thread");
+		assertTrue(response, response.startsWith("HTTP/1.1 200 OK"));
+		assertTrue(response, response.endsWith("deft-blocking-1"));
+
+		response = get("/throw");
+		assertTrue(response, response.startsWith("HTTP/1.1 500 Internal Server Error"));
+		assertTrue(response, !response.contains("partial"));
+
+		// occupy the only worker, the next blocking request is rejected right away
+		final String[] gated = new String[1];
+		Thread client = new Thread(new Runnable() {
+			@Override public void run() {
+				try {
+					gated[0] = get("/gate");
+				} catch (IOException e) {
+					gated[0] = e.toString();
+				}
+			}
+		});
+		client.start();
+		assertTrue(entered.await(5, TimeUnit.SECONDS));
+
+		response = get("/thread");
+		assertTrue(response, response.startsWith("HTTP/1.1 503 Service Unavailable"));
+		assertTrue(response, response.contains("Retry-After: 1"));
+
+		released.countDown();
+		client.join(5000);
+		assertTrue(gated[0], gated[0].startsWith("HTTP/1.1 200 OK"));
+		assertTrue(gated[0], gated[0].endsWith("released"));
+	}
+
+	@Test
+	public void failureAfterFlushClosesConnectionTest() throws Exception {
+		// a kept alive connection would not be closed by the server (the read times out)
+		String response = ServerHelper.exchange(PORT, "GET /flushThrow HTTP/1.1\r\nHost: localhost\r\n\r\n");
+		assertTrue(response, response.startsWith("HTTP/1.1 200 OK"));
+		assertTrue(response, response.endsWith("partial"));
+		assertFalse(response, response.contains("500"));
+	}
+
+	@Test
+	public void sequentialRequestsAtTheLimitTest() throws Exception {
+		// the only worker's slot is freed before a response is sent, i.e. the next request is never rejected
+		for (int i = 0; i < 200; i++) {
+			String response = get("/thread");
+			assertTrue(i + ": " + response, response.startsWith("HTTP/1.1 200 OK"));
+		}
+	}
+
+}
@@ -0,0 +1,119 @@
+package org.deftserver.web;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.deftserver.ioloop.IOLoop;
+import org.deftserver.ioloop.IOLoopGroup;
+import org.deftserver.util.ServerHelper;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class CompletionStagesTest {
+
+	private static IOLoop ioLoop;
+
+	@BeforeClass
+	public static void setup() throws InterruptedException {
+		ioLoop = ServerHelper.start(new IOLoopGroup(1)).getIOLoop(0);
+	}
+
+	@Test
+	public void allTest() throws Exception {
+		CompletableFuture<String> first = new CompletableFuture<String>();
+		CompletableFuture<String> second = new CompletableFuture<String>();
+		CompletableFuture<List<String>> all = CompletionStages.all(Arrays.asList(first, second));
+		second.complete("b");
+		assertTrue(!all.isDone());
+		first.complete("a");
+		assertEquals(Arrays.asList("a", "b"), all.get());
+
+		assertEquals(Collections.emptyList(), CompletionStages.all(Collections.<CompletableFuture<String>>emptyList()).get());
+	}
+
+	@Test
+	public void allFailsTest() throws InterruptedException {
+		CompletableFuture<String> first = new CompletableFuture<String>();
+		CompletableFuture<String> second = new CompletableFuture<String>();
+		CompletableFuture<List<String>> all = CompletionStages.all(Arrays.asList(first, second));
+		IllegalStateException failure = new IllegalStateException();
+		second.completeExceptionally(failure);
+		try {
+			all.get();
+			fail();
+		} catch (ExecutionException e) {
+			assertSame(failure, e.getCause());
+		}
+		assertTrue(all.isCompletedExceptionally());
+	}
+
+	@Test
+	public void anyTest() throws Exception {
+		CompletableFuture<String> first = new CompletableFuture<String>();
+		CompletableFuture<String> second = new CompletableFuture<String>();
+		CompletableFuture<String> any = CompletionStages.any(Arrays.asList(first, second));
+		first.completeExceptionally(new IllegalStateException());
+		assertTrue(!any.isDone());	// a failure is ignored while another stage may succeed
+		second.complete("b");
+		assertEquals("b", any.get());
+
+		CompletableFuture<String> failed = new CompletableFuture<String>();
+		failed.completeExceptionally(new IllegalStateException());
+		assertTrue(CompletionStages.any(Arrays.asList(failed)).isCompletedExceptionally());
+	}
+
+	@Test
+	public void withTimeoutTest() throws Exception {
+		CompletableFuture<String> never = new CompletableFuture<String>();
+		try {
+			CompletionStages.withTimeout(never, 50, ioLoop).get(5, TimeUnit.SECONDS);
+			fail();
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof TimeoutException);
+		}
+		CompletableFuture<String> done = new CompletableFuture<String>();
+		CompletableFuture<String> result = CompletionStages.withTimeout(done, 5000, ioLoop);
+		done.complete("done");
+		assertEquals("done", result.get(1, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void withTimeoutWithoutLoopTest() throws Exception {
+		CompletableFuture<String> never = new CompletableFuture<String>();
+		try {
+			CompletionStages.withTimeout(never, 50, null).get(5, TimeUnit.SECONDS);
+			fail();
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof TimeoutException);
+		}
+		CompletableFuture<String> done = new CompletableFuture<String>();
+		CompletableFuture<String> result = CompletionStages.withTimeout(done, 5000, null);
+		done.complete("done");
+		assertEquals("done", result.get(1, TimeUnit.SECONDS));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void onLoopWithoutLoopTest() {
+		CompletionStages.onLoop(new CompletableFuture<String>(), null);
+	}
+
+	@Test
+	public void onLoopTest() throws Exception {
+		CompletableFuture<String> stage = new CompletableFuture<String>();
+		CompletableFuture<Boolean> onLoop = CompletionStages.onLoop(stage, ioLoop)
+				.thenApply(value -> IOLoop.current() == ioLoop);
+		stage.complete("value");	// completed by the test thread
+		assertTrue(onLoop.get(5, TimeUnit.SECONDS));
+	}
+
+}
@@ -5,9 +5,12 @@ import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 
 import java.io.BufferedReader;
+import java.io.DataInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.net.Socket;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.LinkedList;
@@ -27,13 +30,16 @@ import org.apache.http.client.methods.HttpDelete;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.client.methods.HttpPut;
+import org.apache.http.entity.StringEntity;
 import org.apache.http.impl.client.DefaultHttpClient;
 import org.apache.http.message.BasicHeader;
 import org.apache.http.params.BasicHttpParams;
 import org.apache.http.params.HttpConnectionParams;
 import org.apache.http.params.HttpParams;
 import org.apache.http.params.HttpProtocolParams;
+import org.deftserver.buffer.ByteBufferPool;
 import org.deftserver.example.AsyncDbHandler;
+import org.deftserver.example.ScatterGatherHandler;
 import org.deftserver.web.handler.RequestHandler;
 import org.junit.BeforeClass;
 import org.junit.Test;
@@ -43,6 +49,13 @@ public class DeftSystemTest {
 
 	private static final int PORT = 8081;
 	
+	private static final int MAX_REQUEST_BODY_SIZE = 64 * 1024;
+	
+	/** Larger than the socket send buffer, i.e. the response can't be written in one go */
+	private static final int LARGE_RESPONSE_SIZE = 4 * 1024 * 1024;
+	
+	private static final int OFF_LOOP_RESPONSE_SIZE = 512 * 1024;
+	
 	public static final String expectedPayload = "hello test";
 
 	private static class ExampleRequestHandler extends RequestHandler {
@@ -139,11 +152,69 @@ public class DeftSystemTest {
 		}
 	}
 	
+	private static class EchoBodyRequestHandler extends RequestHandler {
+		@Override
+		public void post(org.deftserver.web.protocol.HttpRequest request, org.deftserver.web.protocol.HttpResponse response) {
+			response.write(request.getBody());
+		}
+	}
+	
+	private static class StreamingBodyRequestHandler extends RequestHandler {
+		
+		private int bytesReceived = 0;
+		
+		@Override
+		public void onBodyChunk(org.deftserver.web.protocol.HttpRequest request, ByteBuffer chunk) {
+			bytesReceived += chunk.remaining();
+		}
+		
+		@Override
+		@StreamingBody
+		public void post(org.deftserver.web.protocol.HttpRequest request, org.deftserver.web.protocol.HttpResponse response) {
+			response.write(String.valueOf(bytesReceived));
+			bytesReceived = 0;
+		}
+	}
+	
+	private static class LargeResponseRequestHandler extends RequestHandler {
+		@Override
+		public void get(org.deftserver.web.protocol.HttpRequest request, org.deftserver.web.protocol.HttpResponse response) {
+			byte[] chunk = new byte[1024];
+			Arrays.fill(chunk, (byte) 'x');
+			for (int i = 0; i < LARGE_RESPONSE_SIZE / chunk.length; i++) {
+				response.write(chunk);
+			}
+		}
+	}
+	
+	/**
+	 * Writes and finishes the response on a thread of its own, i.e. off the I/O loop.
+	 */
+	private static class OffLoopRequestHandler extends RequestHandler {
+		@Override
+		@Asynchronous
+		public void get(org.deftserver.web.protocol.HttpRequest request, 
+				final org.deftserver.web.protocol.HttpResponse response) {
+			new Thread(new Runnable() {
+				@Override
+				public void run() {
+					byte[] chunk = new byte[1024];
+					Arrays.fill(chunk, (byte) 'y');
+					for (int i = 0; i < OFF_LOOP_RESPONSE_SIZE / chunk.length; i++) {
+						response.write(chunk);
+					}
+					response.finish();
+				}
+			}).start();
+		}
+	}
+	
 	@BeforeClass
 	public static void setup() {
 		Map<String, RequestHandler> reqHandlers = new HashMap<String, RequestHandler>();
 		reqHandlers.put("/", new ExampleRequestHandler());
 		reqHandlers.put("/mySql", new AsyncDbHandler());
+		reqHandlers.put("/scatter", new ScatterGatherHandler());
 		reqHandlers.put("/w", new WRequestHandler());
 		reqHandlers.put("/ww", new WWRequestHandler());
 		reqHandlers.put("/wwfw", new WWFWRequestHandler());
@@ -154,8 +225,13 @@ public class DeftSystemTest {
 		reqHandlers.put("/capturing/([0-9]+)", new CapturingRequestRequestHandler());
 		reqHandlers.put("/throw", new ThrowingHttpExceptionRequestHandler());
 		reqHandlers.put("/async_throw", new AsyncThrowingHttpExceptionRequestHandler());
+		reqHandlers.put("/echo", new EchoBodyRequestHandler());
+		reqHandlers.put("/stream", new StreamingBodyRequestHandler());
+		reqHandlers.put("/large", new LargeResponseRequestHandler());
+		reqHandlers.put("/offloop", new OffLoopRequestHandler());
 		
 		final Application application = new Application(reqHandlers);
+		application.setMaxRequestBodySize(MAX_REQUEST_BODY_SIZE);
 		application.setStaticContentDir("src/test/resources");
 		
 		// start deft instance from a new thread because the start invocation is blocking 
@@ -484,6 +560,17 @@ public class DeftSystemTest {
 	}
 	
 
+	@Test
+	public void completionStageHandlerTest() throws ClientProtocolException, IOException {
+		DefaultHttpClient httpclient = new DefaultHttpClient();
+		HttpGet httpget = new HttpGet("http://localhost:" + PORT + "/scatter");
+		HttpResponse response = httpclient.execute(httpget);
+		
+		assertEquals(200, response.getStatusLine().getStatusCode());
+		String payLoad = convertStreamToString(response.getEntity().getContent()).trim();
+		assertEquals("Names: [Jim123, Jim456]", payLoad);
+	}
+
 	@Test
 	public void httpExceptionTest() throws ClientProtocolException, IOException {
 		DefaultHttpClient httpclient = new DefaultHttpClient();
@@ -545,6 +632,177 @@ public class DeftSystemTest {
 		assertNotNull(response.getFirstHeader("Last-Modified"));
 	}
 	
+	@Test
+	public void pipelinedRequestsTest() throws IOException {
+		// the first request is handled asynchronously, still the responses must arrive in request order
+		String requests = 
+			"GET /mySql HTTP/1.1\r\nHost: localhost\r\n\r\n" +
+			"GET / HTTP/1.1\r\nHost: localhost\r\n\r\n" +
+			"GET /echo HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n";
+		Socket socket = new Socket("localhost", PORT);
+		try {
+			socket.getOutputStream().write(requests.getBytes("US-ASCII"));
+			String responses = convertStreamToString(socket.getInputStream());
+			
+			int first = responses.indexOf("Name: ");
+			int second = responses.indexOf(expectedPayload);
+			int third = responses.indexOf("HTTP/1.1 501");
+			assertTrue(first > 0);
+			assertTrue(second > first);
+			assertTrue(third > second);
+		} finally {
+			socket.close();
+		}
+	}
+	
+	@Test
+	public void pipelinedRequestsFinishedOffLoopTest() throws IOException {
+		// the first response is finished off the I/O loop, the following ones must wait until it's written
+		String requests = 
+			"GET /offloop HTTP/1.1\r\nHost: localhost\r\n\r\n" +
+			"GET / HTTP/1.1\r\nHost: localhost\r\n\r\n" +
+			"GET / HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n";
+		for (int i = 0; i < 10; i++) {
+			Socket socket = new Socket("localhost", PORT);
+			try {
+				socket.setSoTimeout(5000);
+				socket.getOutputStream().write(requests.getBytes("US-ASCII"));
+				InputStream in = socket.getInputStream();
+				byte[] first = readResponseBody(in);
+				assertEquals(OFF_LOOP_RESPONSE_SIZE, first.length);
+				assertEquals('y', first[0]);
+				assertEquals('y', first[first.length - 1]);
+				assertEquals(expectedPayload, new String(readResponseBody(in), "US-ASCII"));
+				assertEquals(expectedPayload, new String(readResponseBody(in), "US-ASCII"));
+				assertEquals(-1, in.read());
+			} finally {
+				socket.close();
+			}
+		}
+	}
+	
+	@Test
+	public void keepAliveConnectionHoldsNoPooledBuffersTest() throws IOException, InterruptedException {
+		ByteBufferPool.setLeakDetection(true);
+		try {
+			int unreleased = ByteBufferPool.getUnreleasedCount();
+			// the second response is held back until the first (asynchronous) one is written, the third one spans 
+			// many pooled segments
+			String requests = 
+				"GET /mySql HTTP/1.1\r\nHost: localhost\r\n\r\n" +
+				"GET / HTTP/1.1\r\nHost: localhost\r\n\r\n" +
+				"GET /large HTTP/1.1\r\nHost: localhost\r\n\r\n";
+			Socket socket = new Socket("localhost", PORT);
+			try {
+				socket.getOutputStream().write(requests.getBytes("US-ASCII"));
+				InputStream in = socket.getInputStream();
+				assertTrue(new String(readResponseBody(in), "US-ASCII").startsWith("Name: "));
+				assertEquals(expectedPayload, new String(readResponseBody(in), "US-ASCII"));
+				assertEquals(LARGE_RESPONSE_SIZE, readResponseBody(in).length);
+				
+				// the connection is idle (and open), the last buffers are released right after being written
+				long deadline = System.currentTimeMillis() + 2000;
+				while (ByteBufferPool.getUnreleasedCount() != unreleased && System.currentTimeMillis() < deadline) {
+					Thread.sleep(10);
+				}
+				assertEquals(unreleased, ByteBufferPool.getUnreleasedCount());
+			} finally {
+				socket.close();
+			}
+		} finally {
+			ByteBufferPool.setLeakDetection(false);
+		}
+	}
+	
+	/**
+	 * Reads a response (with a Content-Length header) from the stream, leaving any following response in it.
+	 * 
+	 * @return The body
+	 */
+	private static byte[] readResponseBody(InputStream in) throws IOException {
+		StringBuilder head = new StringBuilder();
+		while (!head.toString().endsWith("\r\n\r\n")) {
+			int c = in.read();
+			assertTrue("Unexpected end of stream", c >= 0);
+			head.append((char) c);
+		}
+		int start = head.indexOf("Content-Length: ") + "Content-Length: ".length();
+		byte[] body = new byte[Integer.parseInt(head.substring(start, head.indexOf("\r\n", start)))];
+		new DataInputStream(in).readFully(body);
+		return body;
+	}
+	
+	@Test
+	public void largeResponseTest() throws ClientProtocolException, IOException {
+		DefaultHttpClient httpclient = new DefaultHttpClient();
+		HttpGet httpget = new HttpGet("http://localhost:" + PORT + "/large");
+		HttpResponse response = httpclient.execute(httpget);
+		
+		assertEquals(200, response.getStatusLine().getStatusCode());
+		assertEquals(String.valueOf(LARGE_RESPONSE_SIZE), response.getFirstHeader("Content-Length").getValue());
+		InputStream in = response.getEntity().getContent();
+		byte[] buffer = new byte[8192];
+		int total = 0;
+		for (int n; (n = in.read(buffer)) != -1; ) {
+			total += n;
+		}
+		assertEquals(LARGE_RESPONSE_SIZE, total);
+	}
+	
+	private String createBody(int length) {
+		StringBuilder sb = new StringBuilder(length);
+		for (int i = 0; i < length; i++) {
+			sb.append((char) ('a' + i % 26));
+		}
+		return sb.toString();
+	}
+	
+	private HttpResponse doPost(String path, String body, boolean chunked, boolean expectContinue) 
+			throws ClientProtocolException, IOException {
+		HttpParams params = new BasicHttpParams();
+		HttpProtocolParams.setUseExpectContinue(params, expectContinue);
+		HttpClient httpclient = new DefaultHttpClient(params);
+		HttpPost httppost = new HttpPost("http://localhost:" + PORT + path);
+		StringEntity entity = new StringEntity(body);
+		entity.setChunked(chunked);
+		httppost.setEntity(entity);
+		return httpclient.execute(httppost);
+	}
+	
+	@Test
+	public void postBodyLargerThanReadBufferTest() throws ClientProtocolException, IOException {
+		String body = createBody(10000);
+		HttpResponse response = doPost("/echo", body, false, false);
+		
+		assertEquals(200, response.getStatusLine().getStatusCode());
+		assertEquals(body, convertStreamToString(response.getEntity().getContent()).trim());
+	}
+	
+	@Test
+	public void chunkedPostBodyTest() throws ClientProtocolException, IOException {
+		String body = createBody(20000);
+		HttpResponse response = doPost("/echo", body, true, false);
+		
+		assertEquals(200, response.getStatusLine().getStatusCode());
+		assertEquals(body, convertStreamToString(response.getEntity().getContent()).trim());
+	}
+	
+	@Test
+	public void streamingPostBodyTest() throws ClientProtocolException, IOException {
+		int length = 4 * MAX_REQUEST_BODY_SIZE;	// streamed bodies are not limited
+		HttpResponse response = doPost("/stream", createBody(length), true, false);
+		
+		assertEquals(200, response.getStatusLine().getStatusCode());
+		assertEquals(String.valueOf(length), convertStreamToString(response.getEntity().getContent()).trim());
+	}
+	
+	@Test
+	public void tooLargePostBodyTest() throws ClientProtocolException, IOException {
+		HttpResponse response = doPost("/echo", createBody(MAX_REQUEST_BODY_SIZE + 1), false, true);
+		
+		assertEquals(413, response.getStatusLine().getStatusCode());
+	}
+	
 	public String convertStreamToString(InputStream is) throws IOException {
 		if (is != null) {
 			StringBuilder sb = new StringBuilder();
@@ -0,0 +1,134 @@
+package org.deftserver.web;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+
+import org.deftserver.util.HttpRequestHelper;
+import org.deftserver.web.protocol.HttpRequest;
+import org.deftserver.web.protocol.HttpRequestParser;
+import org.junit.Test;
+
+
+public class HttpRequestParserTest {
+
+	private static ByteBuffer wrap(String s) {
+		return ByteBuffer.wrap(s.getBytes());
+	}
+	
+	@Test
+	public void singleBufferTest() {
+		HttpRequestHelper helper = new HttpRequestHelper();
+		helper.setRequestedPath("/persons");
+		HttpRequest request = new HttpRequestParser().parse(helper.getRequestAsByteBuffer());
+		
+		assertNotNull(request);
+		assertEquals(HttpVerb.GET, request.getMethod());
+		assertEquals("/persons", request.getRequestedPath());
+		assertEquals("HTTP/1.1", request.getVersion());
+		assertEquals("GET /persons HTTP/1.1", request.getRequestLine());
+		assertEquals("localhost:8080", request.getHeader("Host"));
+		assertEquals("Mozilla/5.0", request.getHeader("User-Agent"));
+		assertEquals(3, request.getHeaders().size());
+	}
+	
+	@Test
+	public void byteByByteTest() {
+		byte[] raw = new HttpRequestHelper().getRequestAsBytes();
+		HttpRequestParser parser = new HttpRequestParser(4);
+		HttpRequest request = null;
+		for (int i = 0; i < raw.length; i++) {
+			assertNull(request);
+			request = parser.parse(ByteBuffer.wrap(raw, i, 1));
+		}
+		assertNotNull(request);
+		assertEquals("/", request.getRequestedPath());
+		assertEquals("abcde@qwert.com", request.getHeader("From"));
+	}
+	
+	@Test
+	public void bodyIsLeftInBufferTest() {
+		ByteBuffer buffer = wrap("POST /post HTTP/1.1\r\nHost: localhost\r\n\r\nbody");
+		HttpRequest request = new HttpRequestParser().parse(buffer);
+		
+		assertEquals(HttpVerb.POST, request.getMethod());
+		assertEquals(4, buffer.remaining());
+		assertEquals('b', buffer.get());
+	}
+	
+	@Test
+	public void subsequentRequestsTest() {
+		HttpRequestParser parser = new HttpRequestParser();
+		ByteBuffer buffer = wrap("GET /a HTTP/1.1\r\nHost: x\r\n\r\nDELETE /b HTTP/1.0\r\n\r\n");
+		
+		HttpRequest first = parser.parse(buffer);
+		HttpRequest second = parser.parse(buffer);
+		assertEquals("/a", first.getRequestedPath());
+		assertEquals(HttpVerb.DELETE, second.getMethod());
+		assertEquals("/b", second.getRequestedPath());
+		assertEquals("HTTP/1.0", second.getVersion());
+		assertFalse(second.isKeepAlive());
+		assertFalse(buffer.hasRemaining());
+	}
+	
+	@Test
+	public void pipelinedRequestsTest() {
+		String head = "GET /pipelined HTTP/1.1\r\nHost: localhost\r\n\r\n";
+		int count = 1000;
+		ByteBuffer buffer = ByteBuffer.allocateDirect(head.length() * count);
+		for (int i = 0; i < count; i++) {
+			buffer.put(head.getBytes());
+		}
+		buffer.flip();
+		HttpRequestParser parser = new HttpRequestParser();
+		for (int i = 1; i <= count; i++) {
+			HttpRequest request = parser.parse(buffer);
+			assertEquals("/pipelined", request.getRequestedPath());
+			assertEquals(i * head.length(), buffer.position());	// nothing beyond the head is consumed
+		}
+		assertNull(parser.parse(buffer));
+	}
+	
+	@Test
+	public void lenientWhitespaceAndLineEndingsTest() {
+		HttpRequest request = new HttpRequestParser().parse(wrap("\r\nPUT /x HTTP/1.1\nHost:localhost  \nEmpty:\n\n"));
+		
+		assertEquals(HttpVerb.PUT, request.getMethod());
+		assertEquals("localhost", request.getHeader("Host"));
+		assertEquals("", request.getHeader("Empty"));
+		assertTrue(request.isKeepAlive());
+	}
+	
+	@Test
+	public void allMethodsTest() {
+		for (HttpVerb verb : HttpVerb.values()) {
+			HttpRequest request = new HttpRequestParser().parse(wrap(verb + " / HTTP/1.1\r\nHost: x\r\n\r\n"));
+			assertEquals(verb, request.getMethod());
+		}
+	}
+	
+	@Test
+	public void unknownMethodTest() {
+		try {
+			new HttpRequestParser().parse(wrap("BREW /pot HTTP/1.1\r\n\r\n"));
+			assertTrue("Expected HttpException", false);
+		} catch (HttpException e) {
+			assertEquals(501, e.getStatusCode());
+		}
+	}
+	
+	@Test
+	public void malformedHeaderTest() {
+		try {
+			new HttpRequestParser().parse(wrap("GET / HTTP/1.1\r\nNoColon\r\n\r\n"));
+			assertTrue("Expected HttpException", false);
+		} catch (HttpException e) {
+			assertEquals(400, e.getStatusCode());
+		}
+	}
+	
+}
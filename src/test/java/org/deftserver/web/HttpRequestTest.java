@@ -3,12 +3,14 @@ package org.deftserver.web;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -241,6 +243,34 @@ public class HttpRequestTest {
 		params.put("not", new ArrayList<String>());	
 	}
 	
+	@Test
+	public void testDecodedParameters() {
+		HttpRequest request = new HttpRequest("GET /search?q=deft+server&name=J%C3%B6rgen&path=%2Fa%2fb HTTP/1.1", 
+				new HashMap<String, String>());
+		
+		assertEquals("deft server", request.getParameter("q"));
+		assertEquals("J\u00f6rgen", request.getParameter("name"));
+		assertEquals("/a/b", request.getParameter("path"));
+	}
+	
+	@Test
+	public void testMalformedEscapeInParameter() {
+		HttpRequest request = new HttpRequest("GET /?a=100%&b=%zz&c%3D=1 HTTP/1.1", new HashMap<String, String>());
+
+		assertEquals("100%", request.getParameter("a"));
+		assertEquals("%zz", request.getParameter("b"));
+		assertEquals("1", request.getParameter("c="));
+	}
+	
+	@Test
+	public void testSemicolonSeparatedParameters() {
+		HttpRequest request = new HttpRequest("GET /?a=1;a=2;b=3 HTTP/1.1", new HashMap<String, String>());
+
+		assertEquals(Arrays.asList("1", "2"), new ArrayList<String>(request.getParameterValues("a")));
+		assertEquals("3", request.getParameter("b"));
+		assertTrue(request.getParameterValues("c").isEmpty());
+	}
+	
 	@Test
 	public void testHostVerification_exists_HTTP_1_0() {
 		HttpRequestHelper helper = new HttpRequestHelper();
@@ -276,4 +306,82 @@ public class HttpRequestTest {
 		boolean requestOk = HttpUtil.verifyRequest(request);
 		assertFalse(requestOk);
 	}
+	
+	private static HttpRequest parse(String head) {
+		return HttpRequest.of(ByteBuffer.wrap(head.getBytes()));
+	}
+	
+	@Test
+	public void testHeaderLookupIsCaseInsensitive() {
+		HttpRequest request = parse("GET / HTTP/1.1\r\nHost: localhost\r\nContent-Type: text/plain\r\n\r\n");
+		assertEquals("text/plain", request.getHeader("Content-Type"));
+		assertEquals("text/plain", request.getHeader("content-type"));
+		assertEquals("text/plain", request.getHeader("CONTENT-TYPE"));
+		assertEquals("localhost", request.getHeader("hOsT"));
+		// same length, different name
+		assertNull(request.getHeader("Content-Typf"));
+	}
+	
+	@Test
+	public void testMissingHeader() {
+		HttpRequest request = parse("GET / HTTP/1.1\r\nHost: localhost\r\n\r\n");
+		assertNull(request.getHeader("Accept"));
+		assertNull(request.getHeader("Hos"));
+		assertNull(request.getHeader("Host2"));
+		assertNull(request.getHeader(""));
+		assertFalse(request.getHeaders().containsKey("Accept"));
+	}
+	
+	@Test
+	public void testDuplicateHeaders() {
+		HttpRequest request = parse("GET / HTTP/1.1\r\nHost: localhost\r\nAccept: text/html\r\n" + 
+				"accept: application/json\r\nAccept: */*\r\n\r\n");
+		// the first occurrence wins, for lookups and the map alike
+		assertEquals("text/html", request.getHeader("Accept"));
+		assertEquals("text/html", request.getHeader("accept"));
+		assertEquals("text/html", request.getHeaders().get("Accept"));
+		assertEquals("application/json", request.getHeaders().get("accept"));
+		assertEquals(3, request.getHeaders().size());
+	}
+	
+	@Test
+	public void testHeaderValueWhitespace() {
+		HttpRequest request = parse("GET / HTTP/1.1\r\nHost:localhost\r\nAccept:   text/html  \r\n" + 
+				"X-Tabs:\t a b \t\r\nX-Empty:   \r\n\r\n");
+		assertEquals("localhost", request.getHeader("Host"));
+		assertEquals("text/html", request.getHeader("Accept"));
+		assertEquals("a b", request.getHeader("X-Tabs"));	// inner whitespace is kept
+		assertEquals("", request.getHeader("X-Empty"));
+		assertEquals("text/html", request.getHeaders().get("Accept"));
+	}
+	
+	@Test
+	public void testHeaderLookupsMatchHashMap() {
+		HttpRequestHelper helper = new HttpRequestHelper();
+		helper.addHeader("Host", "127.0.0.1:8080");
+		helper.addHeader("User-Agent", "Mozilla/5.0 (Macintosh; U; Intel Mac OS X 10.6; sv-SE; rv:1.9.2.2)");
+		helper.addHeader("Accept-Language", "sv-se,sv;q=0.8,en-us;q=0.5,en;q=0.3");
+		helper.addHeader("Keep-Alive", "115");
+		helper.addHeader("Cookie", "a=b; c=d: e");
+		ByteBuffer buffer = helper.getRequestAsByteBuffer();
+		
+		// the headers as the previous HashMap based implementation parsed them
+		String[] lines = new String(buffer.array()).split("\\r\\n\\r\\n")[0].split("\\r\\n");
+		Map<String, String> expected = new HashMap<String, String>();
+		for (int i = 1; i < lines.length; i++) {
+			int colon = lines[i].indexOf(": ");
+			expected.put(lines[i].substring(0, colon), lines[i].substring(colon + 2));
+		}
+		
+		HttpRequest parsed = HttpRequest.of(buffer);
+		HttpRequest constructed = new HttpRequest("GET / HTTP/1.1", expected);
+		assertEquals(expected, parsed.getHeaders());
+		assertEquals(expected, constructed.getHeaders());
+		for (Map.Entry<String, String> header : expected.entrySet()) {
+			assertEquals(header.getValue(), parsed.getHeader(header.getKey()));
+			assertEquals(header.getValue(), constructed.getHeader(header.getKey()));
+		}
+		assertNull(parsed.getHeader("Content-Length"));
+		assertNull(constructed.getHeader("Content-Length"));
+	}
 }
@@ -1,5 +1,13 @@
 package org.deftserver.web;
 
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.HashMap;
+
+import org.deftserver.web.handler.RequestHandler;
 import org.junit.Test;
 
 
@@ -20,6 +28,20 @@ public class HttpServerTest {
 		server.listen(port);
 	}
 	
+	@Test
+	public void testPortInUse() throws IOException {
+		ServerSocket taken = new ServerSocket(0);
+		try {
+			HttpServer server = new HttpServer(new Application(new HashMap<String, RequestHandler>()));
+			server.listen(taken.getLocalPort());
+			fail();
+		} catch (RuntimeException e) {
+			assertTrue(e.getCause() instanceof IOException);
+		} finally {
+			taken.close();
+		}
+	}
+	
 	public void testPortInRange_ok() {
 		int port = 34;
 		HttpServer server = new HttpServer(null);
@@ -0,0 +1,108 @@
+package org.deftserver.web;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.management.ObjectName;
+
+import org.deftserver.web.handler.NotFoundRequestHandler;
+import org.deftserver.web.handler.RequestHandler;
+import org.deftserver.web.handler.StaticContentHandler;
+import org.deftserver.web.protocol.HttpRequest;
+import org.deftserver.web.protocol.HttpResponse;
+import org.junit.Test;
+
+public class RouteCacheTest {
+
+	private static final String[] NONE = {};
+
+	private static Router.Match match() {
+		return new Router.Match(NotFoundRequestHandler.getInstance(), NONE, NONE);
+	}
+
+	@Test
+	public void hitsAndMissesTest() {
+		RouteCache cache = new RouteCache(10);
+		Router.Match match = match();
+		assertNull(cache.get("/a"));
+		cache.put("/a", match);
+		assertSame(match, cache.get("/a"));
+		assertSame(match, cache.get("/a"));
+		assertEquals(2, cache.getHits());
+		assertEquals(1, cache.getMisses());
+		assertEquals(1, cache.getSize());
+	}
+
+	@Test
+	public void evictionTest() {
+		RouteCache cache = new RouteCache(3);
+		cache.put("/hot", match());
+		cache.get("/hot");
+		for (int i = 0; i < 100; i++) {
+			cache.put("/cold/" + i, match());
+			assertNotNull(cache.get("/hot"));
+			assertEquals(Math.min(3, i + 2), cache.getSize());
+		}
+	}
+
+	@Test
+	public void registrationTest() throws Exception {
+		Application app = new Application(new HashMap<String, RequestHandler>());
+		RouteCache cache = new RouteCache(10);
+		assertFalse(cache.isRegistered());
+		int before = ManagementFactory.getPlatformMBeanServer().queryNames(
+				new ObjectName("org.deftserver.web:type=RouteCache,*"), null).size();
+		cache.register();
+		cache.register();
+		assertTrue(cache.isRegistered());
+		assertEquals(before + 1, ManagementFactory.getPlatformMBeanServer().queryNames(
+				new ObjectName("org.deftserver.web:type=RouteCache,*"), null).size());
+		cache.unregister();
+		assertFalse(cache.isRegistered());
+		assertEquals(before, ManagementFactory.getPlatformMBeanServer().queryNames(
+				new ObjectName("org.deftserver.web:type=RouteCache,*"), null).size());
+		app.close();	// never registered, a no-op
+	}
+
+	@Test
+	public void disabledTest() {
+		RouteCache cache = new RouteCache(0);
+		cache.put("/a", match());
+		assertNull(cache.get("/a"));
+		assertEquals(0, cache.getSize());
+	}
+
+	@Test
+	public void applicationTest() {
+		Map<String, RequestHandler> handlers = new HashMap<String, RequestHandler>();
+		RequestHandler handler = new RequestHandler() {
+			@Override public void get(HttpRequest request, HttpResponse response) { }
+		};
+		handlers.put("/persons/{id}", handler);
+		Application app = new Application(handlers);
+
+		Map<String, String> headers = new HashMap<String, String>();
+		headers.put("Host", "localhost");
+		HttpRequest first = new HttpRequest("GET /persons/1 HTTP/1.1", headers);
+		HttpRequest second = new HttpRequest("GET /persons/1?x=y HTTP/1.1", headers);
+		assertSame(handler, app.getHandler(first));
+		assertSame(handler, app.getHandler(second));	// cached, parameters are still set
+		assertEquals("1", second.getPathParameter("id"));
+
+		HttpRequest missing = new HttpRequest("GET /static/file.txt HTTP/1.1", headers);
+		assertSame(NotFoundRequestHandler.getInstance(), app.getHandler(missing));
+		assertSame(NotFoundRequestHandler.getInstance(), app.getHandler(missing));
+		// the cached negative entry must not hide static content
+		app.setStaticContentDir("static");
+		assertSame(StaticContentHandler.getInstance(), app.getHandler(missing));
+	}
+
+}
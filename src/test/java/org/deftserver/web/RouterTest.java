@@ -0,0 +1,145 @@
+package org.deftserver.web;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.deftserver.web.handler.RequestHandler;
+import org.deftserver.web.protocol.HttpRequest;
+import org.deftserver.web.protocol.HttpResponse;
+import org.junit.Test;
+
+public class RouterTest {
+
+	private static RequestHandler handler() {
+		return new RequestHandler() {
+			@Override public void get(HttpRequest request, HttpResponse response) { }
+		};
+	}
+
+	private static Router.Match match(Router router, String path) {
+		return router.match(path, path.length());
+	}
+
+	@Test
+	public void staticRoutesTest() {
+		Router router = new Router();
+		RequestHandler root = handler(), persons = handler(), people = handler(), phones = handler();
+		router.add("/", root);
+		router.add("/persons", persons);
+		router.add("/people", people);
+		router.add("/persons/phone_numbers", phones);
+
+		assertSame(root, match(router, "/").handler);
+		assertSame(persons, match(router, "/persons").handler);
+		assertSame(people, match(router, "/people").handler);
+		assertSame(phones, match(router, "/persons/phone_numbers").handler);
+		assertNull(match(router, "/person"));
+		assertNull(match(router, "/persons/"));
+		assertNull(match(router, "/persons/phone"));
+		assertNull(match(router, ""));
+	}
+
+	@Test
+	public void parametersTest() {
+		Router router = new Router();
+		RequestHandler order = handler(), user = handler(), slug = handler(), any = handler();
+		router.add("/users/{user:digits}/orders/{order}", order);
+		router.add("/users/{id:digits}", user);
+		router.add("/users/{name:slug}", slug);
+		router.add("/users/{name}/about", any);
+
+		Router.Match match = match(router, "/users/42/orders/abc");
+		assertSame(order, match.handler);
+		assertArrayEquals(new String[] {"user", "order"}, match.names);
+		assertArrayEquals(new String[] {"42", "abc"}, match.values);
+
+		assertSame(user, match(router, "/users/42").handler);
+		assertSame(slug, match(router, "/users/roger-2_b").handler);
+		assertArrayEquals(new String[] {"roger-2_b"}, match(router, "/users/roger-2_b").values);
+		assertNull(match(router, "/users/roger.b"));
+		assertSame(any, match(router, "/users/roger.b/about").handler);
+		assertNull(match(router, "/users/"));
+		assertNull(match(router, "/users/42/orders/"));
+	}
+
+	@Test
+	public void backtrackingTest() {
+		Router router = new Router();
+		RequestHandler me = handler(), byId = handler();
+		router.add("/users/me/settings", me);
+		router.add("/users/{id}/profile", byId);
+
+		assertSame(me, match(router, "/users/me/settings").handler);
+		// "me" is a literal prefix but the rest of the path only matches the parameter route
+		Router.Match match = match(router, "/users/me/profile");
+		assertSame(byId, match.handler);
+		assertArrayEquals(new String[] {"me"}, match.values);
+		assertSame(byId, match(router, "/users/meg/profile").handler);
+	}
+
+	@Test
+	public void regexTest() {
+		Router router = new Router();
+		RequestHandler year = handler(), legacy = handler();
+		router.add("/archive/{year:(19|20)[0-9]{2}}", year);
+		router.add("/pets/([0-9]{0,3})", legacy);
+
+		assertArrayEquals(new String[] {"1999"}, match(router, "/archive/1999").values);
+		assertNull(match(router, "/archive/2100"));
+		Router.Match match = match(router, "/pets/123");
+		assertSame(legacy, match.handler);
+		assertArrayEquals(new String[] {null}, match.names);
+		assertArrayEquals(new String[] {"123"}, match.values);
+		assertSame(legacy, match(router, "/pets/").handler);
+		assertNull(match(router, "/pets/1234"));
+	}
+
+	@Test
+	public void endTest() {
+		Router router = new Router();
+		RequestHandler handler = handler();
+		router.add("/persons/{id}", handler);
+
+		String path = "/persons/7?format=json";
+		Router.Match match = router.match(path, path.indexOf('?'));
+		assertSame(handler, match.handler);
+		assertArrayEquals(new String[] {"7"}, match.values);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void duplicateRouteTest() {
+		Router router = new Router();
+		router.add("/persons/{id}", handler());
+		router.add("/persons/{name}", handler());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void partialSegmentTest() {
+		new Router().add("/files/{name}.json", handler());
+	}
+
+	@Test
+	public void applicationPathParametersTest() {
+		Map<String, RequestHandler> handlers = new HashMap<String, RequestHandler>();
+		RequestHandler handler = handler();
+		handlers.put("/persons/{id:digits}/pets/([0-9]+)", handler);
+		Application app = new Application(handlers);
+
+		Map<String, String> headers = new HashMap<String, String>();
+		headers.put("Host", "localhost");
+		HttpRequest request = new HttpRequest("GET /persons/12/pets/3?verbose=true HTTP/1.1", headers);
+		assertSame(handler, app.getHandler(request));
+		assertEquals("12", request.getPathParameter("id"));
+		assertEquals("12", request.getPathParameter(0));
+		assertEquals("3", request.getPathParameter(1));
+		assertEquals(1, request.getPathParameters().size());
+		assertNull(request.getPathParameter("name"));
+		assertEquals("/persons/12/pets/3", request.getPath());
+	}
+
+}
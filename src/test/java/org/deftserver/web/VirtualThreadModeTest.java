@@ -0,0 +1,105 @@
+package org.deftserver.web;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.deftserver.ioloop.IOLoop;
+import org.deftserver.ioloop.IOLoopGroup;
+import org.deftserver.util.ServerHelper;
+import org.deftserver.util.VirtualThreads;
+import org.deftserver.web.handler.RequestHandler;
+import org.deftserver.web.protocol.HttpRequest;
+import org.deftserver.web.protocol.HttpResponse;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class VirtualThreadModeTest {
+
+	private static final int PORT = 8085;
+
+	private static class ThreadNameRequestHandler extends RequestHandler {
+		@Override
+		public void get(HttpRequest request, HttpResponse response) {
+			try {
+				Thread.sleep(10);	// may block
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			response.write(Thread.currentThread().getName());
+		}
+	}
+
+	private static class AsyncRequestHandler extends RequestHandler {
+		@Override
+		@Asynchronous
+		public void get(HttpRequest request, HttpResponse response) {
+			response.write(String.valueOf(IOLoop.current() != null));
+			response.finish();
+		}
+	}
+
+	private static class FlushingRequestHandler extends RequestHandler {
+		@Override
+		public void get(HttpRequest request, HttpResponse response) {
+			response.write("first");
+			response.flush();	// off the loop, handed over to the loop owning the connection
+			response.write(",second");
+		}
+	}
+
+	@BeforeClass
+	public static void setup() throws InterruptedException {
+		Map<String, RequestHandler> handlers = new HashMap<String, RequestHandler>();
+		handlers.put("/thread", new ThreadNameRequestHandler());
+		handlers.put("/async", new AsyncRequestHandler());
+		handlers.put("/flush", new FlushingRequestHandler());
+		Application application = new Application(handlers);
+		application.setVirtualThreads(true);
+		application.setStaticContentDir("src/test/resources");
+
+		IOLoopGroup group = new IOLoopGroup(1);
+		new HttpServer(application, group).listen(PORT);
+		ServerHelper.start(group);
+	}
+
+	private static String get(String path) throws IOException {
+		return ServerHelper.get(PORT, path);
+	}
+
+	@Test
+	public void handlersRunOffTheLoopTest() throws IOException {
+		String response = get("/thread");
+		assertTrue(response, response.startsWith("HTTP/1.1 200 OK"));
+		String expected = VirtualThreads.isSupported() ? "deft-virtual-" : "deft-blocking-";
+		assertTrue(response, response.substring(response.indexOf("\r\n\r\n") + 4).startsWith(expected));
+	}
+
+	@Test
+	public void staticContentTest() throws IOException {
+		for (int i = 0; i < 10; i++) {
+			String response = get("/src/test/resources/n792205362_2067.jpg");
+			assertTrue(response, response.startsWith("HTTP/1.1 200 OK"));
+			assertTrue(response, response.contains("Content-Length: 54963\r\n"));
+			assertEquals(54963, response.length() - response.indexOf("\r\n\r\n") - 4);
+		}
+	}
+
+	@Test
+	public void flushingHandlerTest() throws IOException {
+		String response = get("/flush");
+		assertTrue(response, response.startsWith("HTTP/1.1 200 OK"));
+		assertTrue(response, response.endsWith("\r\n\r\nfirst,second"));
+	}
+
+	@Test
+	public void asynchronousHandlersRunOnTheLoopTest() throws IOException {
+		String response = get("/async");
+		assertTrue(response, response.startsWith("HTTP/1.1 200 OK"));
+		assertTrue(response, response.endsWith("true"));
+	}
+
+}
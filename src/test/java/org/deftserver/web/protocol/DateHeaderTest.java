@@ -0,0 +1,51 @@
+package org.deftserver.web.protocol;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+
+import org.deftserver.util.DateUtil;
+import org.junit.Test;
+
+import com.google.common.base.Charsets;
+
+public class DateHeaderTest {
+
+	@Test
+	public void formatTest() {
+		for (int attempt = 0; attempt < 3; attempt++) {
+			String date = DateUtil.getCurrentAsString();
+			byte[] line = DateHeader.get();
+			if (date.equals(DateUtil.getCurrentAsString())) {
+				assertEquals("Date: " + date + "\r\n", new String(line, Charsets.US_ASCII));
+				return;
+			}
+		}
+		fail("The second changed while getting the line (three times)");
+	}
+	
+	@Test
+	public void cachedWithinSecondTest() {
+		long now = System.currentTimeMillis() / 1000;
+		byte[] first = DateHeader.get();
+		byte[] second = DateHeader.get();
+		if (System.currentTimeMillis() / 1000 == now) {
+			assertSame(first, second);
+		}
+	}
+	
+	@Test
+	public void refreshedWhenStaleTest() throws InterruptedException {
+		byte[] stale = DateHeader.get();
+		byte[] copy = Arrays.copyOf(stale, stale.length);
+		Thread.sleep(1100);	// the line has a resolution of one second
+		
+		byte[] fresh = DateHeader.get();
+		assertFalse(Arrays.equals(stale, fresh));
+		assertEquals(new String(copy, Charsets.US_ASCII), new String(stale, Charsets.US_ASCII));	// not modified
+	}
+	
+}
@@ -0,0 +1,129 @@
+package org.deftserver.web.protocol;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.deftserver.buffer.CompositeByteBuffer;
+import org.deftserver.util.DateUtil;
+import org.deftserver.util.HttpUtil;
+import org.junit.Test;
+
+import com.google.common.base.Charsets;
+
+public class ResponseHeadTest {
+
+	/**
+	 * The head as created by the String based HttpResponse.createInitalLineAndHeaders (before the head was 
+	 * pre-encoded): the "Server", "Date" and "Connection" headers were put into the header map when the response 
+	 * was created, the headers set by the handler afterwards.
+	 */
+	private static byte[] createInitalLineAndHeaders(int statusCode, boolean keepAlive, Map<String, String> handlerHeaders,
+			String date) {
+		Map<String, String> headers = new LinkedHashMap<String, String>();
+		headers.put("Server", "DeftServer/0.1.0");
+		headers.put("Date", date);
+		headers.put("Connection", keepAlive ? "Keep-Alive" : "Close");
+		headers.putAll(handlerHeaders);
+		StringBuilder sb = new StringBuilder(HttpUtil.createInitialLine(statusCode));
+		for (Map.Entry<String, String> header : headers.entrySet()) {
+			sb.append(header.getKey());
+			sb.append(": ");
+			sb.append(header.getValue());
+			sb.append("\r\n");
+		}
+		sb.append("\r\n");
+		return sb.toString().getBytes(Charsets.UTF_8);
+	}
+	
+	private static byte[] encode(int statusCode, boolean keepAlive, Map<String, String> headers) {
+		CompositeByteBuffer out = new CompositeByteBuffer(64);	// the head spans several segments
+		ResponseHead.encode(out, statusCode, keepAlive, headers);
+		return out.toByteArray();
+	}
+	
+	/**
+	 * Asserts that the encoded head equals the String based one, created in the same second (retried if the second 
+	 * changed while encoding).
+	 */
+	private static void assertHead(int statusCode, boolean keepAlive, Map<String, String> headers) {
+		for (int attempt = 0; attempt < 3; attempt++) {
+			String date = DateUtil.getCurrentAsString();
+			byte[] actual = encode(statusCode, keepAlive, headers);
+			if (date.equals(DateUtil.getCurrentAsString())) {
+				assertArrayEquals(new String(actual, Charsets.US_ASCII), 
+						createInitalLineAndHeaders(statusCode, keepAlive, headers, date), actual);
+				return;
+			}
+		}
+		fail("The second changed while encoding (three times)");
+	}
+	
+	@Test
+	public void knownStatusCodesTest() {
+		Map<String, String> headers = new LinkedHashMap<String, String>();
+		for (int statusCode : new int[] {200, 304, 400, 403, 404, 413, 500, 501, 503}) {
+			assertArrayEquals(HttpUtil.createInitialLine(statusCode).getBytes(Charsets.US_ASCII), 
+					ResponseHead.getStatusLine(statusCode));
+			assertHead(statusCode, true, headers);
+			assertHead(statusCode, false, headers);
+		}
+	}
+	
+	@Test
+	public void handlerHeadersTest() {
+		Map<String, String> headers = new LinkedHashMap<String, String>();
+		headers.put("Content-Type", "application/json; charset=UTF-8");
+		headers.put("Etag", "0d41d8cd98f00b204e9800998ecf8427e");
+		headers.put("Content-Length", "1234");
+		assertHead(200, true, headers);
+		assertHead(404, false, headers);
+	}
+	
+	@Test
+	public void overriddenDefaultHeadersTest() {
+		Map<String, String> headers = new LinkedHashMap<String, String>();
+		headers.put("Server", "Test/1.0");
+		headers.put("Connection", "Upgrade");
+		String head = new String(encode(200, true, headers), Charsets.US_ASCII);
+		
+		assertEquals(1, count(head, "Server: "));
+		assertEquals(1, count(head, "Connection: "));
+		assertTrue(head.contains("Server: Test/1.0\r\n"));
+		assertTrue(head.contains("Connection: Upgrade\r\n"));
+		assertTrue(head.contains("Date: "));
+		assertTrue(head.endsWith("\r\n\r\n"));
+	}
+	
+	@Test
+	public void unknownStatusCodeTest() {
+		for (int statusCode : new int[] {-1, 299, 600}) {
+			try {
+				ResponseHead.getStatusLine(statusCode);
+				fail("Expected IllegalArgumentException for " + statusCode);
+			} catch (IllegalArgumentException expected) {
+			}
+		}
+	}
+	
+	@Test
+	public void statusLinesAreSharedTest() {
+		byte[] line = ResponseHead.getStatusLine(200);
+		assertSame(line, ResponseHead.getStatusLine(200));
+		assertEquals("HTTP/1.1 200 OK\r\n", new String(line, Charsets.US_ASCII));
+	}
+	
+	private static int count(String s, String part) {
+		int count = 0;
+		for (int i = s.indexOf(part); i >= 0; i = s.indexOf(part, i + 1)) {
+			count++;
+		}
+		return count;
+	}
+	
+}